@@ -94,4 +94,12 @@ public interface ArrayBuffer {
 	 * Mark the area up to this point as clean --- internal use only (hence the access restriction)
 	 */
 	boolean clean(int limit);
+
+	/**
+	 * a counter that changes whenever the contents of this buffer might have been written to (that is, whenever a writable view onto it has been handed out), or -1 if this buffer doesn't keep
+	 * track
+	 */
+	default int getMod() {
+		return -1;
+	}
 }
@@ -27,7 +27,14 @@ import static org.lwjgl.opengl.GL32.GL_LINES_ADJACENCY;
  * Geometry includes Triangle meshes, lines lists and point lists (which are all subclasses of this). Further customizations can be made by passing in
  * an ArrayBufferFactory.
  */
-public class BaseMesh extends Scene implements Scene.Perform {
+public class BaseMesh extends Scene implements Scene.Perform, GraphicsContext.Slotted, Culling.Bounded {
+
+	protected final GraphicsContext.Slot contextSlot = GraphicsContext.allocateSlot(this);
+
+	@Override
+	public GraphicsContext.Slot getContextSlot() {
+		return contextSlot;
+	}
 
 
 	/**
@@ -105,12 +112,75 @@ public class BaseMesh extends Scene implements Scene.Perform {
 
 	int instances = 0;
 
+	// per-instance attributes (divisor 1), kept apart from the per-vertex ones so that they don't take part in vertex limits
+	ArrayBuffer[] instanceBuffers = new ArrayBuffer[16];
+	int maxInstance = 1;
+
+	/**
+	 * sets the number of instances drawn. 0 (the default) draws this mesh once without instancing
+	 */
 	public BaseMesh setInstances(int num)
 	{
 		this.instances = num;
+		if (num > maxInstance) setInstanceMax(num);
+		return this;
+	}
+
+	public int getInstances() {
+		return instances;
+	}
+
+	/**
+	 * grows the storage of every per-instance attribute to hold at least 'num' instances
+	 */
+	public BaseMesh setInstanceMax(int num) {
+		if (num <= maxInstance) return this;
+		maxInstance = num;
+		for (int i = 0; i < instanceBuffers.length; i++)
+			if (instanceBuffers[i] != null && instanceBuffers[i].getSize() < num) instanceBuffers[i] = instanceBuffers[i].replaceWithSize(num);
 		return this;
 	}
 
+	/**
+	 * return a view onto the storage of a per-instance attribute, creating it if necessary. This works like aux(attribute, dimension), except that the shader sees the same value for every vertex
+	 * of an instance, and the i'th value for the i'th instance. An attribute can't be both per-vertex and per-instance.
+	 */
+	public FloatBuffer instanced(int attribute, int dimension) {
+		return instanceBuffer(attribute, dimension).floats(false);
+	}
+
+	public ArrayBuffer instanceBuffer(int attribute, int dimension) {
+		if (attribute == 0) throw new IllegalArgumentException(" attribute 0 is the vertex position, it can't be per-instance ");
+		if (buffers[attribute] != null)
+			throw new IllegalArgumentException(" attribute " + attribute + " is already declared per-vertex, it can't be per-instance as well ");
+
+		if (instanceBuffers[attribute] == null) {
+			instanceBuffers[attribute] = arrayBufferFactory.newArrayBuffer(maxInstance, GL_ARRAY_BUFFER, attribute, dimension, 1);
+			return instanceBuffers[attribute];
+		}
+
+		if (instanceBuffers[attribute].getDimension() != dimension)
+			throw new IllegalArgumentException(" dimension mismatch. Attribute " + attribute + " was previously declared to be of dimension " + instanceBuffers[attribute].getDimension() + " not " + dimension);
+
+		return instanceBuffers[attribute];
+	}
+
+	/**
+	 * true if this mesh has per-instance attributes. Such a mesh draws nothing at all when it has no instances
+	 */
+	public boolean isInstanced() {
+		for (ArrayBuffer b : instanceBuffers)
+			if (b != null) return true;
+		return false;
+	}
+
+	public Map<Integer, ArrayBuffer> instanceBuffers() {
+		Map<Integer, ArrayBuffer> m = new LinkedHashMap<>();
+		for (int i = 0; i < instanceBuffers.length; i++)
+			if (instanceBuffers[i] != null) m.put(i, instanceBuffers[i]);
+		return m;
+	}
+
 	/**
 	 * returns a builder that lets you dynamically add geometry to this mesh
 	 */
@@ -213,6 +283,9 @@ public class BaseMesh extends Scene implements Scene.Perform {
 	}
 
 	public ArrayBuffer buffer(int attribute, int dimension) {
+		if (instanceBuffers[attribute] != null)
+			throw new IllegalArgumentException(" attribute " + attribute + " is already declared per-instance, it can't be per-vertex as well ");
+
 		if (buffers[attribute] == null && dimension > 0) {
 			buffers[attribute] = arrayBufferFactory.newArrayBuffer(maxVertex, GL_ARRAY_BUFFER, attribute, dimension, 0);
 			return buffers[attribute];
@@ -268,9 +341,18 @@ public class BaseMesh extends Scene implements Scene.Perform {
 					notSeen.remove(b.getAttribute());
 				}
 
+			int limitInstance = Math.min(instances, maxInstance);
+			for (ArrayBuffer b : instanceBuffers)
+				if (b != null) {
+					work |= b.clean(limitInstance);
+					notSeen.remove(b.getAttribute());
+				}
+
 			if (work) {
 				for (ArrayBuffer b : buffers)
 					if (b != null) glEnableVertexAttribArray(b.getAttribute());
+				for (ArrayBuffer b : instanceBuffers)
+					if (b != null) glEnableVertexAttribArray(b.getAttribute());
 
 				for (Integer i : notSeen)
 					glDisableVertexAttribArray(i);
@@ -287,6 +369,51 @@ public class BaseMesh extends Scene implements Scene.Perform {
 		return true;
 	}
 
+	// bounds of the vertex data, recomputed only when the vertex buffer or the vertex limit changes
+	protected final Vec3 boundsMin = new Vec3();
+	protected final Vec3 boundsMax = new Vec3();
+	protected int boundsMod = -1;
+	protected int boundsLimit = -1;
+
+	/**
+	 * the bounds of the first limitVertex vertices of this mesh, as written (that is, before any transformation in a shader). Instanced meshes don't have any
+	 */
+	@Override
+	public boolean bounds(Vec3 min, Vec3 max) {
+		ArrayBuffer v = buffers[0];
+		if (v == null) return false;
+
+		// instances go wherever their attributes (and the shader) put them
+		if (instances > 0 || isInstanced()) return false;
+
+		trimVertexLimit();
+		if (limitVertex == 0) return false;
+
+		int mod = v.getMod();
+		if (mod == -1 || mod != boundsMod || limitVertex != boundsLimit) {
+			FloatBuffer f = v.floats(true);
+			float minx = Float.POSITIVE_INFINITY, miny = Float.POSITIVE_INFINITY, minz = Float.POSITIVE_INFINITY;
+			float maxx = Float.NEGATIVE_INFINITY, maxy = Float.NEGATIVE_INFINITY, maxz = Float.NEGATIVE_INFINITY;
+			for (int i = 0; i < limitVertex; i++) {
+				float x = f.get(3 * i), y = f.get(3 * i + 1), z = f.get(3 * i + 2);
+				minx = Math.min(minx, x);
+				maxx = Math.max(maxx, x);
+				miny = Math.min(miny, y);
+				maxy = Math.max(maxy, y);
+				minz = Math.min(minz, z);
+				maxz = Math.max(maxz, z);
+			}
+			boundsMin.set(minx, miny, minz);
+			boundsMax.set(maxx, maxy, maxz);
+			boundsMod = mod;
+			boundsLimit = limitVertex;
+		}
+
+		min.set(boundsMin);
+		max.set(boundsMax);
+		return true;
+	}
+
 	@Override
 	public int[] getPasses() {
 		return new int[]{0};
@@ -303,6 +430,7 @@ public class BaseMesh extends Scene implements Scene.Perform {
 				}
 
 				GraphicsContext.checkError(() -> "on entry "+this);
+				if (instances==0 && isInstanced()) return true;
 				if (instances==0) {
 					if (primitiveSize == 0) {
 						glDrawArrays(primitiveType, 0, limitVertex);
@@ -414,7 +542,9 @@ public class BaseMesh extends Scene implements Scene.Perform {
 		if (s == null) return;
 		glDeleteVertexArrays(s);
 		for (ArrayBuffer b : buffers)
-			b.destroy();
+			if (b != null) b.destroy();
+		for (ArrayBuffer b : instanceBuffers)
+			if (b != null) b.destroy();
 		if (elements != null) elements.destroy();
 	}
 
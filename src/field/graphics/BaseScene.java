@@ -13,11 +13,18 @@ import fieldbox.execution.Errors;
  * there's a type parameter <t_state extends BaseScene.Modifiable> that keeps track of that "something" in "something has changed". It's returned by
  * the setup method and passed into upload().
  */
-public abstract class BaseScene<t_state extends BaseScene.Modifiable> extends Scene implements Scene.Perform {
+public abstract class BaseScene<t_state extends BaseScene.Modifiable> extends Scene implements Scene.Perform, GraphicsContext.Slotted {
 	static public class Modifiable {
 		int mod = 0;
 	}
 
+	protected final GraphicsContext.Slot contextSlot = GraphicsContext.allocateSlot(this);
+
+	@Override
+	public GraphicsContext.Slot getContextSlot() {
+		return contextSlot;
+	}
+
 	Errors.ErrorConsumer ec;
 
 	protected BaseScene() {
@@ -0,0 +1,166 @@
+package field.graphics;
+
+import field.linalg.FrustumCuller;
+import field.linalg.Mat4;
+import field.linalg.Vec3;
+import field.utility.Log;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * A frustum culling stage for a Scene (see Scene.setCulling).
+ * <p>
+ * Once per update, before any passes are run, the bounds of everything in the Scene that has them (anything that is Culling.Bounded, like BaseMesh, or that has been given bounds with bound(...))
+ * are packed into parallel arrays and tested against the frustum in one batch with FrustumCuller.areAabsInsideFrustum. Anything that's entirely outside the frustum skips all of its passes for that
+ * update. Anything without bounds is always drawn.
+ * <p>
+ * Bounds are in whatever space 'frustum' maps to clip space. For geometry that's drawn without a model transform that's just the space its vertices are written in.
+ */
+public class Culling {
+
+	public interface Bounded {
+		/**
+		 * writes the bounds of this into 'min' and 'max'. Returns false if there aren't any (in which case this is never culled)
+		 */
+		boolean bounds(Vec3 min, Vec3 max);
+	}
+
+	/**
+	 * a frustum for 'camera', suitable for passing to the constructor
+	 */
+	static public Supplier<Mat4> of(Camera camera) {
+		return () -> {
+			Mat4 p = camera.projectionMatrix();
+			Mat4 v = camera.view();
+
+			p.transpose();
+			v.transpose();
+
+			return new Mat4(p).mul(v);
+		};
+	}
+
+	protected final Supplier<Mat4> frustum;
+	protected final FrustumCuller culler = new FrustumCuller();
+
+	protected final Map<Consumer<Integer>, double[]> explicit = new IdentityHashMap<>();
+	protected final Set<Consumer<Integer>> culledNow = Collections.newSetFromMap(new IdentityHashMap<>());
+
+	protected Consumer<Integer>[] members = new Consumer[16];
+	protected double[] minX = new double[16], minY = new double[16], minZ = new double[16];
+	protected double[] maxX = new double[16], maxY = new double[16], maxZ = new double[16];
+	protected boolean[] visible = new boolean[16];
+
+	protected final Vec3 min = new Vec3();
+	protected final Vec3 max = new Vec3();
+
+	public boolean enabled = true;
+
+	/**
+	 * counts from the most recent update: things that were culled, and things that were drawn (whether they had bounds or not)
+	 */
+	public int culled = 0;
+	public int drawn = 0;
+
+	public Culling(Supplier<Mat4> frustum) {
+		this.frustum = frustum;
+	}
+
+	/**
+	 * gives bounds to something that isn't Culling.Bounded (or overrides the bounds of something that is)
+	 */
+	public Culling bound(Consumer<Integer> p, Vec3 min, Vec3 max) {
+		synchronized (explicit) {
+			explicit.put(p, new double[]{min.x, min.y, min.z, max.x, max.y, max.z});
+		}
+		return this;
+	}
+
+	public Culling unbound(Consumer<Integer> p) {
+		synchronized (explicit) {
+			explicit.remove(p);
+		}
+		return this;
+	}
+
+	/**
+	 * true if 'p' should skip its passes this update
+	 */
+	public boolean isCulled(Consumer<Integer> p) {
+		return culledNow.contains(p);
+	}
+
+	/**
+	 * called by Scene with everything that's about to be run
+	 */
+	protected void update(Map<Integer, Set<Consumer<Integer>>> scene) {
+		culledNow.clear();
+
+		Set<Consumer<Integer>> all = Collections.newSetFromMap(new IdentityHashMap<>());
+		for (Set<Consumer<Integer>> s : scene.values())
+			all.addAll(s);
+
+		Mat4 m = enabled ? frustum.get() : null;
+		if (m == null) {
+			culled = 0;
+			drawn = all.size();
+			return;
+		}
+
+		int n = 0;
+		synchronized (explicit) {
+			for (Consumer<Integer> c : all) {
+				double[] e = explicit.get(c);
+				if (e != null) {
+					ensureCapacity(n + 1);
+					members[n] = c;
+					minX[n] = e[0];
+					minY[n] = e[1];
+					minZ[n] = e[2];
+					maxX[n] = e[3];
+					maxY[n] = e[4];
+					maxZ[n] = e[5];
+					n++;
+				} else if (c instanceof Bounded && ((Bounded) c).bounds(min, max)) {
+					ensureCapacity(n + 1);
+					members[n] = c;
+					minX[n] = min.x;
+					minY[n] = min.y;
+					minZ[n] = min.z;
+					maxX[n] = max.x;
+					maxY[n] = max.y;
+					maxZ[n] = max.z;
+					n++;
+				}
+			}
+		}
+
+		culler.set(m);
+		int inside = culler.areAabsInsideFrustum(minX, minY, minZ, maxX, maxY, maxZ, n, visible);
+
+		for (int i = 0; i < n; i++) {
+			if (!visible[i]) culledNow.add(members[i]);
+			members[i] = null;
+		}
+
+		culled = n - inside;
+		drawn = all.size() - culled;
+
+		Log.log("graphics.culling", () -> " culled " + culled + ", drawn " + drawn);
+	}
+
+	protected void ensureCapacity(int n) {
+		if (n <= members.length) return;
+		int c = Math.max(n, members.length * 2);
+		members = Arrays.copyOf(members, c);
+		minX = Arrays.copyOf(minX, c);
+		minY = Arrays.copyOf(minY, c);
+		minZ = Arrays.copyOf(minZ, c);
+		maxX = Arrays.copyOf(maxX, c);
+		maxY = Arrays.copyOf(maxY, c);
+		maxZ = Arrays.copyOf(maxZ, c);
+		visible = Arrays.copyOf(visible, c);
+	}
+}
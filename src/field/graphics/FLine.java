@@ -49,6 +49,10 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	long mod = 0;
 	WeakHashMap<MeshBuilder, BookmarkCache> cache = new WeakHashMap<>();
 	WeakHashMap<MeshBuilder, BookmarkCache> cache_thickening = new WeakHashMap<>();
+	transient FLineTessellator.Entry tessellation;
+	transient FLineStroker.Entry stroking;
+	transient FLineFlattener.Entry flattening;
+	transient java.util.List<FLine> prefetchedSubLines;
 	private Map<Integer, String> auxProperties;
 
 	public FLine() {
@@ -118,16 +122,54 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 		mod++;
 	}
 
+	/**
+	 * switches this line over to compact node storage (see PackedNodes), which is far smaller and faster to draw for lines with many nodes. `nodes` still works as before. data(...), dataLines(...)
+	 * and sampleOver(...) do this for lines that are empty when they are called
+	 */
+	public FLine pack() {
+		if (nodes instanceof PackedNodes) ((PackedNodes) nodes).compact();
+		else nodes = new PackedNodes(this, nodes);
+		return this;
+	}
+
+	/**
+	 * true if this line's nodes are stored compactly, see pack()
+	 */
+	public boolean isPacked() {
+		return nodes instanceof PackedNodes;
+	}
+
+	protected FLine appendMoveTo(double x, double y, double z) {
+		if (!(nodes instanceof PackedNodes)) return add(new MoveTo(x, y, z));
+		((PackedNodes) nodes).moveTo(x, y, z);
+		mod++;
+		return this;
+	}
+
+	protected FLine appendLineTo(double x, double y, double z) {
+		if (!(nodes instanceof PackedNodes)) return add(new LineTo(x, y, z));
+		((PackedNodes) nodes).lineTo(x, y, z);
+		mod++;
+		return this;
+	}
+
+	protected FLine appendCubicTo(double c1x, double c1y, double c1z, double c2x, double c2y, double c2z, double x, double y, double z) {
+		if (!(nodes instanceof PackedNodes)) return add(new CubicTo(c1x, c1y, c1z, c2x, c2y, c2z, x, y, z));
+		((PackedNodes) nodes).cubicTo(c1x, c1y, c1z, c2x, c2y, c2z, x, y, z);
+		mod++;
+		return this;
+	}
+
 	public FLine moveTo(double x, double y) {
-		return add(new MoveTo(x, y, 0));
+		return appendMoveTo(x, y, 0);
 	}
 
 	public FLine moveTo(Vec2 x) {
-		return add(new MoveTo(x.x, x.y, 0));
+		return appendMoveTo(x.x, x.y, 0);
 	}
 
 	public FLine moveTo(Vec3 x) {
-		return add(new MoveTo(x.x, x.y, x.z));
+		return appendMoveTo(x.x, x.y, x.z);
 	}
 
 	public FLine moveToRel(float dx, float dy) {
@@ -141,17 +183,17 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 
 	public FLine lineTo(double x, double y) {
 		if (nodes.size() == 0) return moveTo(x, y);
-		return add(new LineTo(x, y, 0));
+		return appendLineTo(x, y, 0);
 	}
 
 	public FLine lineTo(Vec2 x) {
 		if (nodes.size() == 0) return moveTo(x);
-		return add(new LineTo(x.x, x.y, 0));
+		return appendLineTo(x.x, x.y, 0);
 	}
 
 	public FLine lineTo(Vec3 x) {
 		if (nodes.size() == 0) return moveTo(x);
-		return add(new LineTo(x.x, x.y, x.z));
+		return appendLineTo(x.x, x.y, x.z);
 	}
 
 	public FLine lineToRel(float dx, float dy) {
@@ -162,17 +204,17 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 
 
 	public FLine moveTo(double x, double y, double z) {
-		return add(new MoveTo(x, y, z));
+		return appendMoveTo(x, y, z);
 	}
 
 	public FLine lineTo(double x, double y, double z) {
 		if (nodes.size() == 0) return moveTo(x, y, z);
-		return add(new LineTo(x, y, z));
+		return appendLineTo(x, y, z);
 	}
 
 	public FLine cubicTo(double c1x, double c1y, double c2x, double c2y, double x, double y) {
 		if (nodes.size() == 0) return moveTo(x, y);
-		return add(new CubicTo(c1x, c1y, 0, c2x, c2y, 0, x, y, 0));
+		return appendCubicTo(c1x, c1y, 0, c2x, c2y, 0, x, y, 0);
 	}
 
 	public FLine cubicToRel(double c1x, double c1y, double c2x, double c2y, double x, double y) {
@@ -183,17 +225,17 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 
 	public FLine cubicTo(Vec2 c1, Vec2 c2, Vec2 x) {
 		if (nodes.size() == 0) return moveTo(x);
-		return add(new CubicTo(c1.x, c1.y, 0, c2.x, c2.y, 0, x.x, x.y, 0));
+		return appendCubicTo(c1.x, c1.y, 0, c2.x, c2.y, 0, x.x, x.y, 0);
 	}
 
 	public FLine cubicTo(double c1x, double c1y, double c1z, double c2x, double c2y, double c2z, double x, double y, double z) {
 		if (nodes.size() == 0) return moveTo(x, y, z);
-		return add(new CubicTo(c1x, c1y, c1z, c2x, c2y, c2z, x, y, z));
+		return appendCubicTo(c1x, c1y, c1z, c2x, c2y, c2z, x, y, z);
 	}
 
 	public FLine cubicTo(Vec3 c1, Vec3 c2, Vec3 x) {
 		if (nodes.size() == 0) return moveTo(x);
-		return add(new CubicTo(c1.x, c1.y, c1.z, c2.x, c2.y, c2.z, x.x, x.y, x.z));
+		return appendCubicTo(c1.x, c1.y, c1.z, c2.x, c2.y, c2.z, x.x, x.y, x.z);
 	}
 
 	/**
@@ -284,6 +326,7 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	 * calls function 'fun' with a parameter that goes from 0 -> 1 (inclusive) in 'samples' steps. Then hands the results to `data('t*', ...)`
 	 */
 	public FLine sampleOver(Function<Double, Object> fun, int samples) {
+		if (nodes.isEmpty()) pack();
 		List<Object> rr = new ArrayList<Object>();
 		for (int i = 0; i < samples; i++) {
 			double alpha = i / (samples - 1f);
@@ -301,6 +344,7 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	 * If, after all this, you have a List of Vec2 or Vec3 then you get a single line, otherwise a List of List of Vec2 or Vec3 gets you a group of lines
 	 */
 	public FLine dataLines(Collection<Object> input, Function<Object, Object>... transformation) {
+		if (nodes.isEmpty()) pack();
 		List<Object> m = transform(input, transformation);
 		doDataLines(m);
 
@@ -379,6 +423,7 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	 * until you run out of Vec3 inputs; 't' — dispatches based on the tag of a TaggedVec3
 	 */
 	public FLine data(String format, Object... input) {
+		if (nodes.isEmpty()) pack();
 		List<Vec3> f = flattenInput(input);
 
 		int q = 0;
@@ -448,6 +493,7 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	 * until you run out of Vec3 inputs
 	 */
 	public FLine data(String format, Iterator<Vec3> f) {
+		if (nodes.isEmpty()) pack();
 
 		// FIXME, duplicative and out of date
 
@@ -719,6 +765,9 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	public void clearCache() {
 		cache.clear();
 		cache_thickening.clear();
+		tessellation = null;
+		stroking = null;
+		flattening = null;
 	}
 
 	public void clearCache(MeshBuilder m) {
@@ -728,7 +777,8 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 
 	public FLine duplicate() {
 		FLine fLine = new FLine();
-		for (Node n : this.nodes) {
+		if (nodes instanceof PackedNodes) fLine.nodes = ((PackedNodes) nodes).duplicate(fLine);
+		else for (Node n : this.nodes) {
 			fLine.nodes.add(n.duplicate());
 		}
 		fLine.attributes.putAll(attributes.duplicate());
@@ -765,6 +815,24 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 	}
 
 	public boolean renderToPoints(MeshBuilder m, int fixedSizeForCubic) {
+		VertexChunk recorded = FLineFlattener.take(this, true, fixedSizeForCubic);
+		if (recorded != null) return replay(m, recorded);
+
+		if (nodes instanceof PackedNodes) {
+			PackedNodes p = (PackedNodes) nodes;
+			BookmarkCache c = cache.computeIfAbsent(m, (k) -> new BookmarkCache(m));
+			return m.skipTo(c.start, c.end, mod, () -> {
+				PackedNodes.Aux aux = packedAux(p);
+				m.open();
+				try {
+					Vec3 tmp = new Vec3();
+					for (int i = 0; i < p.size(); i++)
+						p.emit(m, i, fixedSizeForCubic, tmp, aux);
+				} finally {
+					m.close();
+				}
+			});
+		}
 		return renderToPoints(m, this::renderMoveTo, this::renderLineTo, renderCubicTo(fixedSizeForCubic));
 	}
 
@@ -814,86 +882,138 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 
 	public boolean renderToLine(MeshBuilder m, int fixedSizeForCubic) {
 		Log.log("drawing.trace", () -> "renderToLine");
+		VertexChunk recorded = FLineFlattener.take(this, false, fixedSizeForCubic);
+		if (recorded != null) return replay(m, recorded);
+		if (nodes instanceof PackedNodes) return renderPackedToLine(m, (PackedNodes) nodes, fixedSizeForCubic);
 		return renderToLine(m, this::renderMoveTo, this::renderLineTo, renderCubicTo(fixedSizeForCubic));
 	}
 
-	public boolean renderLineToMeshByStroking(MeshBuilder m, int fixedSizeForCubic, BasicStroke stroke) {
-		BookmarkCache c = cache_thickening.computeIfAbsent(m, (k) -> new BookmarkCache(m));
+	// renderToLine with the default flattening, straight from the packed arrays
+	private boolean renderPackedToLine(MeshBuilder m, PackedNodes p, int fixedSizeForCubic) {
+		BookmarkCache c = cache.computeIfAbsent(m, (k) -> new BookmarkCache(m));
 
 		return m.skipTo(c.start, c.end, mod, () -> {
-			Shape s = /*stroke.createStrokedShape*/(flineToJavaShape(this));
-			FLine drawInstead = this.attributes.isTrue(hint_noDepth, false) ? javaShapeToFLine(s) : javaShapeToFLine(s, this, new AffineTransform());
-			drawInstead.attributes.putAll(attributes);
-			drawInstead.renderToMesh(m, fixedSizeForCubic);
-		});
+			PackedNodes.Aux aux = packedAux(p);
+			m.open();
+			try {
+				MeshBuilder.Bookmark start = null;
+				Vec3 tmp = new Vec3();
+				for (int i = 0; i < p.size(); i++) {
+					if (p.kind(i) == PackedNodes.MOVE) {
+						if (start != null) m.line(start.at() + 1);
+						p.emit(m, i, fixedSizeForCubic, tmp, aux);
+						start = m.bookmark();
+					} else {
+						p.emit(m, i, fixedSizeForCubic, tmp, aux);
+						if (start == null) start = m.bookmark();
+					}
+				}
 
-	}
+				MeshBuilder.Bookmark end = m.bookmark();
 
-	public boolean renderToMesh(MeshBuilder m, Curry.Function3<MeshAcceptor, Node, MoveTo, Node> moveTo, Curry.Function3<MeshAcceptor, Node, LineTo, Node> lineTo, Curry.Function3<MeshAcceptor, Node, CubicTo, Node> cubicTo) {
+				if (start != null && start.at() != end.at()) {
+					m.line(start.at() + 1);
+				}
+			} finally {
+				m.close();
+			}
+		});
+	}
 
+	// draws a chunk that FLineFlattener recorded on the worker pool
+	private boolean replay(MeshBuilder m, VertexChunk recorded) {
 		BookmarkCache c = cache.computeIfAbsent(m, (k) -> new BookmarkCache(m));
 
 		return m.skipTo(c.start, c.end, mod, () -> {
+			m.open();
+			try {
+				recorded.replay(m);
+			} finally {
+				m.close();
+			}
+		});
+	}
 
-			MeshBuilder_tesselationSupport ts = m.getTessSupport();
-			flattenAuxProperties();
+	boolean hasAuxProperties() {
+		return auxProperties != null && auxProperties.size() > 0;
+	}
 
-			boolean noContours = attributes.isTrue(StandardFLineDrawing.noContours, false);
+	public boolean renderLineToMeshByStroking(MeshBuilder m, int fixedSizeForCubic, BasicStroke stroke) {
+		BookmarkCache c = cache_thickening.computeIfAbsent(m, (k) -> new BookmarkCache(m));
 
+		return m.skipTo(c.start, c.end, new Pair<>(mod, stroke), () -> {
+			// FLineStroker doesn't dash, and where its joins would overlap a translucent line would blend twice; Java2D's outline does both properly
+			FLineStroker.Strokes s = stroke.getDashArray() == null ? FLineStroker.stroke(this, stroke) : null;
+			if (s == null || s.overlaps()) {
+				strokeWithJava2D(m, fixedSizeForCubic, stroke);
+				return;
+			}
 			m.open();
 			try {
-				MeshBuilder.Bookmark start = null;
-
-				Node a = null;
-				if (!noContours)
-					ts.begin();
-
-				for (int i = 0; i < nodes.size(); i++) {
-					Node b = nodes.get(i);
+				s.apply(m);
+			} finally {
+				m.close();
+			}
+		});
 
-					if (b instanceof MoveTo) {
+	}
 
-						if (start != null) {
-							if (!noContours)
-								ts.endContour();
-							else ts.end();
-						}
-						if (!noContours)
-							ts.beginContour();
-						else ts.begin();
+	private void strokeWithJava2D(MeshBuilder m, int fixedSizeForCubic, BasicStroke stroke) {
+		Shape s = stroke.createStrokedShape(flineToJavaShape(this));
+		FLine drawInstead = this.attributes.isTrue(hint_noDepth, false) ? javaShapeToFLine(s) : javaShapeToFLine(s, this, new AffineTransform());
+		FLineTessellator.Triangulation t = FLineTessellator.triangulation(drawInstead, fixedSizeForCubic);
+		m.open();
+		try {
+			t.apply(m);
+		} finally {
+			m.close();
+		}
+	}
 
+	public boolean renderToMesh(MeshBuilder m, Curry.Function3<MeshAcceptor, Node, MoveTo, Node> moveTo, Curry.Function3<MeshAcceptor, Node, LineTo, Node> lineTo, Curry.Function3<MeshAcceptor, Node, CubicTo, Node> cubicTo) {
 
-						a = moveTo.apply(ts, a, (MoveTo) b);
-						start = m.bookmark();
-					} else {
-						if (b instanceof LineTo) a = lineTo.apply(ts, a, (LineTo) b);
-						else if (b instanceof CubicTo) a = cubicTo.apply(ts, a, (CubicTo) b);
-						else throw new IllegalArgumentException(" unknown subclass ");
-						if (start == null) {
-							start = m.bookmark();
-							if (!noContours)
-								ts.beginContour();
-							else ts.begin();
-						}
+		BookmarkCache c = cache.computeIfAbsent(m, (k) -> new BookmarkCache(m));
 
-					}
-				}
+		return m.skipTo(c.start, c.end, mod, () -> {
 
-				MeshBuilder.Bookmark end = m.bookmark();
+			// custom flattening functions can't be keyed, so these are tessellated here and now
+			FLineTessellator.Triangulation t = FLineTessellator.outline(this, moveTo, lineTo, cubicTo)
+									   .tessellate();
 
-				if (start != null && start.at() != end.at()) {
-					if (!noContours)
-						ts.endContour();
-					else ts.end();
-				}
-				if (!noContours)
-					ts.end();
+			m.open();
+			try {
+				t.apply(m);
 			} finally {
 				m.close();
 			}
 		});
 	}
 
+	/**
+	 * returns (creating if necessary) the cached tessellation state for this line
+	 */
+	FLineTessellator.Entry tessellation() {
+		return tessellation == null ? (tessellation = new FLineTessellator.Entry()) : tessellation;
+	}
+
+	/**
+	 * returns (creating if necessary) the cached stroking state for this line
+	 */
+	FLineStroker.Entry stroking() {
+		return stroking == null ? (stroking = new FLineStroker.Entry()) : stroking;
+	}
+
+	/**
+	 * returns (creating if necessary) the background flattening state for this line
+	 */
+	FLineFlattener.Entry flattening() {
+		return flattening == null ? (flattening = new FLineFlattener.Entry()) : flattening;
+	}
+
+	public Map<Integer, String> getAuxProperties() {
+		return auxProperties;
+	}
+
 	public void setAuxProperties(Map<Integer, String> propertiesToAuxChannels) {
 		auxProperties = propertiesToAuxChannels;
 	}
@@ -910,11 +1030,9 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 		return this;
 	}
 
-	private void flattenAuxProperties() {
-		if (auxProperties == null || auxProperties.size() == 0) return;
-
+	// the aux channels in auxProperties, in order
+	private int[] auxChannels() {
 		int[] flatAux = new int[auxProperties.size()];
-		Dict.Prop[] flatAuxNames = new Dict.Prop[auxProperties.size()];
 		int n = 0;
 
 		for (Map.Entry ii : auxProperties.entrySet()) {
@@ -928,9 +1046,34 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 			else
 				kv = Integer.parseInt("" + k);
 
-			flatAux[n] = kv;
-			flatAuxNames[n++] = new Dict.Prop("" + ii.getValue());
+			flatAux[n++] = kv;
 		}
+		return flatAux;
+	}
+
+	// the properties that feed each of auxChannels()
+	private Dict.Prop[] auxNames() {
+		Dict.Prop[] flatAuxNames = new Dict.Prop[auxProperties.size()];
+		int n = 0;
+		for (Object v : auxProperties.values())
+			flatAuxNames[n++] = new Dict.Prop("" + v);
+		return flatAuxNames;
+	}
+
+	/**
+	 * the values of this line's aux properties at each of the nodes of 'p' (which should be this line's nodes), without making views. Null if there are no aux properties
+	 */
+	PackedNodes.Aux packedAux(PackedNodes p) {
+		if (!hasAuxProperties()) return null;
+		return p.aux(auxChannels(), auxNames());
+	}
+
+	void flattenAuxProperties() {
+		if (auxProperties == null || auxProperties.size() == 0) return;
+
+		int[] flatAux = auxChannels();
+		Dict.Prop[] flatAuxNames = auxNames();
+		int n;
 
 		for (Node node : nodes) {
 			node.flatAuxData = new float[flatAux.length][];
@@ -983,7 +1126,21 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 
 	@HiddenInAutocomplete
 	public boolean renderToMesh(MeshBuilder m, int fixedSizeForCubic) {
-		return renderToMesh(m, this::renderMoveTo, this::renderLineTo, renderCubicTo(fixedSizeForCubic));
+
+		BookmarkCache c = cache.computeIfAbsent(m, (k) -> new BookmarkCache(m));
+
+		return m.skipTo(c.start, c.end, mod, () -> {
+
+			// cached, or prefetched on the worker pool, or tessellated here and now
+			FLineTessellator.Triangulation t = FLineTessellator.triangulation(this, fixedSizeForCubic);
+
+			m.open();
+			try {
+				t.apply(m);
+			} finally {
+				m.close();
+			}
+		});
 	}
 
 	@HiddenInAutocomplete
@@ -1057,6 +1214,40 @@ public class FLine implements Supplier<FLine>, fieldlinker.AsMap, HandlesComplet
 		return f;
 	}
 
+	/**
+	 * returns a new FLine with every point (including control points) transformed by 'm'. Equivalent to byTransforming(x -> x.mul(m)) but the points are transformed together, in bulk.
+	 */
+	public FLine byTransforming(Mat4 m) {
+
+		Points3d p = new Points3d(nodes.size() * 3);
+		for (Node n : nodes) {
+			if (n instanceof CubicTo) {
+				p.add(((CubicTo) n).c1);
+				p.add(((CubicTo) n).c2);
+			}
+			p.add(n.to);
+		}
+		p.transform(m);
+
+		FLine f = new FLine();
+		f.attributes = attributes.duplicate();
+
+		int i = 0;
+		for (Node n : nodes) {
+			if (n instanceof MoveTo) f.add(new MoveTo(p.get(i++, null)));
+			else if (n instanceof LineTo) f.add(new LineTo(p.get(i++, null)));
+			else if (n instanceof CubicTo) {
+				Vec3 c1 = p.get(i++, null);
+				Vec3 c2 = p.get(i++, null);
+				f.add(new CubicTo(c1, c2, p.get(i++, null)));
+			}
+			f.nodes.get(f.nodes.size() - 1).attributes = n.attributes.duplicate();
+		}
+
+		if (auxProperties != null) f.setAuxProperties(new LinkedHashMap<>(auxProperties));
+		return f;
+	}
+
 	/**
 	 * returns a new FLine by translating, rotating and scaling this line such that it's endpoints are 'start' and 'end'
 	 */
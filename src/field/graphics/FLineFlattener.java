@@ -0,0 +1,257 @@
+package field.graphics;
+
+import field.app.RunLoop;
+import field.linalg.Vec3;
+import field.utility.Curry;
+import field.utility.Log;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Flattening of stroked and pointed FLines into VertexChunks, in parallel on RunLoop.workerPool.
+ * <p>
+ * Drawing a batch of lines happens in two phases. prefetch(...), on the main thread, picks out the lines that have changed since they were last drawn and hands them, in batches of roughly equal
+ * numbers of nodes, to the worker pool; each is flattened (aux properties and all) into a private VertexChunk. Then, back on the main thread and in the usual order, renderToLine(m, n) and
+ * renderToPoints(m, n) find the chunk waiting for them (waiting for it if need be) and replay it into their MeshBuilder. Replaying makes the same calls that drawing directly would have, so what
+ * ends up in the MeshBuilder is identical, byte for byte.
+ * <p>
+ * Chunks are kept with the FLine, keyed by its mod count, the cubic flattening size and its aux properties, and are dropped as soon as they have been used. Anything that doesn't have a chunk
+ * that matches is drawn directly, as before. Lines that are being flattened belong to the worker pool until StandardFLineDrawing.dispatchLine (or anything else that calls await) waits for them,
+ * which it does before touching them.
+ */
+public class FLineFlattener {
+
+	static public final LongAdder recorded = new LongAdder();
+	static public final LongAdder replayed = new LongAdder();
+
+	/**
+	 * set this to have every chunk checked, as it is taken, against a fresh flattening of its line. Chunks that differ are counted in 'mismatches', logged to "graphics.error" and not used. This
+	 * flattens everything twice, so it's for debugging only
+	 */
+	static public boolean verify = false;
+	static public final LongAdder mismatches = new LongAdder();
+
+	/**
+	 * roughly how many nodes go to a worker at once
+	 */
+	static public int batchNodes = 4096;
+
+	/**
+	 * per-FLine flattening state, held by the FLine
+	 */
+	static class Entry {
+		volatile Object lineKey;
+		volatile Object pointsKey;
+		volatile VertexChunk line;
+		volatile VertexChunk points;
+		volatile Future<?> pending;
+	}
+
+	static Object keyFor(FLine f, int fixedSizeForCubic) {
+		Map<Integer, String> ap = f.getAuxProperties();
+		return Arrays.asList(f.getModCount(), fixedSizeForCubic, ap == null ? null : new LinkedHashMap<>(ap));
+	}
+
+	/**
+	 * starts flattening every line in 'flines' that has changed since it was last drawn: as a line if 'asLine' says so, as points if 'asPoints' does. Call on the main thread, before drawing them
+	 */
+	static public void prefetch(Collection<FLine> flines, Predicate<FLine> asLine, Predicate<FLine> asPoints, int fixedSizeForCubic) {
+		List<FLine> batch = new ArrayList<>();
+		List<boolean[]> what = new ArrayList<>();
+		int nodes = 0;
+
+		for (FLine f : flines) {
+			if (f.nodes.isEmpty() || !stale(f)) continue;
+
+			boolean l = asLine.test(f);
+			boolean p = asPoints.test(f);
+			if (!l && !p) continue;
+
+			Entry e = f.flattening();
+			await(e);
+			Object key = keyFor(f, fixedSizeForCubic);
+			if (l && key.equals(e.lineKey) && e.line != null) l = false;
+			if (p && key.equals(e.pointsKey) && e.points != null) p = false;
+			if (!l && !p) continue;
+
+			if (l) {
+				e.lineKey = key;
+				e.line = null;
+			}
+			if (p) {
+				e.pointsKey = key;
+				e.points = null;
+			}
+
+			batch.add(f);
+			what.add(new boolean[]{l, p});
+			nodes += f.nodes.size();
+			if (nodes >= batchNodes) {
+				submit(batch, what, fixedSizeForCubic);
+				batch = new ArrayList<>();
+				what = new ArrayList<>();
+				nodes = 0;
+			}
+		}
+		if (batch.size() > 0) submit(batch, what, fixedSizeForCubic);
+	}
+
+	static private void submit(List<FLine> batch, List<boolean[]> what, int fixedSizeForCubic) {
+		Future<?> f = RunLoop.workerPool.submit(() -> {
+			for (int i = 0; i < batch.size(); i++) {
+				FLine line = batch.get(i);
+				Entry e = line.flattening();
+				try {
+					if (what.get(i)[0]) e.line = recordLine(line, fixedSizeForCubic);
+					if (what.get(i)[1]) e.points = recordPoints(line, fixedSizeForCubic);
+				} catch (Throwable t) {
+					// it'll be drawn directly instead, and any problem reported then
+					Log.log("drawing.trace", () -> " exception thrown while flattening in the background " + t);
+				}
+			}
+		});
+		for (FLine line : batch)
+			line.flattening().pending = f;
+	}
+
+	/**
+	 * waits for any flattening of 'f' that's in progress. After this 'f' belongs to the calling thread again
+	 */
+	static public void await(FLine f) {
+		if (f.flattening != null) await(f.flattening);
+	}
+
+	static private void await(Entry e) {
+		Future<?> p = e.pending;
+		if (p == null) return;
+		try {
+			p.get();
+		} catch (InterruptedException | ExecutionException ex) {
+			Log.log("graphics.error", () -> " exception thrown while flattening in the background, will draw directly " + ex);
+		}
+		e.pending = null;
+	}
+
+	/**
+	 * the chunk recorded for 'f' as a line (or, if 'points', as points), if there is one and 'f' hasn't changed since. The chunk is handed over, so the next call will return null
+	 */
+	static VertexChunk take(FLine f, boolean points, int fixedSizeForCubic) {
+		Entry e = f.flattening;
+		if (e == null) return null;
+		await(e);
+
+		VertexChunk c = points ? e.points : e.line;
+		if (c == null) return null;
+		Object key = points ? e.pointsKey : e.lineKey;
+		if (points) {
+			e.points = null;
+			e.pointsKey = null;
+		} else {
+			e.line = null;
+			e.lineKey = null;
+		}
+		if (!keyFor(f, fixedSizeForCubic).equals(key)) return null;
+		if (verify) {
+			VertexChunk fresh = points ? recordPoints(f, fixedSizeForCubic) : recordLine(f, fixedSizeForCubic);
+			if (!fresh.sameAs(c)) {
+				mismatches.increment();
+				Log.log("graphics.error", () -> " flattened chunk for " + f + (points ? " (as points)" : "") + " doesn't match a fresh flattening, drawing directly instead");
+				return null;
+			}
+		}
+		replayed.increment();
+		return c;
+	}
+
+	// true unless every MeshBuilder that 'f' has been drawn into is up to date with it
+	static private boolean stale(FLine f) {
+		if (f.cache.isEmpty()) return true;
+		Long mod = f.getModCount();
+		for (FLine.BookmarkCache c : f.cache.values())
+			if (!mod.equals(c.start.externalHash)) return true;
+		return false;
+	}
+
+	/**
+	 * records what renderToLine(m, fixedSizeForCubic) would do to 'm'
+	 */
+	static public VertexChunk recordLine(FLine f, int fixedSizeForCubic) {
+		VertexChunk m = new VertexChunk();
+		int start = -1;
+
+		if (f.nodes instanceof PackedNodes) {
+			PackedNodes p = (PackedNodes) f.nodes;
+			PackedNodes.Aux aux = f.packedAux(p);
+			Vec3 tmp = new Vec3();
+			for (int i = 0; i < p.size(); i++) {
+				if (p.kind(i) == PackedNodes.MOVE) {
+					if (start != -1) m.line(m.vertices() - start + 1);
+					p.emit(m, i, fixedSizeForCubic, tmp, aux);
+					start = m.vertices();
+				} else {
+					p.emit(m, i, fixedSizeForCubic, tmp, aux);
+					if (start == -1) start = m.vertices();
+				}
+			}
+		} else {
+			f.flattenAuxProperties();
+			Curry.Function3<MeshAcceptor, FLine.Node, FLine.CubicTo, FLine.Node> cubicTo = f.renderCubicTo(fixedSizeForCubic);
+
+			FLine.Node a = null;
+			for (int i = 0; i < f.nodes.size(); i++) {
+				FLine.Node b = f.nodes.get(i);
+
+				if (b instanceof FLine.MoveTo) {
+					if (start != -1) m.line(m.vertices() - start + 1);
+					a = f.renderMoveTo(m, a, (FLine.MoveTo) b);
+					start = m.vertices();
+				} else {
+					if (b instanceof FLine.LineTo) a = f.renderLineTo(m, a, (FLine.LineTo) b);
+					else if (b instanceof FLine.CubicTo) a = cubicTo.apply(m, a, (FLine.CubicTo) b);
+					else throw new IllegalArgumentException(" unknown subclass ");
+					if (start == -1) start = m.vertices();
+				}
+			}
+		}
+
+		if (start != -1 && m.vertices() != start) m.line(m.vertices() - start + 1);
+
+		recorded.increment();
+		return m;
+	}
+
+	/**
+	 * records what renderToPoints(m, fixedSizeForCubic) would do to 'm'
+	 */
+	static public VertexChunk recordPoints(FLine f, int fixedSizeForCubic) {
+		VertexChunk m = new VertexChunk();
+
+		if (f.nodes instanceof PackedNodes) {
+			PackedNodes p = (PackedNodes) f.nodes;
+			PackedNodes.Aux aux = f.packedAux(p);
+			Vec3 tmp = new Vec3();
+			for (int i = 0; i < p.size(); i++)
+				p.emit(m, i, fixedSizeForCubic, tmp, aux);
+		} else {
+			f.flattenAuxProperties();
+			Curry.Function3<MeshAcceptor, FLine.Node, FLine.CubicTo, FLine.Node> cubicTo = f.renderCubicTo(fixedSizeForCubic);
+
+			FLine.Node a = null;
+			for (int i = 0; i < f.nodes.size(); i++) {
+				FLine.Node b = f.nodes.get(i);
+
+				if (b instanceof FLine.MoveTo) a = f.renderMoveTo(m, a, (FLine.MoveTo) b);
+				else if (b instanceof FLine.LineTo) a = f.renderLineTo(m, a, (FLine.LineTo) b);
+				else if (b instanceof FLine.CubicTo) a = cubicTo.apply(m, a, (FLine.CubicTo) b);
+				else throw new IllegalArgumentException(" unknown subclass ");
+			}
+		}
+
+		recorded.increment();
+		return m;
+	}
+}
@@ -0,0 +1,451 @@
+package field.graphics;
+
+import field.linalg.Vec3;
+import field.utility.Pair;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thickens ("strokes") FLines straight into triangles.
+ * <p>
+ * This is what the `thicken` attribute uses. Each subpath of the FLine is flattened (cubics adaptively, to within `flatness`) into a polyline, and each segment of that polyline becomes a quad
+ * either side of it. Joins (bevel, miter --- falling back to bevel past the miter limit --- and round) and caps (butt, square and round) follow the conventions of java.awt.BasicStroke. Subpaths
+ * that end where they start are treated as closed and get a join rather than a pair of caps. Dash patterns aren't handled here, FLine strokes dashed lines through Java2D instead.
+ * <p>
+ * At each turn the two segments meet at the point where their inner edges cross, and the join fills the outside of the turn, so nothing is covered twice and translucent lines blend evenly. A turn
+ * too sharp for the segments either side of it can't be drawn like that; it falls back to overlapping quads and the Strokes say so (overlaps()). There's no Java2D shape and no trip through the
+ * tessellator, and the cost is proportional to the number of segments. Strokes are cached with the FLine, keyed by its mod count and the BasicStroke.
+ * <p>
+ * Geometry is generated in the xy plane; each vertex takes the z of the point on the line that it was offset from.
+ */
+public class FLineStroker {
+
+	static public final AtomicInteger stroked = new AtomicInteger();
+	static public final AtomicInteger cacheHits = new AtomicInteger();
+
+	/**
+	 * maximum distance between a flattened cubic (or round join or cap) and the real thing
+	 */
+	static public float flatness = 0.1f;
+
+	/**
+	 * maximum depth of recursive cubic subdivision (so, at most 2^maxSubdivision segments per cubic)
+	 */
+	static public int maxSubdivision = 10;
+
+	/**
+	 * flattened subpaths of an FLine, packed
+	 */
+	static public class Polylines {
+		double[] points = new double[3 * 32];
+		int count = 0;
+		int[] starts = new int[4];
+		int numStarts = 0;
+
+		public void moveTo(double x, double y, double z) {
+			if (numStarts > 0 && count - starts[numStarts - 1] == 1) {
+				// a moveTo straight after a moveTo replaces it
+				count = starts[numStarts - 1];
+			} else {
+				if (numStarts == starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+				starts[numStarts++] = count;
+			}
+			add(x, y, z);
+		}
+
+		public void lineTo(double x, double y, double z) {
+			if (numStarts == 0) {
+				moveTo(x, y, z);
+				return;
+			}
+			// drop zero length segments
+			if (count > starts[numStarts - 1] && points[3 * count - 3] == x && points[3 * count - 2] == y && points[3 * count - 1] == z) return;
+			add(x, y, z);
+		}
+
+		public void cubicTo(double c1x, double c1y, double c1z, double c2x, double c2y, double c2z, double x, double y, double z) {
+			if (numStarts == 0) {
+				moveTo(x, y, z);
+				return;
+			}
+			double ax = points[3 * count - 3];
+			double ay = points[3 * count - 2];
+			double az = points[3 * count - 1];
+			subdivide(ax, ay, az, c1x, c1y, c1z, c2x, c2y, c2z, x, y, z, 0);
+		}
+
+		private void subdivide(double ax, double ay, double az, double c1x, double c1y, double c1z, double c2x, double c2y, double c2z, double bx, double by, double bz, int depth) {
+			if (depth >= maxSubdivision || flat(ax, ay, c1x, c1y, c2x, c2y, bx, by)) {
+				lineTo(bx, by, bz);
+				return;
+			}
+
+			// de Casteljau at 0.5
+			double abx = (ax + c1x) / 2, aby = (ay + c1y) / 2, abz = (az + c1z) / 2;
+			double bcx = (c1x + c2x) / 2, bcy = (c1y + c2y) / 2, bcz = (c1z + c2z) / 2;
+			double cdx = (c2x + bx) / 2, cdy = (c2y + by) / 2, cdz = (c2z + bz) / 2;
+			double abcx = (abx + bcx) / 2, abcy = (aby + bcy) / 2, abcz = (abz + bcz) / 2;
+			double bcdx = (bcx + cdx) / 2, bcdy = (bcy + cdy) / 2, bcdz = (bcz + cdz) / 2;
+			double mx = (abcx + bcdx) / 2, my = (abcy + bcdy) / 2, mz = (abcz + bcdz) / 2;
+
+			subdivide(ax, ay, az, abx, aby, abz, abcx, abcy, abcz, mx, my, mz, depth + 1);
+			subdivide(mx, my, mz, bcdx, bcdy, bcdz, cdx, cdy, cdz, bx, by, bz, depth + 1);
+		}
+
+		private boolean flat(double ax, double ay, double c1x, double c1y, double c2x, double c2y, double bx, double by) {
+			double dx = bx - ax;
+			double dy = by - ay;
+			double l2 = dx * dx + dy * dy;
+			double f = flatness;
+			if (l2 < 1e-12) {
+				return (c1x - ax) * (c1x - ax) + (c1y - ay) * (c1y - ay) <= f * f && (c2x - ax) * (c2x - ax) + (c2y - ay) * (c2y - ay) <= f * f;
+			}
+			double d1 = (c1x - ax) * dy - (c1y - ay) * dx;
+			double d2 = (c2x - ax) * dy - (c2y - ay) * dx;
+			return d1 * d1 <= f * f * l2 && d2 * d2 <= f * f * l2;
+		}
+
+		private void add(double x, double y, double z) {
+			if (3 * count + 3 > points.length) points = Arrays.copyOf(points, points.length * 2);
+			points[3 * count] = x;
+			points[3 * count + 1] = y;
+			points[3 * count + 2] = z;
+			count++;
+		}
+	}
+
+	/**
+	 * the triangles that make up a stroke, packed, ready for MeshBuilder.bulk
+	 */
+	static public class Strokes {
+		float[] positions = new float[3 * 64];
+		int count = 0;
+		int[] triangles = new int[3 * 64];
+		int numIndices = 0;
+		boolean overlaps = false;
+
+		int vertex(double x, double y, double z) {
+			if (3 * count + 3 > positions.length) positions = Arrays.copyOf(positions, positions.length * 2);
+			positions[3 * count] = (float) x;
+			positions[3 * count + 1] = (float) y;
+			positions[3 * count + 2] = (float) z;
+			return count++;
+		}
+
+		void triangle(int a, int b, int c) {
+			if (numIndices + 3 > triangles.length) triangles = Arrays.copyOf(triangles, triangles.length * 2);
+			triangles[numIndices++] = a;
+			triangles[numIndices++] = b;
+			triangles[numIndices++] = c;
+		}
+
+		public int getVertexCount() {
+			return count;
+		}
+
+		public int getTriangleCount() {
+			return numIndices / 3;
+		}
+
+		/**
+		 * true if some of these triangles overlap (at turns too sharp for the segments either side of them), so a translucent stroke would blend twice there
+		 */
+		public boolean overlaps() {
+			return overlaps;
+		}
+
+		/**
+		 * copies these triangles into a (open) MeshBuilder with a single call to bulk. Aux channels take the MeshBuilder's current aux value
+		 */
+		public void apply(MeshBuilder m) {
+			if (count == 0) return;
+			m.bulk(positions, count, Collections.emptyMap(), Arrays.copyOf(triangles, numIndices));
+		}
+	}
+
+	/**
+	 * per-FLine stroking state, held by the FLine
+	 */
+	static class Entry {
+		Object key;
+		Strokes done;
+	}
+
+	/**
+	 * returns the stroked triangles for this FLine, from the cache if the line and the stroke haven't changed
+	 */
+	static public Strokes stroke(FLine f, BasicStroke s) {
+		Entry e = f.stroking();
+		Object key = new Pair<>(f.getModCount(), s);
+		if (key.equals(e.key) && e.done != null) {
+			cacheHits.incrementAndGet();
+			return e.done;
+		}
+
+		e.done = stroke(polylines(f), s.getLineWidth(), s.getEndCap(), s.getLineJoin(), s.getMiterLimit());
+		e.key = key;
+		return e.done;
+	}
+
+	/**
+	 * flattens the nodes of an FLine into polylines
+	 */
+	static public Polylines polylines(FLine f) {
+		Polylines p = new Polylines();
+		if (f.nodes instanceof PackedNodes) {
+			// straight out of the arrays, without making views
+			PackedNodes q = (PackedNodes) f.nodes;
+			Vec3 to = new Vec3();
+			Vec3 c1 = new Vec3();
+			Vec3 c2 = new Vec3();
+			for (int i = 0; i < q.size(); i++) {
+				q.to(i, to);
+				byte k = q.kind(i);
+				if (k == PackedNodes.MOVE) p.moveTo(to.x, to.y, to.z);
+				else if (k == PackedNodes.LINE) p.lineTo(to.x, to.y, to.z);
+				else {
+					q.c1(i, c1);
+					q.c2(i, c2);
+					p.cubicTo(c1.x, c1.y, c1.z, c2.x, c2.y, c2.z, to.x, to.y, to.z);
+				}
+			}
+			return p;
+		}
+		for (FLine.Node n : f.nodes) {
+			if (n instanceof FLine.MoveTo) p.moveTo(n.to.x, n.to.y, n.to.z);
+			else if (n instanceof FLine.LineTo) p.lineTo(n.to.x, n.to.y, n.to.z);
+			else if (n instanceof FLine.CubicTo) {
+				FLine.CubicTo c = (FLine.CubicTo) n;
+				p.cubicTo(c.c1.x, c.c1.y, c.c1.z, c.c2.x, c.c2.y, c.c2.z, n.to.x, n.to.y, n.to.z);
+			} else throw new IllegalArgumentException(" unknown subclass ");
+		}
+		return p;
+	}
+
+	/**
+	 * strokes some polylines. cap and join are BasicStroke.CAP_* and BasicStroke.JOIN_*
+	 */
+	static public Strokes stroke(Polylines p, float width, int cap, int join, float miterLimit) {
+		Strokes out = new Strokes();
+		double w = width / 2;
+		if (w <= 0) return out;
+
+		for (int s = 0; s < p.numStarts; s++) {
+			int start = p.starts[s];
+			int end = s + 1 < p.numStarts ? p.starts[s + 1] : p.count;
+			subpath(p.points, start, end, w, cap, join, miterLimit, out);
+		}
+		stroked.incrementAndGet();
+		return out;
+	}
+
+	static private void subpath(double[] pt, int start, int end, double w, int cap, int join, float miterLimit, Strokes out) {
+		int n = end - start;
+		if (n == 0) return;
+
+		if (n == 1) {
+			// a lone point only shows up with a round or square cap
+			double x = pt[3 * start], y = pt[3 * start + 1], z = pt[3 * start + 2];
+			if (cap == BasicStroke.CAP_ROUND) arc(x, y, z, w, 1, 0, 2 * Math.PI, out.vertex(x, y, z), -1, -1, out);
+			else if (cap == BasicStroke.CAP_SQUARE) {
+				int a = out.vertex(x - w, y - w, z), b = out.vertex(x + w, y - w, z), c = out.vertex(x + w, y + w, z), d = out.vertex(x - w, y + w, z);
+				out.triangle(a, b, c);
+				out.triangle(a, c, d);
+			}
+			return;
+		}
+
+		boolean closed = n > 2 && pt[3 * start] == pt[3 * (end - 1)] && pt[3 * start + 1] == pt[3 * (end - 1) + 1];
+		int segments = n - 1;
+
+		double[] dx = new double[segments], dy = new double[segments], len = new double[segments];
+		for (int i = 0; i < segments; i++) {
+			int a = start + i, b = a + 1;
+			double ddx = pt[3 * b] - pt[3 * a], ddy = pt[3 * b + 1] - pt[3 * a + 1];
+			double l = Math.sqrt(ddx * ddx + ddy * ddy);
+			if (l < 1e-12) {
+				// degenerate in the xy plane, pick a direction
+				ddx = 1;
+				ddy = 0;
+				if (segments > 1) out.overlaps = true;
+			} else {
+				ddx /= l;
+				ddy /= l;
+			}
+			dx[i] = ddx;
+			dy[i] = ddy;
+			len[i] = l;
+		}
+
+		// per turn, indexed by the segment that comes out of it: its center, the point where the inner edges cross (-1 if they can't meet there) and which way it turns
+		int[] center = new int[segments], inner = new int[segments];
+		boolean[] left = new boolean[segments];
+		for (int i = 0; i < segments; i++) {
+			center[i] = inner[i] = -1;
+			int in = i > 0 ? i - 1 : closed ? segments - 1 : -1;
+			if (in == -1) continue;
+
+			double cross = dx[in] * dy[i] - dy[in] * dx[i];
+			double dot = dx[in] * dx[i] + dy[in] * dy[i];
+			if (Math.abs(cross) < 1e-9 && dot > 0) continue;
+
+			int at = start + i;
+			double x = pt[3 * at], y = pt[3 * at + 1], z = pt[3 * at + 2];
+			left[i] = cross > 0;
+			center[i] = out.vertex(x, y, z);
+
+			// the inner edges cross this far back along each segment; that has to leave room for the turn at the other end of both
+			double turn = Math.abs(Math.atan2(cross, dot));
+			double k = w * Math.tan(turn / 2);
+			if (turn < Math.PI - 1e-6 && k <= len[in] / 2 && k <= len[i] / 2) {
+				double s = left[i] ? 1 : -1;
+				inner[i] = out.vertex(x - s * dy[in] * w - dx[in] * k, y + s * dx[in] * w - dy[in] * k, z);
+			} else out.overlaps = true;
+		}
+
+		// per segment: the corners on the outside of the turns at its start and end, and the corners at the ends of an open subpath (for the caps)
+		int[] outStart = new int[segments], outEnd = new int[segments];
+		int l0 = -1, r0 = -1, l1 = -1, r1 = -1;
+		int[] poly = new int[6];
+
+		for (int i = 0; i < segments; i++) {
+			int a = start + i, b = a + 1;
+			double ax = pt[3 * a], ay = pt[3 * a + 1], az = pt[3 * a + 2];
+			double bx = pt[3 * b], by = pt[3 * b + 1], bz = pt[3 * b + 2];
+			double nx = -dy[i] * w, ny = dx[i] * w;
+
+			if (!closed && cap == BasicStroke.CAP_SQUARE) {
+				if (i == 0) {
+					ax -= dx[i] * w;
+					ay -= dy[i] * w;
+				}
+				if (i == segments - 1) {
+					bx += dx[i] * w;
+					by += dy[i] * w;
+				}
+			}
+
+			int s = i;
+			int e = i + 1 < segments ? i + 1 : closed ? 0 : -1;
+			boolean clipStart = center[s] != -1 && inner[s] != -1;
+			boolean clipEnd = e != -1 && center[e] != -1 && inner[e] != -1;
+
+			// the outline of this segment, anticlockwise from its start on the right; the inner corner at a clipped turn is replaced by the crossing point and the center of the turn
+			int k = 0;
+			if (clipStart && !left[s]) {
+				poly[k++] = center[s];
+				poly[k++] = inner[s];
+			} else poly[k++] = outStart[i] = out.vertex(ax - nx, ay - ny, az);
+
+			if (clipEnd && left[e]) {
+				poly[k++] = outEnd[i] = out.vertex(bx - nx, by - ny, bz);
+				poly[k++] = center[e];
+				poly[k++] = inner[e];
+			} else if (clipEnd) {
+				poly[k++] = inner[e];
+				poly[k++] = center[e];
+				poly[k++] = outEnd[i] = out.vertex(bx + nx, by + ny, bz);
+			} else {
+				int er = out.vertex(bx - nx, by - ny, bz), el = out.vertex(bx + nx, by + ny, bz);
+				poly[k++] = er;
+				poly[k++] = el;
+				outEnd[i] = e != -1 && left[e] ? er : el;
+				if (i == segments - 1) {
+					r1 = er;
+					l1 = el;
+				}
+			}
+
+			if (clipStart && left[s]) {
+				poly[k++] = inner[s];
+				poly[k++] = center[s];
+			} else {
+				int sl = out.vertex(ax + nx, ay + ny, az);
+				poly[k++] = sl;
+				if (center[s] != -1 && !left[s]) outStart[i] = sl;
+				if (i == 0) {
+					r0 = poly[0];
+					l0 = sl;
+				}
+			}
+
+			for (int t = 1; t < k - 1; t++)
+				out.triangle(poly[0], poly[t], poly[t + 1]);
+		}
+
+		for (int i = 0; i < segments; i++) {
+			if (center[i] == -1) continue;
+			int in = i > 0 ? i - 1 : segments - 1;
+			join(pt, start + i, in, i, dx, dy, outEnd[in], outStart[i], center[i], left[i], w, join, miterLimit, out);
+		}
+
+		if (!closed && cap == BasicStroke.CAP_ROUND) {
+			double sx = pt[3 * start], sy = pt[3 * start + 1], sz = pt[3 * start + 2];
+			double ex = pt[3 * (end - 1)], ey = pt[3 * (end - 1) + 1], ez = pt[3 * (end - 1) + 2];
+
+			// half circle behind the start, from left round to right, and in front of the end, from right round to left
+			double a0 = Math.atan2(dx[0], -dy[0]);
+			arc(sx, sy, sz, w, 1, a0, Math.PI, out.vertex(sx, sy, sz), l0, r0, out);
+			double a1 = Math.atan2(-dx[segments - 1], dy[segments - 1]);
+			arc(ex, ey, ez, w, 1, a1, Math.PI, out.vertex(ex, ey, ez), r1, l1, out);
+		}
+	}
+
+	/**
+	 * fills in the outside of the turn at point 'at' between segment 'in' and segment 'next', from the corner 'from' at the end of 'in' to the corner 'to' at the start of 'next'
+	 */
+	static private void join(double[] pt, int at, int in, int next, double[] dx, double[] dy, int from, int to, int c, boolean left, double w, int join, float miterLimit, Strokes out) {
+		double cross = dx[in] * dy[next] - dy[in] * dx[next];
+		double dot = dx[in] * dx[next] + dy[in] * dy[next];
+		double x = pt[3 * at], y = pt[3 * at + 1], z = pt[3 * at + 2];
+		double turn = Math.atan2(cross, dot);
+
+		if (join == BasicStroke.JOIN_ROUND) {
+			double startAngle = left ? Math.atan2(-dx[in], dy[in]) : Math.atan2(dx[in], -dy[in]);
+			arc(x, y, z, w, left ? 1 : -1, startAngle, Math.abs(turn), c, from, to, out);
+			return;
+		}
+
+		if (join == BasicStroke.JOIN_MITER) {
+			// BasicStroke's miter limit bounds the ratio of the miter length to the line width
+			double half = (Math.PI - Math.abs(turn)) / 2;
+			double s = Math.sin(half);
+			if (s > 1e-9 && 1 / s <= miterLimit) {
+				double mx = dx[in] - dx[next], my = dy[in] - dy[next];
+				double ml = Math.sqrt(mx * mx + my * my);
+				if (ml > 1e-12) {
+					double d = w / s;
+					int m = out.vertex(x + mx / ml * d, y + my / ml * d, z);
+					out.triangle(c, from, m);
+					out.triangle(c, m, to);
+					return;
+				}
+			}
+		}
+
+		out.triangle(c, from, to);
+	}
+
+	/**
+	 * a triangle fan around (x,y,z) covering 'sweep' radians from 'startAngle' in the direction 'sign'. 'first' and 'last', if not -1, are used as the existing end vertices of the fan
+	 */
+	static private void arc(double x, double y, double z, double r, int sign, double startAngle, double sweep, int center, int first, int last, Strokes out) {
+		double step = 2 * Math.acos(Math.max(-1, 1 - flatness / r));
+		int steps = (int) Math.max(1, Math.min(256, Math.ceil(sweep / Math.max(step, 1e-3))));
+
+		int prev = first != -1 ? first : out.vertex(x + r * Math.cos(startAngle), y + r * Math.sin(startAngle), z);
+		for (int i = 1; i <= steps; i++) {
+			int v;
+			if (i == steps && last != -1) v = last;
+			else {
+				double a = startAngle + sign * sweep * i / steps;
+				v = out.vertex(x + r * Math.cos(a), y + r * Math.sin(a), z);
+			}
+			out.triangle(center, prev, v);
+			prev = v;
+		}
+	}
+}
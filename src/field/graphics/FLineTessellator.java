@@ -0,0 +1,369 @@
+package field.graphics;
+
+import field.app.RunLoop;
+import field.linalg.Vec3;
+import field.utility.Curry;
+import field.utility.Log;
+import org.lwjgl.util.glu.GLU;
+import org.lwjgl.util.glu.GLUtessellatorCallbackAdapter;
+import org.lwjgl.util.glu.tessellation.GLUtessellatorImpl;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tessellation of filled FLines into triangles, off the main thread where possible.
+ * <p>
+ * Filling an FLine happens in two steps. First, on the thread that owns the FLine, its nodes are flattened into an Outline --- packed positions, aux channels and contour boundaries. This is cheap.
+ * Then the Outline is run through the GLU tessellator to give a Triangulation --- packed vertices (the outline's vertices followed by any the tessellator had to invent at intersections) and
+ * triangle indices. This is the expensive part, it touches nothing but the Outline, so it can run on RunLoop.workerPool. Finally the Triangulation is copied into a MeshBuilder in one go with
+ * MeshBuilder.bulk.
+ * <p>
+ * Triangulations are cached with the FLine keyed by its mod count, fill rule and the other things that change how it flattens. Call prefetch(...) on a batch of lines before drawing them to have
+ * all the stale ones tessellated in parallel; renderToMesh will then pick up the results (waiting for them if need be).
+ */
+public class FLineTessellator {
+
+	static public final AtomicInteger tessellated = new AtomicInteger();
+	static public final AtomicInteger prefetched = new AtomicInteger();
+	static public final AtomicInteger cacheHits = new AtomicInteger();
+
+	/**
+	 * flattened, packed, input to the tessellator. This implements just enough of MeshAcceptor to be the target of FLine's renderMoveTo / renderLineTo / renderCubicTo
+	 */
+	static public class Outline implements MeshAcceptor {
+		int rule = GLU.GLU_TESS_WINDING_NONZERO;
+		boolean separatePolygons = false;
+
+		float[] positions = new float[3 * 16];
+		int count = 0;
+
+		// vertex index at which each contour starts
+		int[] contours = new int[4];
+		int numContours = 0;
+
+		// aux channels, in the order that we first see them
+		int[] channels = new int[0];
+		float[][] columns = new float[0][];
+		// the first vertex that has a value for each channel, vertices before this take the MeshBuilder's current aux value
+		int[] firstSet = new int[0];
+		float[][] current = new float[0][];
+
+		public Outline(int rule, boolean separatePolygons) {
+			this.rule = rule;
+			this.separatePolygons = separatePolygons;
+		}
+
+		public void beginContour() {
+			if (numContours > 0 && contours[numContours - 1] == count) return;
+			if (numContours == contours.length) contours = Arrays.copyOf(contours, contours.length * 2);
+			contours[numContours++] = count;
+		}
+
+		@Override
+		public MeshAcceptor v(float x, float y, float z) {
+			if (numContours == 0) beginContour();
+
+			if (3 * count + 3 > positions.length) positions = Arrays.copyOf(positions, positions.length * 2);
+			positions[3 * count] = x;
+			positions[3 * count + 1] = y;
+			positions[3 * count + 2] = z;
+
+			for (int c = 0; c < channels.length; c++) {
+				float[] v = current[c];
+				int d = v.length;
+				if (d * count + d > columns[c].length) columns[c] = Arrays.copyOf(columns[c], Math.max(columns[c].length * 2, d * count + d));
+				System.arraycopy(v, 0, columns[c], d * count, d);
+			}
+
+			count++;
+			return this;
+		}
+
+		@Override
+		public MeshAcceptor aux(int channel, float[] value) {
+			for (int c = 0; c < channels.length; c++) {
+				if (channels[c] == channel) {
+					if (value.length != current[c].length)
+						throw new IllegalArgumentException(" dimension mismatch. Aux channel " + channel + " was previously of dimension " + current[c].length + " not " + value.length);
+					current[c] = value;
+					return this;
+				}
+			}
+
+			int c = channels.length;
+			channels = Arrays.copyOf(channels, c + 1);
+			columns = Arrays.copyOf(columns, c + 1);
+			firstSet = Arrays.copyOf(firstSet, c + 1);
+			current = Arrays.copyOf(current, c + 1);
+
+			channels[c] = channel;
+			columns[c] = new float[value.length * Math.max(16, count + 1)];
+			firstSet[c] = count;
+			current[c] = value;
+			return this;
+		}
+
+		/**
+		 * runs the GLU tessellator over this outline. This touches nothing but this outline, so it can be called from any thread
+		 */
+		public Triangulation tessellate() {
+			return new Triangulation(this);
+		}
+	}
+
+	/**
+	 * the output of the tessellator --- packed positions, aux columns and triangle indices (counting forwards from the first vertex), ready for MeshBuilder.bulk
+	 */
+	static public class Triangulation {
+
+		float[] positions;
+		int count;
+		final int[] channels;
+		final int[] dimensions;
+		float[][] columns;
+		final int[] firstSet;
+		int[] triangles = new int[3 * 16];
+		int numIndices = 0;
+
+		Triangulation(Outline o) {
+			positions = Arrays.copyOf(o.positions, Math.max(3, 3 * o.count));
+			count = o.count;
+			channels = o.channels;
+			firstSet = o.firstSet;
+			dimensions = new int[channels.length];
+			columns = new float[channels.length][];
+			for (int c = 0; c < channels.length; c++) {
+				dimensions[c] = o.current[c].length;
+				columns[c] = Arrays.copyOf(o.columns[c], Math.max(dimensions[c], dimensions[c] * o.count));
+			}
+
+			GLUtessellatorImpl tess = new GLUtessellatorImpl();
+
+			tess.gluTessCallback(GLU.GLU_TESS_VERTEX_DATA, new GLUtessellatorCallbackAdapter() {
+				@Override
+				public void vertexData(Object vertex, Object polygon) {
+					if (numIndices == triangles.length) triangles = Arrays.copyOf(triangles, triangles.length * 2);
+					triangles[numIndices++] = (Integer) vertex;
+				}
+			});
+
+			tess.gluTessCallback(GLU.GLU_TESS_COMBINE_DATA, new GLUtessellatorCallbackAdapter() {
+				@Override
+				public void combineData(double[] coords, Object[] data, float[] weight, Object[] outData, Object polygon) {
+					outData[0] = combineVertex(coords, data, weight);
+				}
+			});
+
+			// registering an edge flag callback forces the tessellator to emit independent triangles rather than fans and strips
+			tess.gluTessCallback(GLU.GLU_EDGE_FLAG, new GLUtessellatorCallbackAdapter() {
+			});
+
+			tess.gluTessProperty(GLU.GLU_TESS_WINDING_RULE, o.rule);
+
+			double[] at = new double[3];
+			if (o.separatePolygons) {
+				for (int c = 0; c < o.numContours; c++) {
+					tess.gluTessBeginPolygon(null);
+					contour(tess, o, c, at);
+					tess.gluTessEndPolygon();
+				}
+			} else if (o.numContours > 0) {
+				tess.gluTessBeginPolygon(null);
+				for (int c = 0; c < o.numContours; c++)
+					contour(tess, o, c, at);
+				tess.gluTessEndPolygon();
+			}
+
+			// any partial triangle is dropped
+			numIndices -= numIndices % 3;
+			tessellated.incrementAndGet();
+		}
+
+		private void contour(GLUtessellatorImpl tess, Outline o, int c, double[] at) {
+			int start = o.contours[c];
+			int end = c + 1 < o.numContours ? o.contours[c + 1] : o.count;
+			if (end - start < 2) return;
+
+			tess.gluTessBeginContour();
+			for (int i = start; i < end; i++) {
+				at[0] = o.positions[3 * i];
+				at[1] = o.positions[3 * i + 1];
+				at[2] = o.positions[3 * i + 2];
+				tess.gluTessVertex(at, 0, i);
+			}
+			tess.gluTessEndContour();
+		}
+
+		private Integer combineVertex(double[] coords, Object[] data, float[] weight) {
+			int n = count++;
+			if (3 * count > positions.length) positions = Arrays.copyOf(positions, Math.max(3 * count, positions.length * 2));
+			positions[3 * n] = (float) coords[0];
+			positions[3 * n + 1] = (float) coords[1];
+			positions[3 * n + 2] = (float) coords[2];
+
+			for (int c = 0; c < channels.length; c++) {
+				int d = dimensions[c];
+				if (d * count > columns[c].length) columns[c] = Arrays.copyOf(columns[c], Math.max(d * count, columns[c].length * 2));
+				for (int j = 0; j < d; j++) {
+					float r = 0;
+					for (int i = 0; i < data.length; i++)
+						if (data[i] != null) r += columns[c][d * (Integer) data[i] + j] * weight[i];
+					columns[c][d * n + j] = r;
+				}
+			}
+			return n;
+		}
+
+		public int getVertexCount() {
+			return count;
+		}
+
+		public int getTriangleCount() {
+			return numIndices / 3;
+		}
+
+		/**
+		 * copies this triangulation into a (open) MeshBuilder with a single call to bulk. Aux channels carried by the FLine's nodes become columns; everything else takes the MeshBuilder's
+		 * current aux value, just as if the vertices had been added one by one.
+		 */
+		public void apply(MeshBuilder m) {
+			if (count == 0) return;
+
+			Map<Integer, float[]> c = new LinkedHashMap<>();
+			for (int i = 0; i < channels.length; i++) {
+				if (channels[i] <= 0) continue;
+				int d = dimensions[i];
+
+				float[] column = columns[i];
+				if (column.length != d * count) column = Arrays.copyOf(column, d * count);
+
+				if (firstSet[i] > 0) {
+					// vertices from before this channel was first set carry whatever the MeshBuilder is carrying
+					float[] was = m.aux.get(channels[i]);
+					if (column == columns[i]) column = column.clone();
+					for (int v = 0; v < Math.min(firstSet[i], count); v++)
+						for (int j = 0; j < d; j++)
+							column[d * v + j] = was != null && j < was.length ? was[j] : 0;
+				}
+				c.put(channels[i], column);
+			}
+
+			m.bulk(positions, count, c, Arrays.copyOf(triangles, numIndices));
+		}
+	}
+
+	/**
+	 * per-FLine tessellation state, held by the FLine
+	 */
+	static class Entry {
+		volatile Object key;
+		volatile Future<Triangulation> pending;
+		volatile Triangulation done;
+	}
+
+	static public int fillRule(FLine f) {
+		return f.attributes.isTrue(StandardFLineDrawing.fillEvenOdd, false) ? GLU.GLU_TESS_WINDING_ODD : GLU.GLU_TESS_WINDING_NONZERO;
+	}
+
+	static Object keyFor(FLine f, int fixedSizeForCubic) {
+		Map<Integer, String> ap = f.getAuxProperties();
+		return Arrays.asList(f.getModCount(), fillRule(f), f.attributes.isTrue(StandardFLineDrawing.noContours, false), fixedSizeForCubic, ap == null ? null : new LinkedHashMap<>(ap));
+	}
+
+	/**
+	 * flattens an FLine into an Outline using the default cubic flattening. Must be called on the thread that owns the FLine (it reads, and computes, the per-node aux data)
+	 */
+	static public Outline outline(FLine f, int fixedSizeForCubic) {
+		if (f.nodes instanceof PackedNodes) {
+			PackedNodes p = (PackedNodes) f.nodes;
+			PackedNodes.Aux aux = f.packedAux(p);
+			Outline o = new Outline(fillRule(f), f.attributes.isTrue(StandardFLineDrawing.noContours, false));
+			Vec3 tmp = new Vec3();
+			for (int i = 0; i < p.size(); i++) {
+				if (p.kind(i) == PackedNodes.MOVE) o.beginContour();
+				p.emit(o, i, fixedSizeForCubic, tmp, aux);
+			}
+			return o;
+		}
+		return outline(f, f::renderMoveTo, f::renderLineTo, f.renderCubicTo(fixedSizeForCubic));
+	}
+
+	/**
+	 * flattens an FLine into an Outline. Must be called on the thread that owns the FLine (it reads, and computes, the per-node aux data)
+	 */
+	static public Outline outline(FLine f, Curry.Function3<MeshAcceptor, FLine.Node, FLine.MoveTo, FLine.Node> moveTo, Curry.Function3<MeshAcceptor, FLine.Node, FLine.LineTo, FLine.Node> lineTo, Curry.Function3<MeshAcceptor, FLine.Node, FLine.CubicTo, FLine.Node> cubicTo) {
+		f.flattenAuxProperties();
+
+		Outline o = new Outline(fillRule(f), f.attributes.isTrue(StandardFLineDrawing.noContours, false));
+
+		FLine.Node a = null;
+		for (int i = 0; i < f.nodes.size(); i++) {
+			FLine.Node b = f.nodes.get(i);
+
+			if (b instanceof FLine.MoveTo) {
+				o.beginContour();
+				a = moveTo.apply(o, a, (FLine.MoveTo) b);
+			} else if (b instanceof FLine.LineTo) a = lineTo.apply(o, a, (FLine.LineTo) b);
+			else if (b instanceof FLine.CubicTo) a = cubicTo.apply(o, a, (FLine.CubicTo) b);
+			else throw new IllegalArgumentException(" unknown subclass ");
+		}
+		return o;
+	}
+
+	/**
+	 * if the cached triangulation for this FLine is out of date, flatten it now and start tessellating it on the worker pool. Call on the thread that owns the FLine.
+	 */
+	static public void prefetch(FLine f, int fixedSizeForCubic) {
+		Entry e = f.tessellation();
+		Object key = keyFor(f, fixedSizeForCubic);
+		if (key.equals(e.key)) return;
+
+		Outline o = outline(f, fixedSizeForCubic);
+		e.key = key;
+		e.done = null;
+		e.pending = RunLoop.workerPool.submit(o::tessellate);
+		prefetched.incrementAndGet();
+	}
+
+	/**
+	 * prefetch(...) for a batch of lines
+	 */
+	static public void prefetch(Collection<FLine> f, int fixedSizeForCubic) {
+		for (FLine ff : f)
+			prefetch(ff, fixedSizeForCubic);
+	}
+
+	/**
+	 * returns the triangulation for this FLine, from the cache, from a tessellation started by prefetch, or (failing both of those) by tessellating it right here.
+	 */
+	static public Triangulation triangulation(FLine f, int fixedSizeForCubic) {
+		Entry e = f.tessellation();
+		Object key = keyFor(f, fixedSizeForCubic);
+
+		if (key.equals(e.key)) {
+			if (e.done != null) {
+				cacheHits.incrementAndGet();
+				return e.done;
+			}
+			Future<Triangulation> p = e.pending;
+			if (p != null) {
+				try {
+					e.done = p.get();
+					e.pending = null;
+					return e.done;
+				} catch (InterruptedException | ExecutionException ex) {
+					Log.log("graphics.error", () -> " exception thrown while tessellating in the background, will tessellate again here " + ex);
+				}
+			}
+		}
+
+		Triangulation t = outline(f, fixedSizeForCubic).tessellate();
+		e.key = key;
+		e.pending = null;
+		e.done = t;
+		return t;
+	}
+}
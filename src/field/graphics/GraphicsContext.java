@@ -5,16 +5,19 @@ import field.utility.Log;
 import field.utility.Options;
 import org.lwjgl.opengl.GL11;
 
+import java.lang.ref.Cleaner;
 import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
+import java.util.Queue;
 import java.util.WeakHashMap;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
@@ -31,27 +34,115 @@ import java.util.function.Supplier;
  * <p>
  * Additionally there's code for the lazy one-time initialization of per-context state (get, put, computeIfAbset amd exists). Things that serve OpenGL contexts (like Window) handle newContext() and
  * enterContext() and exitContext().
+ * <p>
+ * Per-context state for GL resources that implement Slotted lives in a dense array indexed by a small integer allocated when the resource is constructed, so the lookups that happen every frame
+ * (buffer clean, texture bind, shader use) are an array read rather than a trip through a WeakHashMap. Slot indices are handed back by a Cleaner once their owner is unreachable; each allocation
+ * carries a fresh generation so a recycled index can never see the state of its previous owner. Anything else is still keyed through the WeakHashMap.
  */
 public class GraphicsContext {
 
 	public final ReentrantLock lock = new ReentrantLock(true);
 
 	static protected final ThreadLocal<GraphicsContext> currentGraphicsContext = new ThreadLocal<>();
-	static List<GraphicsContext> allGraphicsContexts = new ArrayList<GraphicsContext>();
+	static List<GraphicsContext> allGraphicsContexts = new CopyOnWriteArrayList<GraphicsContext>();
 
 	public final StateTracker stateTracker = new StateTracker();
 	public final UniformCache uniformCache = new UniformCache();
 
 	protected WeakHashMap<Object, Object> context = new WeakHashMap<>();
 
+	protected Object[] slotValues = new Object[256];
+	protected int[] slotGenerations = new int[256];
+
+	// slots whose owners have gone, posted by the Cleaner thread and cleared out of slotValues when this context is next entered
+	protected final Queue<Slot> releasedSlots = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * implemented by GL resources that want their per-context state stored densely rather than in a WeakHashMap
+	 */
+	public interface Slotted {
+		Slot getContextSlot();
+	}
+
+	static public final class Slot {
+		final int index;
+		final int generation;
+
+		Slot(int index, int generation) {
+			this.index = index;
+			this.generation = generation;
+		}
+	}
+
+	static private final Cleaner cleaner = Cleaner.create();
+	static private final Queue<Integer> freeSlots = new ConcurrentLinkedQueue<>();
+	static private final AtomicInteger nextSlot = new AtomicInteger();
+	static private final AtomicInteger nextGeneration = new AtomicInteger();
+
+	static public final AtomicInteger slotsAllocated = new AtomicInteger();
+	static public final AtomicInteger slotsReleased = new AtomicInteger();
+
+	/**
+	 * allocates a slot for 'owner', typically from a field initializer. The slot index is recycled once 'owner' becomes phantom reachable, and whatever each context stored in it is dropped the next
+	 * time that context is entered.
+	 */
+	static public Slot allocateSlot(Object owner) {
+		Integer free = freeSlots.poll();
+		int index = free == null ? nextSlot.getAndIncrement() : free;
+		// generation 0 is what an empty slot reads as, so never hand it out
+		int generation = nextGeneration.incrementAndGet();
+		if (generation == 0) generation = nextGeneration.incrementAndGet();
+
+		Slot s = new Slot(index, generation);
+		cleaner.register(owner, () -> {
+			slotsReleased.incrementAndGet();
+			for (GraphicsContext c : allGraphicsContexts)
+				c.releasedSlots.add(s);
+			freeSlots.add(index);
+		});
+		slotsAllocated.incrementAndGet();
+		return s;
+	}
+
+	protected Object getSlot(Slot s) {
+		if (s.index >= slotGenerations.length || slotGenerations[s.index] != s.generation) return null;
+		return slotValues[s.index];
+	}
+
+	protected void putSlot(Slot s, Object value) {
+		if (s.index >= slotGenerations.length) {
+			int n = Math.max(s.index + 1, slotGenerations.length * 2);
+			slotValues = Arrays.copyOf(slotValues, n);
+			slotGenerations = Arrays.copyOf(slotGenerations, n);
+		}
+		slotValues[s.index] = value;
+		slotGenerations[s.index] = value == null ? 0 : s.generation;
+	}
+
+	protected void clearReleasedSlots() {
+		Slot s;
+		// removeSlot checks the generation, so this leaves alone anything the index's next owner has put there already
+		while ((s = releasedSlots.poll()) != null)
+			removeSlot(s);
+	}
+
+	protected Object removeSlot(Slot s) {
+		Object was = getSlot(s);
+		if (was != null) {
+			slotValues[s.index] = null;
+			slotGenerations[s.index] = 0;
+		}
+		return was;
+	}
+
 	static public GraphicsContext getContext() {
 		return currentGraphicsContext.get();
 	}
 
 	static public boolean isResizing = false;
 
-	public final BlockingQueue<Runnable> preQueue = new LinkedBlockingQueue<>();
-	public final BlockingQueue<Runnable> postQueue = new LinkedBlockingQueue<>();
+	public final Queue<Runnable> preQueue = new ConcurrentLinkedQueue<>();
+	public final Queue<Runnable> postQueue = new ConcurrentLinkedQueue<>();
 
 	static public GraphicsContext newContext() {
 		GraphicsContext c = new GraphicsContext();
@@ -66,6 +157,7 @@ public class GraphicsContext {
 //		System.out.println(" setting context :"+currentGraphicsContext+" to "+c+" in thread "+Thread.currentThread());
 
 		currentGraphicsContext.set(c);
+		c.clearReleasedSlots();
 		for (Runnable r : currentGraphicsContext.get().preQueue) {
 			r.run();
 		}
@@ -73,42 +165,55 @@ public class GraphicsContext {
 
 	static public void exitContext(GraphicsContext c) {
 		if (currentGraphicsContext.get() != c) throw new Error();
-		for (Runnable r : currentGraphicsContext.get().postQueue)
+		Runnable r;
+		while ((r = c.postQueue.poll()) != null)
 			r.run();
-		currentGraphicsContext.get().postQueue.clear();
 		currentGraphicsContext.set(null);
 		Log.log("graphics.trace", () -> "<< graphics context end");
 	}
 
 	static public <T> T get(Object o) {
-		return (T) currentGraphicsContext.get().context.get(o);
+		return currentGraphicsContext.get().lookup(o);
 	}
 
 	public <T> T lookup(Object o) {
+		if (o instanceof Slotted) return (T) getSlot(((Slotted) o).getContextSlot());
 		return (T) context.get(o);
 	}
 
 	static public <T> T get(Object o, Supplier<T> initializer) {
-		T t = (T) currentGraphicsContext.get().context.get(o);
-		if (t == null) currentGraphicsContext.get().context.put(o, t = initializer.get());
+		GraphicsContext c = currentGraphicsContext.get();
+		T t = c.lookup(o);
+		if (t == null) c.store(o, t = initializer.get());
 		return t;
 	}
 
 	static public void invalidateInThisContext(Object o) {
-		currentGraphicsContext.get().context.remove(o);
+		currentGraphicsContext.get().discard(o);
 	}
 
 	static public void invalidateInAllContexts(Object o) {
 		for (GraphicsContext cc : GraphicsContext.allGraphicsContexts)
-			cc.context.remove(o);
+			cc.discard(o);
 	}
 
 	public boolean exists(Object o) {
+		if (o instanceof Slotted) return getSlot(((Slotted) o).getContextSlot()) != null;
 		return context.containsKey(o);
 	}
 
 	static public <T> void put(Object o, T val) {
-		currentGraphicsContext.get().context.put(o, val);
+		currentGraphicsContext.get().store(o, val);
+	}
+
+	protected void store(Object o, Object val) {
+		if (o instanceof Slotted) putSlot(((Slotted) o).getContextSlot(), val);
+		else context.put(o, val);
+	}
+
+	protected Object discard(Object o) {
+		if (o instanceof Slotted) return removeSlot(((Slotted) o).getContextSlot());
+		return context.remove(o);
 	}
 
 	static public void postQueueInAllContexts(Runnable c) {
@@ -127,7 +232,7 @@ public class GraphicsContext {
 	}
 
 	public static <T> T remove(Object key) {
-		return (T) currentGraphicsContext.get().context.remove(key);
+		return (T) currentGraphicsContext.get().discard(key);
 	}
 
 	static public final boolean noChecks = Options.dict().isTrue(new Dict.Prop("noChecks"), false);
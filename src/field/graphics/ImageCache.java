@@ -0,0 +1,236 @@
+package field.graphics;
+
+import field.app.RunLoop;
+import field.utility.Dict;
+import field.utility.Log;
+import field.utility.Options;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A shared cache of decoded (rgb, 8 bits per channel) jpegs, with a budget in bytes and least recently used eviction.
+ * <p>
+ * Images are cached by level: level 0 is the full image, level n is the image halved n times (rounding up). Anything other than level 0 is made by box filtering the nearest finer level that's
+ * already in the cache (or a fresh decode if there isn't one), so asking for a thumbnail of something that's been seen at full size doesn't touch the disk. Entries are keyed by filename and
+ * modification time, so a file that's written again is decoded again.
+ * <p>
+ * The budget (in megabytes) comes from the option "imageCacheMB" and defaults to 512. Buffers handed out stay valid after they are evicted, the cache just stops holding on to them.
+ */
+public class ImageCache {
+
+	static public final ImageCache shared = new ImageCache((long) (Options.dict()
+									 .getFloat(new Dict.Prop<Number>("imageCacheMB"), 512f) * 1024 * 1024));
+
+	static public class Level {
+		public final String filename;
+		public final int level;
+		public final int width;
+		public final int height;
+		public final ByteBuffer data;
+
+		protected Level(String filename, int level, int width, int height, ByteBuffer data) {
+			this.filename = filename;
+			this.level = level;
+			this.width = width;
+			this.height = height;
+			this.data = data;
+		}
+	}
+
+	public long budget;
+
+	/**
+	 * statistics, since this cache was made
+	 */
+	public int hits = 0;
+	public int misses = 0;
+	public int evictions = 0;
+	public long resident = 0;
+
+	protected final JPEGLoader j = FastJPEG.j;
+
+	protected final LinkedHashMap<String, Level> cache = new LinkedHashMap<>(64, 0.75f, true);
+	protected final Map<String, CompletableFuture<Level>> pending = new HashMap<>();
+
+	public ImageCache(long budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * the number of times 'width' x 'height' can be halved before it's smaller than 'onScreenWidth' x 'onScreenHeight' pixels. That's the level that's needed to draw it at that size
+	 */
+	static public int levelFor(int width, int height, double onScreenWidth, double onScreenHeight) {
+		int level = 0;
+		int max = maxLevel(width, height);
+		while (level < max && (width >> (level + 1)) >= onScreenWidth && (height >> (level + 1)) >= onScreenHeight) level++;
+		return level;
+	}
+
+	static public int maxLevel(int width, int height) {
+		int level = 0;
+		while ((width >> (level + 1)) > 0 && (height >> (level + 1)) > 0) level++;
+		return level;
+	}
+
+	static public int sizeAt(int size, int level) {
+		return (size + (1 << level) - 1) >> level;
+	}
+
+	/**
+	 * level 'level' of 'filename' if it's in the cache right now, otherwise null
+	 */
+	public synchronized Level get(String filename, int level) {
+		Level l = cache.get(key(filename, level));
+		if (l != null) hits++;
+		return l;
+	}
+
+	/**
+	 * level 'level' of 'filename', decoded (if it isn't already cached) on RunLoop.workerPool. Requests for something that's already being decoded share that decode
+	 */
+	public CompletableFuture<Level> request(String filename, int level) {
+		String key = key(filename, level);
+		synchronized (this) {
+			Level l = cache.get(key);
+			if (l != null) {
+				hits++;
+				return CompletableFuture.completedFuture(l);
+			}
+			CompletableFuture<Level> p = pending.get(key);
+			if (p != null) return p;
+
+			misses++;
+			CompletableFuture<Level> f = new CompletableFuture<>();
+			pending.put(key, f);
+			RunLoop.workerPool.submit(() -> {
+				try {
+					Level made = make(filename, level);
+					synchronized (this) {
+						pending.remove(key);
+						insert(key, made);
+					}
+					f.complete(made);
+				} catch (Throwable t) {
+					synchronized (this) {
+						pending.remove(key);
+					}
+					f.completeExceptionally(t);
+				}
+			});
+			return f;
+		}
+	}
+
+	/**
+	 * drops everything, for example after the budget has been lowered
+	 */
+	public synchronized void clear() {
+		cache.clear();
+		resident = 0;
+	}
+
+	/**
+	 * drops every level of 'filename', for example once it has gone away. Anything that's drawing one of them keeps its own reference to it
+	 */
+	public synchronized void evictFile(String filename) {
+		String prefix = filename + "@";
+		Iterator<Map.Entry<String, Level>> i = cache.entrySet()
+							    .iterator();
+		while (i.hasNext()) {
+			Map.Entry<String, Level> e = i.next();
+			if (!e.getKey()
+			      .startsWith(prefix)) continue;
+			resident -= e.getValue().data.capacity();
+			i.remove();
+			evictions++;
+		}
+	}
+
+	public synchronized void setBudget(long budget) {
+		this.budget = budget;
+		evict(null);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ImageCache: " + cache.size() + " levels, " + (resident >> 20) + "/" + (budget >> 20) + "MB, hits " + hits + " misses " + misses + " evictions " + evictions;
+	}
+
+	protected Level make(String filename, int level) {
+		int[] d = j.dimensions(filename);
+		if (d == null) throw new IllegalArgumentException(" can't read dimensions of image '" + filename + "'");
+
+		// start from the nearest finer level that we already have
+		Level from = null;
+		synchronized (this) {
+			for (int l = level - 1; l >= 0 && from == null; l--)
+				from = cache.get(key(filename, l));
+		}
+
+		if (from == null) {
+			ByteBuffer full = ByteBuffer.allocateDirect(d[0] * d[1] * 3);
+			j.decompress(filename, full, d[0], d[1]);
+			from = new Level(filename, 0, d[0], d[1], full);
+			if (level == 0) return from;
+		}
+
+		while (from.level < level)
+			from = halve(from);
+		return from;
+	}
+
+	static protected Level halve(Level from) {
+		int w = sizeAt(from.width, 1);
+		int h = sizeAt(from.height, 1);
+		ByteBuffer to = ByteBuffer.allocateDirect(w * h * 3);
+
+		ByteBuffer src = from.data;
+		int sw = from.width;
+		int sh = from.height;
+		for (int y = 0; y < h; y++) {
+			int y0 = 2 * y;
+			int y1 = Math.min(y0 + 1, sh - 1);
+			for (int x = 0; x < w; x++) {
+				int x0 = 2 * x;
+				int x1 = Math.min(x0 + 1, sw - 1);
+				int a = 3 * (y0 * sw + x0);
+				int b = 3 * (y0 * sw + x1);
+				int c = 3 * (y1 * sw + x0);
+				int e = 3 * (y1 * sw + x1);
+				int o = 3 * (y * w + x);
+				for (int k = 0; k < 3; k++)
+					to.put(o + k, (byte) (((src.get(a + k) & 0xff) + (src.get(b + k) & 0xff) + (src.get(c + k) & 0xff) + (src.get(e + k) & 0xff) + 2) >> 2));
+			}
+		}
+		return new Level(from.filename, from.level + 1, w, h, to);
+	}
+
+	protected void insert(String key, Level l) {
+		Level was = cache.put(key, l);
+		if (was != null) resident -= was.data.capacity();
+		resident += l.data.capacity();
+		evict(key);
+	}
+
+	// never evicts 'keep', so something bigger than the whole budget is still cached until the next insert
+	protected void evict(String keep) {
+		Iterator<Map.Entry<String, Level>> i = cache.entrySet()
+							    .iterator();
+		while (resident > budget && i.hasNext()) {
+			Map.Entry<String, Level> e = i.next();
+			if (e.getKey()
+			     .equals(keep)) continue;
+			resident -= e.getValue().data.capacity();
+			i.remove();
+			evictions++;
+		}
+		Log.log("graphics.imagecache", () -> this);
+	}
+
+	static protected String key(String filename, int level) {
+		return filename + "@" + new File(filename).lastModified() + "#" + level;
+	}
+}
@@ -24,6 +24,12 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 	static public int cacheMisses_internalHash = 0;
 	static public int cacheMisses_tooOld = 0;
 	static public float GROWTH = 1.5f;
+
+	/**
+	 * the per-instance attributes that instance(...) writes: a vec4 of offset (xyz) and uniform scale (w), and a vec4 color that multiplies the color of the geometry
+	 */
+	static public final int INSTANCE_TRANSFORM = 6;
+	static public final int INSTANCE_COLOR = 7;
 	int openCount = 0;
 	long buildNumber = 0;
 	// no shrinking yet, but when we do, we have to kill all bookmarks (at least all bookmarks above the trim line, which is impossible to compute right now)
@@ -32,6 +38,8 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 	int elementCursor = 0;
 	Map<Integer, float[]> aux = new HashMap<Integer, float[]>();
 	MeshBuilder_tesselationSupport tessSupport = null;
+	int instanceCursor = 0;
+	boolean instancing = false;
 	private BaseMesh target;
 
 	public MeshBuilder(BaseMesh target) {
@@ -110,12 +118,14 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 	private void doOpen() {
 		vertexCursor = 0;
 		elementCursor = 0;
+		instanceCursor = 0;
 		buildNumber++;
 	}
 
 	private void doOpenAppend() {
 		vertexCursor = target.getVertexLimit();
 		elementCursor = target.getElementLimit();
+		instanceCursor = target.getInstances();
 	}
 
 	/**
@@ -136,6 +146,7 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 	private void doClose() {
 		target.setVertexLimit(vertexCursor);
 		target.setElementLimit(elementCursor);
+		if (instancing) target.setInstances(instanceCursor);
 	}
 
 	/**
@@ -324,6 +335,74 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 		return this;
 	}
 
+	/**
+	 * Adds an instance of everything else in this MeshBuilder, offset by (x, y, z), scaled (about the origin) by 'scale' and with its color multiplied by (r, g, b, a). Once this has been called,
+	 * the mesh is drawn only as instances (the geometry itself is the prototype), so a frame with no calls to instance draws nothing.
+	 * <p>
+	 * This needs a shader that reads the attributes INSTANCE_TRANSFORM and INSTANCE_COLOR, for example gl_Position from (position * transform.w + transform.xyz) and color * instanceColor. The
+	 * geometry can be cached with bookmarks as usual; only the instances are sent to OpenGL each frame.
+	 */
+	public MeshBuilder instance(float x, float y, float z, float scale, float r, float g, float b, float a) {
+		instance(1).put(x)
+			   .put(y)
+			   .put(z)
+			   .put(scale);
+		FloatBuffer c = target.instanceBuffer(INSTANCE_COLOR, 4)
+				      .floats();
+		c.position(4 * instanceCursor);
+		c.put(r)
+		 .put(g)
+		 .put(b)
+		 .put(a);
+		instanceCursor++;
+		return this;
+	}
+
+	public MeshBuilder instance(Vec3 at, double scale, Vec4 color) {
+		return instance((float) at.x, (float) at.y, (float) at.z, (float) scale, (float) color.x, (float) color.y, (float) color.z, (float) color.w);
+	}
+
+	/**
+	 * Adds 'count' instances in one go: 'transforms' has 4 floats (x, y, z, scale) per instance, 'colors' 4 floats (r, g, b, a) per instance, or is null for white
+	 */
+	public MeshBuilder instances(float[] transforms, float[] colors, int count) {
+		if (transforms.length < 4 * count)
+			throw new IllegalArgumentException(" not enough transforms for " + count + " instances, got " + transforms.length + " floats");
+		if (colors != null && colors.length < 4 * count)
+			throw new IllegalArgumentException(" not enough colors for " + count + " instances, got " + colors.length + " floats");
+
+		instance(count).put(transforms, 0, 4 * count);
+
+		FloatBuffer c = target.instanceBuffer(INSTANCE_COLOR, 4)
+				      .floats();
+		c.position(4 * instanceCursor);
+		if (colors != null) c.put(colors, 0, 4 * count);
+		else for (int i = 0; i < 4 * count; i++)
+			c.put(1f);
+
+		instanceCursor += count;
+		return this;
+	}
+
+	/**
+	 * returns the number of instances added since this was opened
+	 */
+	public int getInstanceCursor() {
+		return instanceCursor;
+	}
+
+	// makes room for 'count' more instances, and returns the transform storage positioned at the next one
+	private FloatBuffer instance(int count) {
+		instancing = true;
+		int need = instanceCursor + count;
+		if (need > target.maxInstance) target.setInstanceMax(Math.max(need, (int) (target.maxInstance * GROWTH + 1)));
+		target.instanceBuffer(INSTANCE_COLOR, 4);
+		FloatBuffer f = target.instanceBuffer(INSTANCE_TRANSFORM, 4)
+				      .floats();
+		f.position(4 * instanceCursor);
+		return f;
+	}
+
 	/**
 	 * Adds a vertex to this MeshBuilder
 	 */
@@ -486,6 +565,171 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 		return this;
 	}
 
+	/**
+	 * Makes sure that there's room for at least another "vertices" vertices (across the position and every aux channel currently declared) and another "elements" elements in this MeshBuilder.
+	 * Calling this before a long run of v(...) and e(...) calls means that storage grows once, up front, rather than piecemeal.
+	 */
+	public MeshBuilder reserve(int vertices, int elements) {
+		Map<Integer, ArrayBuffer> b = target.buffers();
+		if (!b.containsKey(0)) ensureExists(0, 3, vertexCursor + vertices);
+		for (Map.Entry<Integer, ArrayBuffer> n : b.entrySet())
+			ensureExists(n.getKey(), n.getValue()
+						   .getDimension(), vertexCursor + vertices);
+
+		if (elements > 0 && target.elements != null) ensureElementSize(target.elements.getDimension(), elementCursor + elements);
+		return this;
+	}
+
+	/**
+	 * Adds "count" vertices in one go. Equivalent to calling v(x,y,z) "count" times, with positions[3*i ... 3*i+2] as each x,y,z, but with storage grown once and everything copied a
+	 * column at a time. Aux channels receive their current value (as set by aux(...)), exactly as if v had been called.
+	 */
+	public MeshBuilder v(float[] positions, int count) {
+		return bulk(positions, count, Collections.emptyMap(), null);
+	}
+
+	/**
+	 * Adds a block of geometry in one go: "count" vertices taken from positions (3 floats per vertex), per-vertex aux data for some or all of the aux channels (columns maps attribute to
+	 * count*dimension floats) and, optionally, a set of elements. Aux channels that are not in columns receive their current value (as set by aux(...)), exactly as if v had been called.
+	 * <p>
+	 * Unlike the rest of the public api, the indices in elements count forwards from the first vertex in this block (so 0 is positions[0..2], 1 is positions[3..5] and so on) and
+	 * elements.length must be a multiple of the element dimension of this mesh. Elements may be null.
+	 * <p>
+	 * Like any other sequence of v, e and aux calls, this can be protected by a pair of Bookmarks and skipped with skipTo.
+	 */
+	public MeshBuilder bulk(float[] positions, int count, Map<Integer, float[]> columns, int[] elements) {
+		if (positions.length < 3 * count)
+			throw new IllegalArgumentException(" not enough positions for " + count + " vertices, got " + positions.length + " floats");
+
+		int first = vertexCursor;
+
+		column(0, 3, first, count).put(positions, 0, 3 * count);
+
+		for (Map.Entry<Integer, float[]> c : columns.entrySet()) {
+			int attribute = c.getKey();
+			if (attribute == 0) throw new IllegalArgumentException(" attribute 0 is the vertex position, pass it as positions ");
+			float[] data = c.getValue();
+			if (count == 0) continue;
+			if (data.length % count != 0)
+				throw new IllegalArgumentException(" column for attribute " + attribute + " has " + data.length + " floats, which isn't a multiple of " + count + " vertices");
+			column(attribute, data.length / count, first, count).put(data, 0, data.length);
+		}
+
+		fillAux(columns.keySet(), first, count);
+
+		vertexCursor += count;
+
+		if (elements != null) bulkElements(elements, elements.length, first);
+
+		return this;
+	}
+
+	/**
+	 * Adds a block of geometry in one go from FloatBuffers. Equivalent to bulk(float[], int, Map, int[]), with "count" vertices read from positions (from its current position) and each
+	 * column read from its current position. Elements may be null.
+	 */
+	public MeshBuilder bulk(FloatBuffer positions, int count, Map<Integer, FloatBuffer> columns, IntBuffer elements) {
+		if (positions.remaining() < 3 * count)
+			throw new IllegalArgumentException(" not enough positions for " + count + " vertices, got " + positions.remaining() + " floats");
+
+		int first = vertexCursor;
+
+		FloatBuffer p = positions.duplicate();
+		p.limit(p.position() + 3 * count);
+		column(0, 3, first, count).put(p);
+
+		for (Map.Entry<Integer, FloatBuffer> c : columns.entrySet()) {
+			int attribute = c.getKey();
+			if (attribute == 0) throw new IllegalArgumentException(" attribute 0 is the vertex position, pass it as positions ");
+			FloatBuffer data = c.getValue()
+					    .duplicate();
+			if (count == 0) continue;
+			if (data.remaining() % count != 0)
+				throw new IllegalArgumentException(" column for attribute " + attribute + " has " + data.remaining() + " floats, which isn't a multiple of " + count + " vertices");
+			column(attribute, data.remaining() / count, first, count).put(data);
+		}
+
+		fillAux(columns.keySet(), first, count);
+
+		vertexCursor += count;
+
+		if (elements != null) {
+			int[] e = new int[elements.remaining()];
+			elements.duplicate()
+				.get(e);
+			bulkElements(e, e.length, first);
+		}
+
+		return this;
+	}
+
+	/**
+	 * Adds a block of elements in one go. Indices count forwards from the absolute vertex "first" (typically the value of getVertexCursor() saved before a call to v(float[], int)), rather than
+	 * backwards from the current vertex. elements.length must be a multiple of the element dimension of this mesh.
+	 */
+	public MeshBuilder e(int[] elements, int first) {
+		return bulkElements(elements, elements.length, first);
+	}
+
+	private MeshBuilder bulkElements(int[] elements, int length, int first) {
+		if (target.elements == null)
+			throw new IllegalArgumentException(" can't add elements to a " + target);
+
+		int d = target.elements.getDimension();
+		if (length % d != 0)
+			throw new IllegalArgumentException(" can't write " + length + " indices into elements of dimension " + d);
+
+		int[] abs = new int[length];
+		for (int i = 0; i < length; i++) {
+			int a = elements[i] + first;
+			if (a < 0 || a >= vertexCursor)
+				throw new IllegalArgumentException(" can't write element into vertexbuffer, trying to access index " + a + " outside 0 ... " + (vertexCursor - 1));
+			abs[i] = a;
+		}
+
+		ensureElementSize(d, elementCursor + length / d).put(abs);
+		elementCursor += length / d;
+		return this;
+	}
+
+	/**
+	 * writes the current aux state into every aux channel (other than 'skip') for vertices first ... first+count, a column at a time
+	 */
+	private void fillAux(Set<Integer> skip, int first, int count) {
+		if (count == 0) return;
+
+		for (Map.Entry<Integer, ArrayBuffer> n : target.buffers()
+							      .entrySet()) {
+			if (n.getKey() == 0 || skip.contains(n.getKey())) continue;
+
+			int dimension = n.getValue()
+					 .getDimension();
+			float[] z = aux.get(n.getKey());
+			if (z == null || z.length != dimension) z = new float[dimension];
+
+			float[] run = new float[dimension * count];
+			System.arraycopy(z, 0, run, 0, dimension);
+			// repeated doubling, rather than count separate puts
+			for (int filled = dimension; filled < run.length; filled *= 2)
+				System.arraycopy(run, 0, run, filled, Math.min(filled, run.length - filled));
+
+			column(n.getKey(), dimension, first, count).put(run);
+		}
+	}
+
+	/**
+	 * returns the storage for 'attribute' positioned at vertex 'first', grown (once) if needed to hold 'count' more vertices
+	 */
+	private FloatBuffer column(int attribute, int dimension, int first, int count) {
+		ArrayBuffer a = ensureExists(attribute, dimension, first + count);
+		if (a.getDimension() != dimension)
+			throw new IllegalArgumentException(" dimension mismatch. Attribute " + attribute + " was previously declared to be of dimension " + a.getDimension() + " not " + dimension);
+		FloatBuffer f = a.floats();
+		f.clear();
+		f.position(dimension * first);
+		return f;
+	}
+
 	/**
 	 * Adds a contour, via the tesselator, to a triangle mesh. Like the rest of the public api, toTesselate refers to vertex indices by starting at '0' (the most recently added via v(...)) and the '1' (the one added before that) etc..
 	 */
@@ -799,6 +1043,13 @@ public class MeshBuilder implements MeshAcceptor, Bracketable, Scene.ContainsPer
 		return new Pair(shrinkage, q);
 	}
 
+	/**
+	 * returns the absolute index of the next vertex to be added
+	 */
+	public int getVertexCursor() {
+		return vertexCursor;
+	}
+
 	/**
 	 * returns the mesh that this builder is building
 	 */
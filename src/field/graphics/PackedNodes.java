@@ -0,0 +1,532 @@
+package field.graphics;
+
+import field.linalg.Vec3;
+import field.utility.Dict;
+
+import java.util.*;
+
+/**
+ * A compact List of FLine.Node, for lines with a great many nodes (the kind that FLine.data, dataLines and sampleOver make).
+ * <p>
+ * Rather than one MoveTo / LineTo / CubicTo (each with a Vec3 or three and a Dict) per node, this keeps a byte per node saying what kind it is, the destination of every node three doubles at a time
+ * in one array, and the control points of cubics six doubles at a time in a second array that's only allocated once there's a cubic. Per-node attributes live in a side table that only has
+ * entries for nodes that have some.
+ * <p>
+ * Everything that works with FLine.nodes still works: get(i) makes a Node for that position (a 'view') and keeps it, and from then on the view is what that position is, so changes to its 'to' or
+ * its attributes stick. compact() folds views back into the arrays (and their attributes into the side table) and drops them. FLine's renderToLine, renderToPoints, the tessellator, the stroker
+ * and StandardFLineDrawing read positions, attributes and aux properties (see Aux) that don't have a view straight out of the arrays and the side table, so drawing a line never makes views.
+ */
+public class PackedNodes extends AbstractList<FLine.Node> implements RandomAccess {
+
+	static public final byte MOVE = 0;
+	static public final byte LINE = 1;
+	static public final byte CUBIC = 2;
+
+	protected final FLine line;
+
+	int n = 0;
+	byte[] kinds;
+	double[] to;
+	double[] control;
+	FLine.Node[] views;
+	int viewCount = 0;
+
+	protected final Map<Integer, Dict> attributes = new HashMap<>();
+
+	public PackedNodes(FLine line) {
+		this(line, 16);
+	}
+
+	public PackedNodes(FLine line, int capacity) {
+		this.line = line;
+		capacity = Math.max(capacity, 4);
+		kinds = new byte[capacity];
+		to = new double[capacity * 3];
+	}
+
+	/**
+	 * packs 'from' (nodes that belong to 'line'), keeping their attributes. The nodes themselves aren't kept, so changing them afterwards doesn't change this
+	 */
+	public PackedNodes(FLine line, Collection<FLine.Node> from) {
+		this(line, from.size());
+		for (FLine.Node node : from) {
+			append(kindOf(node), node);
+			Dict d = node.attributes;
+			if (d != null && !d.getMap()
+					  .isEmpty()) attributes.put(n - 1, d);
+		}
+	}
+
+	@Override
+	public int size() {
+		return n;
+	}
+
+	public byte kind(int i) {
+		check(i);
+		return kinds[i];
+	}
+
+	/**
+	 * the view at 'i' if one has been made, otherwise null (and the arrays are the truth for 'i')
+	 */
+	public FLine.Node view(int i) {
+		check(i);
+		return views == null ? null : views[i];
+	}
+
+	/**
+	 * the Node at 'i' without keeping it: the view if there is one, otherwise a fresh Node that changes won't stick to
+	 */
+	public FLine.Node peek(int i) {
+		check(i);
+		FLine.Node v = views == null ? null : views[i];
+		if (v != null) return v;
+
+		int t = 3 * i;
+		switch (kinds[i]) {
+			case MOVE:
+				v = line.new MoveTo(to[t], to[t + 1], to[t + 2]);
+				break;
+			case LINE:
+				v = line.new LineTo(to[t], to[t + 1], to[t + 2]);
+				break;
+			default:
+				int c = 6 * i;
+				v = line.new CubicTo(control[c], control[c + 1], control[c + 2], control[c + 3], control[c + 4], control[c + 5], to[t], to[t + 1], to[t + 2]);
+		}
+		Dict d = attributes.get(i);
+		if (d != null) v.attributes = d;
+		return v;
+	}
+
+	/**
+	 * the attributes of node 'i', or null if it has none, without making a view
+	 */
+	public Dict attributes(int i) {
+		check(i);
+		FLine.Node v = views == null ? null : views[i];
+		return v != null ? v.attributes : attributes.get(i);
+	}
+
+	/**
+	 * the positions, in order, that might have attributes (see attributes(i)). Without views this is just the side table, so it's cheap for lines with lots of nodes and few attributes
+	 */
+	public int[] withAttributes() {
+		if (viewCount == 0) {
+			int[] r = new int[attributes.size()];
+			int k = 0;
+			for (Integer i : attributes.keySet())
+				r[k++] = i;
+			Arrays.sort(r);
+			return r;
+		}
+		int[] r = new int[n];
+		int k = 0;
+		for (int i = 0; i < n; i++)
+			if (views[i] != null || attributes.containsKey(i)) r[k++] = i;
+		return Arrays.copyOf(r, k);
+	}
+
+	/**
+	 * the number of positions that currently have a view
+	 */
+	public int views() {
+		return viewCount;
+	}
+
+	/**
+	 * the destination of node 'i'
+	 */
+	public Vec3 to(int i, Vec3 out) {
+		check(i);
+		if (out == null) out = new Vec3();
+		FLine.Node v = views == null ? null : views[i];
+		if (v != null) return out.set(v.to);
+		return out.set(to[3 * i], to[3 * i + 1], to[3 * i + 2]);
+	}
+
+	/**
+	 * the first and second control points of node 'i', which must be a cubic
+	 */
+	public Vec3 c1(int i, Vec3 out) {
+		check(i);
+		if (out == null) out = new Vec3();
+		FLine.Node v = views == null ? null : views[i];
+		if (v != null) return out.set(((FLine.CubicTo) v).c1);
+		return out.set(control[6 * i], control[6 * i + 1], control[6 * i + 2]);
+	}
+
+	public Vec3 c2(int i, Vec3 out) {
+		check(i);
+		if (out == null) out = new Vec3();
+		FLine.Node v = views == null ? null : views[i];
+		if (v != null) return out.set(((FLine.CubicTo) v).c2);
+		return out.set(control[6 * i + 3], control[6 * i + 4], control[6 * i + 5]);
+	}
+
+	public void moveTo(double x, double y, double z) {
+		append(MOVE, x, y, z);
+	}
+
+	public void lineTo(double x, double y, double z) {
+		append(LINE, x, y, z);
+	}
+
+	public void cubicTo(double c1x, double c1y, double c1z, double c2x, double c2y, double c2z, double x, double y, double z) {
+		append(CUBIC, x, y, z);
+		int c = 6 * (n - 1);
+		control[c] = c1x;
+		control[c + 1] = c1y;
+		control[c + 2] = c1z;
+		control[c + 3] = c2x;
+		control[c + 4] = c2y;
+		control[c + 5] = c2z;
+	}
+
+	@Override
+	public FLine.Node get(int i) {
+		check(i);
+		if (views == null) views = new FLine.Node[kinds.length];
+		FLine.Node v = views[i];
+		if (v != null) return v;
+
+		v = peek(i);
+		views[i] = v;
+		viewCount++;
+		return v;
+	}
+
+	@Override
+	public FLine.Node set(int i, FLine.Node node) {
+		FLine.Node was = peek(i);
+		if (views == null) views = new FLine.Node[kinds.length];
+		if (views[i] == null) viewCount++;
+		kinds[i] = kindOf(node);
+		if (kinds[i] == CUBIC) ensureControl();
+		views[i] = node;
+		attributes.remove(i);
+		return was;
+	}
+
+	/**
+	 * 'node' becomes the view for the new last position, so later changes to it stick
+	 */
+	@Override
+	public boolean add(FLine.Node node) {
+		append(kindOf(node), node);
+		if (views == null) views = new FLine.Node[kinds.length];
+		views[n - 1] = node;
+		viewCount++;
+		return true;
+	}
+
+	@Override
+	public void add(int i, FLine.Node node) {
+		if (i == n) {
+			add(node);
+			return;
+		}
+		if (i < 0 || i > n) throw new IndexOutOfBoundsException(" index " + i + " size " + n);
+
+		grow(n + 1);
+		System.arraycopy(kinds, i, kinds, i + 1, n - i);
+		System.arraycopy(to, 3 * i, to, 3 * i + 3, 3 * (n - i));
+		if (control != null) System.arraycopy(control, 6 * i, control, 6 * i + 6, 6 * (n - i));
+		if (views == null) views = new FLine.Node[kinds.length];
+		System.arraycopy(views, i, views, i + 1, n - i);
+		shiftAttributes(i, 1);
+
+		kinds[i] = kindOf(node);
+		if (kinds[i] == CUBIC) ensureControl();
+		views[i] = node;
+		viewCount++;
+		n++;
+		modCount++;
+	}
+
+	@Override
+	public FLine.Node remove(int i) {
+		FLine.Node was = peek(i);
+		System.arraycopy(kinds, i + 1, kinds, i, n - i - 1);
+		System.arraycopy(to, 3 * i + 3, to, 3 * i, 3 * (n - i - 1));
+		if (control != null) System.arraycopy(control, 6 * i + 6, control, 6 * i, 6 * (n - i - 1));
+		if (views != null) {
+			if (views[i] != null) viewCount--;
+			System.arraycopy(views, i + 1, views, i, n - i - 1);
+		}
+		attributes.remove(i);
+		shiftAttributes(i + 1, -1);
+		n--;
+		if (views != null) views[n] = null;
+		modCount++;
+		return was;
+	}
+
+	@Override
+	public void clear() {
+		n = 0;
+		views = null;
+		viewCount = 0;
+		attributes.clear();
+		modCount++;
+	}
+
+	/**
+	 * writes every view back into the arrays (and any attributes it has into the side table) and forgets it. Nodes handed out before this no longer belong to this list
+	 */
+	public void compact() {
+		if (views == null) return;
+		for (int i = 0; i < n; i++) {
+			FLine.Node v = views[i];
+			if (v == null) continue;
+			write(i, v);
+			Dict d = v.attributes;
+			if (d != null && !d.getMap()
+					  .isEmpty()) attributes.put(i, d);
+			else attributes.remove(i);
+		}
+		views = null;
+		viewCount = 0;
+	}
+
+	/**
+	 * a copy of this (with every attribute duplicated) for 'line'. The copy has no views
+	 */
+	public PackedNodes duplicate(FLine line) {
+		PackedNodes p = new PackedNodes(line, n);
+		p.n = n;
+		System.arraycopy(kinds, 0, p.kinds, 0, n);
+		System.arraycopy(to, 0, p.to, 0, 3 * n);
+		if (control != null) {
+			p.control = new double[6 * p.kinds.length];
+			System.arraycopy(control, 0, p.control, 0, 6 * n);
+		}
+		for (int i = 0; i < n; i++) {
+			FLine.Node v = views == null ? null : views[i];
+			if (v != null) {
+				p.kinds[i] = kindOf(v);
+				if (p.kinds[i] == CUBIC) p.ensureControl();
+				p.write(i, v);
+			}
+			Dict d = v != null ? v.attributes : attributes.get(i);
+			if (d != null && !d.getMap()
+					  .isEmpty()) p.attributes.put(i, d.duplicate());
+		}
+		return p;
+	}
+
+	/**
+	 * the values that a line's aux properties (FLine.getAuxProperties) take at each node, read from the side table (and any views) rather than by making views. As in FLine.flattenAuxProperties,
+	 * nodes between two that have a value for a property get a linear interpolation of them, and nodes before the first (or after the last) get the first (or last) value
+	 */
+	public class Aux {
+		final int[] channels;
+		// per channel, the positions that have a value and those values
+		final int[][] at;
+		final float[][][] values;
+
+		Aux(int[] channels, Dict.Prop[] props) {
+			this.channels = channels;
+			at = new int[channels.length][];
+			values = new float[channels.length][][];
+
+			int[] with = withAttributes();
+			for (int c = 0; c < channels.length; c++) {
+				int[] a = new int[with.length];
+				float[][] v = new float[with.length][];
+				int k = 0;
+				for (int i : with) {
+					Dict d = attributes(i);
+					Object o = d == null ? null : d.get(props[c]);
+					if (o == null) continue;
+					a[k] = i;
+					v[k++] = Uniform.rewriteToFloatArray(o);
+				}
+				at[c] = Arrays.copyOf(a, k);
+				values[c] = Arrays.copyOf(v, k);
+			}
+		}
+
+		/**
+		 * the value of the 'c'th aux property at node 'i', or null if no node has one
+		 */
+		public float[] value(int c, int i) {
+			int[] a = at[c];
+			if (a.length == 0) return null;
+			int s = Arrays.binarySearch(a, i);
+			if (s >= 0) return values[c][s];
+			s = -s - 1;
+			if (s == 0) return values[c][0];
+			if (s == a.length) return values[c][a.length - 1];
+			return interpolate((i - a[s - 1]) / (float) (a[s] - a[s - 1]), values[c][s - 1], values[c][s]);
+		}
+	}
+
+	/**
+	 * the values of 'props', which feed aux 'channels', at every node, or null if there are no channels
+	 */
+	public Aux aux(int[] channels, Dict.Prop[] props) {
+		return channels.length == 0 ? null : new Aux(channels, props);
+	}
+
+	static private float[] interpolate(float alpha, float[] a, float[] b) {
+		if (a == null) return b;
+		if (b == null) return a;
+		float[] r = new float[Math.min(a.length, b.length)];
+		for (int i = 0; i < r.length; i++)
+			r[i] = a[i] * (1 - alpha) + b[i] * alpha;
+		return r;
+	}
+
+	/**
+	 * emits the vertices for node 'i' (a single vertex, or 'fixedSizeForCubic' for a cubic) the same way FLine's renderMoveTo, renderLineTo and renderCubicTo(fixedSizeForCubic) would, without
+	 * making a view. 'tmp' is scratch space
+	 */
+	public void emit(MeshAcceptor m, int i, int fixedSizeForCubic, Vec3 tmp) {
+		emit(m, i, fixedSizeForCubic, tmp, null);
+	}
+
+	/**
+	 * emit(...), also setting the aux channels in 'aux' (which may be null) before each vertex
+	 */
+	public void emit(MeshAcceptor m, int i, int fixedSizeForCubic, Vec3 tmp, Aux aux) {
+		FLine.Node v = views == null ? null : views[i];
+		byte k = kinds[i];
+
+		double x, y, z;
+		if (v != null) {
+			x = v.to.x;
+			y = v.to.y;
+			z = v.to.z;
+		} else {
+			x = to[3 * i];
+			y = to[3 * i + 1];
+			z = to[3 * i + 2];
+		}
+
+		if (k != CUBIC) {
+			if (aux != null) for (int c = 0; c < aux.channels.length; c++) {
+				float[] value = aux.value(c, i);
+				if (value != null && aux.channels[c] > 0) m.aux(aux.channels[c], value);
+			}
+			m.v(x, y, z);
+			return;
+		}
+
+		double c1x, c1y, c1z, c2x, c2y, c2z;
+		if (v != null) {
+			FLine.CubicTo c = (FLine.CubicTo) v;
+			c1x = c.c1.x;
+			c1y = c.c1.y;
+			c1z = c.c1.z;
+			c2x = c.c2.x;
+			c2y = c.c2.y;
+			c2z = c.c2.z;
+		} else {
+			int c = 6 * i;
+			c1x = control[c];
+			c1y = control[c + 1];
+			c1z = control[c + 2];
+			c2x = control[c + 3];
+			c2y = control[c + 4];
+			c2z = control[c + 5];
+		}
+
+		Vec3 from = to(i - 1, tmp);
+		double ax = from.x, ay = from.y, az = from.z;
+
+		// aux values are interpolated along a cubic from the node before it, as renderCubicTo does
+		float[][] auxFrom = null;
+		float[][] auxTo = null;
+		if (aux != null) {
+			auxFrom = new float[aux.channels.length][];
+			auxTo = new float[aux.channels.length][];
+			for (int c = 0; c < aux.channels.length; c++) {
+				auxFrom[c] = aux.value(c, i - 1);
+				auxTo[c] = aux.value(c, i);
+			}
+		}
+
+		for (int j = 0; j < fixedSizeForCubic; j++) {
+			float alpha = (j + 1f) / fixedSizeForCubic;
+			FLine.evaluateCubicFrame(ax, ay, az, c1x, c1y, c1z, c2x, c2y, c2z, x, y, z, alpha, tmp);
+			if (aux != null) for (int c = 0; c < aux.channels.length; c++) {
+				float[] r = interpolate(alpha, auxFrom[c], auxTo[c]);
+				if (r != null && aux.channels[c] > 0) m.aux(aux.channels[c], r);
+			}
+			m.v(tmp.x, tmp.y, tmp.z);
+		}
+	}
+
+	protected void append(byte kind, double x, double y, double z) {
+		grow(n + 1);
+		kinds[n] = kind;
+		if (kind == CUBIC) ensureControl();
+		to[3 * n] = x;
+		to[3 * n + 1] = y;
+		to[3 * n + 2] = z;
+		n++;
+		modCount++;
+	}
+
+	protected void append(byte kind, FLine.Node node) {
+		append(kind, node.to.x, node.to.y, node.to.z);
+		if (kind == CUBIC) write(n - 1, node);
+	}
+
+	protected void write(int i, FLine.Node v) {
+		to[3 * i] = v.to.x;
+		to[3 * i + 1] = v.to.y;
+		to[3 * i + 2] = v.to.z;
+		if (v instanceof FLine.CubicTo) {
+			FLine.CubicTo c = (FLine.CubicTo) v;
+			int o = 6 * i;
+			control[o] = c.c1.x;
+			control[o + 1] = c.c1.y;
+			control[o + 2] = c.c1.z;
+			control[o + 3] = c.c2.x;
+			control[o + 4] = c.c2.y;
+			control[o + 5] = c.c2.z;
+		}
+	}
+
+	protected void grow(int to) {
+		if (to <= kinds.length) return;
+		int c = Math.max(to, kinds.length + (kinds.length >> 1));
+		kinds = Arrays.copyOf(kinds, c);
+		this.to = Arrays.copyOf(this.to, 3 * c);
+		if (control != null) control = Arrays.copyOf(control, 6 * c);
+		if (views != null) views = Arrays.copyOf(views, c);
+	}
+
+	protected void ensureControl() {
+		if (control == null) control = new double[6 * kinds.length];
+	}
+
+	protected void shiftAttributes(int from, int by) {
+		if (attributes.isEmpty()) return;
+		Map<Integer, Dict> moved = new HashMap<>();
+		Iterator<Map.Entry<Integer, Dict>> it = attributes.entrySet()
+								  .iterator();
+		while (it.hasNext()) {
+			Map.Entry<Integer, Dict> e = it.next();
+			if (e.getKey() >= from) {
+				moved.put(e.getKey() + by, e.getValue());
+				it.remove();
+			}
+		}
+		attributes.putAll(moved);
+	}
+
+	protected void check(int i) {
+		if (i < 0 || i >= n) throw new IndexOutOfBoundsException(" index " + i + " size " + n);
+	}
+
+	static protected byte kindOf(FLine.Node node) {
+		if (node instanceof FLine.MoveTo) return MOVE;
+		if (node instanceof FLine.LineTo) return LINE;
+		if (node instanceof FLine.CubicTo) return CUBIC;
+		throw new IllegalArgumentException(" unknown subclass " + node);
+	}
+}
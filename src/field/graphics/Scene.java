@@ -42,6 +42,24 @@ public class Scene extends Box implements fieldlinker.AsMap {
 	public TreeMap<Integer, Set<Consumer<Integer>>> internalScene = new TreeMap<>();
 	BiMap<String, Consumer<Integer>> tagged = HashBiMap.create();
 	List<Throwable> exceptions = new ArrayList<Throwable>();
+	protected Culling culling;
+
+	protected boolean recorded = false;
+	protected int structureMod = 0;
+	protected Recording recording;
+
+	/**
+	 * statistics: how many times recorded Scenes have had to (re)record their traversal, and how many times they've replayed one instead
+	 */
+	static public int recordings = 0;
+	static public int replays = 0;
+
+	protected Set<Integer> commutative = null;
+
+	/**
+	 * statistics: how many times a commutative pass has been run in an order other than the one things were attached in
+	 */
+	static public int regrouped = 0;
 
 	/**
 	 * utility, takes a consumer and returns a version that runs only once every "count" iterations
@@ -62,6 +80,7 @@ public class Scene extends Box implements fieldlinker.AsMap {
 	 * A (int pass, Consumer<Integer>) tuple can be effectively cast as a Perform. The int says what pass the consumer should be run for, and the consumer is called for that pass
 	 */
 	public boolean attach(int pass, Consumer<Integer> p) {
+		structureMod++;
 		Set<Consumer<Integer>> c = internalScene.get(pass);
 		if (c == null) internalScene.put(pass, c = new LinkedHashSet<Consumer<Integer>>());
 		return c.add(p);
@@ -82,6 +101,7 @@ public class Scene extends Box implements fieldlinker.AsMap {
 		Set<Consumer<Integer>> c = internalScene.computeIfAbsent(pass, k -> new LinkedHashSet<>());
 
 		tagged.put(tag, p);
+		structureMod++;
 
 		return c.add(p);
 	}
@@ -103,6 +123,7 @@ public class Scene extends Box implements fieldlinker.AsMap {
 		}
 
 		tagged.put(tag, p);
+		structureMod++;
 
 		return pp;
 	}
@@ -118,7 +139,7 @@ public class Scene extends Box implements fieldlinker.AsMap {
 			.filter(x -> x)
 			.collect(Collectors.toList());
 		if (removed.size() == 0) {
-		}
+		} else structureMod++;
 
 	}
 
@@ -149,9 +170,140 @@ public class Scene extends Box implements fieldlinker.AsMap {
 	@Override
 	public Box connect(Box b) {
 		Box p = super.connect(b);
+		structureMod++;
 		return p;
 	}
 
+	@Override
+	public Box disconnect(Box b) {
+		Box p = super.disconnect(b);
+		structureMod++;
+		return p;
+	}
+
+	/**
+	 * Turns on (or off) recording for this Scene. A recorded Scene works out the order of everything it runs (its own passes merged with its children's) once, and on later updates runs straight
+	 * through that recording instead of rebuilding it. Attaching, detaching, connecting and disconnecting through this Scene throw the recording away, as does invalidate(). So does any change to
+	 * its children, or to their 'passes', however it's made: each update checks them (one comparison per child) against what they were when the recording was made.
+	 * <p>
+	 * Everything recorded still runs every time (meshes still check their own modification counts, uniforms still fetch their values) so what's drawn is unchanged; what's saved is the work of
+	 * walking and merging the structure, which for a large Scene that doesn't change is most of its CPU cost.
+	 */
+	public Scene setRecorded(boolean recorded) {
+		this.recorded = recorded;
+		this.recording = null;
+		return this;
+	}
+
+	public boolean isRecorded() {
+		return recorded;
+	}
+
+	/**
+	 * throws away the recording of this Scene, if it has one
+	 */
+	public void invalidate() {
+		structureMod++;
+	}
+
+	/**
+	 * Declares that the order of what runs in pass 'pass' of this Scene (its own and its children's) doesn't matter, or (if 'commutative' is false) that it does again. A commutative pass runs
+	 * grouped by state: everything that is, or has attached directly to it, the same Shader or Texture runs together, groups in the order they first appear, so that OpenGL sees as few changes of
+	 * program and texture as possible. Anything without such state keeps its place relative to the groups.
+	 */
+	public Scene setCommutative(int pass, boolean commutative) {
+		if (this.commutative == null) this.commutative = new LinkedHashSet<>();
+		if (commutative) this.commutative.add(pass);
+		else this.commutative.remove(pass);
+		structureMod++;
+		return this;
+	}
+
+	// 'in', grouped by stateKey, if 'pass' is commutative
+	protected List<Consumer<Integer>> inOrder(int pass, Collection<Consumer<Integer>> in) {
+		if (commutative == null || !commutative.contains(pass) || in.size() < 3) return new ArrayList<>(in);
+
+		Map<Object, List<Consumer<Integer>>> groups = new LinkedHashMap<>();
+		for (Consumer<Integer> c : in) {
+			Object k = stateKey(c);
+			groups.computeIfAbsent(k == null ? new Object() : k, x -> new ArrayList<>())
+			      .add(c);
+		}
+		if (groups.size() == in.size()) return new ArrayList<>(in);
+
+		List<Consumer<Integer>> out = new ArrayList<>(in.size());
+		for (List<Consumer<Integer>> g : groups.values())
+			out.addAll(g);
+		regrouped++;
+		return out;
+	}
+
+	// the Shader or Texture that 'c' is, or that's attached directly to it, if any
+	static protected Object stateKey(Consumer<Integer> c) {
+		if (c instanceof Guard) c = ((Guard) c).last;
+		if (c instanceof Shader || c instanceof Texture) return c;
+		if (c instanceof Scene) for (Set<Consumer<Integer>> s : ((Scene) c).internalScene.values())
+			for (Consumer<Integer> x : s)
+				if (x instanceof Shader || x instanceof Texture) return x;
+		return null;
+	}
+
+	/**
+	 * the traversal of a Scene, flattened: its passes in order and what runs in each
+	 */
+	static protected class Recording {
+		protected final int mod;
+		protected final TreeMap<Integer, Set<Consumer<Integer>>> scene;
+		protected final int[] passes;
+		protected final Consumer<Integer>[][] performs;
+
+		// the children, their 'passes' and the mod counts of those, when this was recorded
+		protected final Box[] children;
+		protected final Object[] childPasses;
+		protected final int[] childPassesMod;
+
+		@SuppressWarnings("unchecked")
+		protected Recording(Scene from, int mod, TreeMap<Integer, Set<Consumer<Integer>>> scene) {
+			this.mod = mod;
+			this.scene = scene;
+
+			Collection<Box> c = from.children();
+			children = c.toArray(new Box[c.size()]);
+			childPasses = new Object[children.length];
+			childPassesMod = new int[children.length];
+			for (int i = 0; i < children.length; i++) {
+				LinkedHashMapAndArrayList<Perform> p = children[i].properties.get(Scene.passes);
+				childPasses[i] = p;
+				childPassesMod[i] = p == null ? 0 : p.getModCount();
+			}
+
+			passes = new int[scene.size()];
+			performs = new Consumer[scene.size()][];
+			int k = 0;
+			for (Map.Entry<Integer, Set<Consumer<Integer>>> e : scene.entrySet()) {
+				passes[k] = e.getKey();
+				performs[k] = from.inOrder(e.getKey(), e.getValue())
+						  .toArray(new Consumer[e.getValue()
+									 .size()]);
+				k++;
+			}
+		}
+
+		// true if 'from' still has the same children, with the same, unchanged, 'passes'
+		protected boolean childrenUnchanged(Scene from) {
+			Collection<Box> c = from.children();
+			if (c.size() != children.length) return false;
+			int i = 0;
+			for (Box b : c) {
+				if (b != children[i]) return false;
+				LinkedHashMapAndArrayList<Perform> p = b.properties.get(Scene.passes);
+				if (p != childPasses[i] || (p != null && p.getModCount() != childPassesMod[i])) return false;
+				i++;
+			}
+			return true;
+		}
+	}
+
 	protected TreeMap<Integer, Set<Consumer<Integer>>> collectChildrenPasses() {
 
 
@@ -175,6 +327,18 @@ public class Scene extends Box implements fieldlinker.AsMap {
 	}
 
 
+	/**
+	 * sets a culling stage for this Scene (or null for none). Before each update everything in the Scene with bounds is tested against its frustum, and anything outside it skips its passes
+	 */
+	public Scene setCulling(Culling culling) {
+		this.culling = culling;
+		return this;
+	}
+
+	public Culling getCulling() {
+		return culling;
+	}
+
 	/**
 	 * updates everything in the internalScene. This is the main entry point for performing a complete update cycle.
 	 */
@@ -198,26 +362,23 @@ public class Scene extends Box implements fieldlinker.AsMap {
 
 		try {
 
-			TreeMap<Integer, Set<Consumer<Integer>>> c1 = collectChildrenPasses();
-			if (c1 == null) c1 = new TreeMap<>();
+			if (recorded) return replay(a);
 
-			for (Map.Entry<Integer, Set<Consumer<Integer>>> c2 : internalScene.entrySet()) {
-				if (c1.get(c2.getKey()) == null) c1.put(c2.getKey(), c2.getValue());
-				else c1.get(c2.getKey())
-					.addAll(c2.getValue());
-			}
+			TreeMap<Integer, Set<Consumer<Integer>>> scene = mergedPasses();
 
-			TreeMap<Integer, Set<Consumer<Integer>>> scene = c1;
+			Culling culling = this.culling;
+			if (culling != null) culling.update(scene);
 
 			for (Integer i : new LinkedHashSet<>(scene.keySet())) {
 				Log.log("graphics.trace", () -> this + " pass " + i + " -> " + scene.get(i));
 				while (!a.isEmpty() && i >= a.peek().first) ret = wrappedCall(a.poll().second);
 
-				ArrayList<Consumer<Integer>> previously = new ArrayList<>(scene.get(i));
+				List<Consumer<Integer>> previously = inOrder(i, scene.get(i));
 
 				Iterator<Consumer<Integer>> ic = previously.iterator();
 				while (ic.hasNext()) {
 					Consumer<Integer> n = ic.next();
+					if (culling != null && culling.isCulled(n)) continue;
 					GraphicsContext.checkError(() -> "on " + n);
 					if (!wrappedCall(n, i)) {
 						detach(n);
@@ -229,14 +390,7 @@ public class Scene extends Box implements fieldlinker.AsMap {
 
 			while (!a.isEmpty()) ret = wrappedCall(a.poll().second);
 
-			if (exceptions.size() > 0) {
-				System.err.println(" Exceptions thrown in internalScene update ");
-				System.err.println(" (Performs responsible have been removed from the internalScene, if they were directly attached) ");
-				System.err.println(" Details: ");
-				for (Throwable t : exceptions) {
-					t.printStackTrace();
-				}
-			}
+			reportExceptions();
 		} catch (NullPointerException e) {
 			e.printStackTrace();
 //			System.exit(0);
@@ -245,6 +399,59 @@ public class Scene extends Box implements fieldlinker.AsMap {
 		return ret;
 	}
 
+	// this Scene's passes merged with those of its children
+	private TreeMap<Integer, Set<Consumer<Integer>>> mergedPasses() {
+		TreeMap<Integer, Set<Consumer<Integer>>> c1 = collectChildrenPasses();
+		if (c1 == null) c1 = new TreeMap<>();
+
+		for (Map.Entry<Integer, Set<Consumer<Integer>>> c2 : internalScene.entrySet()) {
+			if (c1.get(c2.getKey()) == null) c1.put(c2.getKey(), c2.getValue());
+			else c1.get(c2.getKey())
+				.addAll(c2.getValue());
+		}
+		return c1;
+	}
+
+	// update(...) for a recorded Scene: the same traversal, straight from the recording (which is made first if there isn't one that's up to date)
+	private boolean replay(Queue<Pair<Integer, Callable<Boolean>>> a) {
+		boolean ret = true;
+
+		Recording r = recording;
+		if (r == null || r.mod != structureMod || !r.childrenUnchanged(this)) {
+			recording = r = new Recording(this, structureMod, mergedPasses());
+			recordings++;
+		} else replays++;
+
+		Culling culling = this.culling;
+		if (culling != null) culling.update(r.scene);
+
+		for (int k = 0; k < r.passes.length; k++) {
+			int i = r.passes[k];
+			while (!a.isEmpty() && i >= a.peek().first) ret = wrappedCall(a.poll().second);
+
+			for (Consumer<Integer> n : r.performs[k]) {
+				if (culling != null && culling.isCulled(n)) continue;
+				if (!wrappedCall(n, i)) detach(n);
+			}
+		}
+
+		while (!a.isEmpty()) ret = wrappedCall(a.poll().second);
+
+		reportExceptions();
+		return ret;
+	}
+
+	private void reportExceptions() {
+		if (exceptions.size() > 0) {
+			System.err.println(" Exceptions thrown in internalScene update ");
+			System.err.println(" (Performs responsible have been removed from the internalScene, if they were directly attached) ");
+			System.err.println(" Details: ");
+			for (Throwable t : exceptions) {
+				t.printStackTrace();
+			}
+		}
+	}
+
 	public List<Throwable> getException() {
 		return exceptions;
 	}
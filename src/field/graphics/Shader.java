@@ -76,12 +76,19 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, fi
 
 	Map<Type, Source> source = new LinkedHashMap<>();
 
-	static public class Source {
+	static public class Source implements GraphicsContext.Slotted {
 		public Supplier<String> source;
 		protected final Type type;
 		protected int status;
 		public iErrorHandler onError = null;
 
+		protected final GraphicsContext.Slot contextSlot = GraphicsContext.allocateSlot(this);
+
+		@Override
+		public GraphicsContext.Slot getContextSlot() {
+			return contextSlot;
+		}
+
 		protected Set<Integer> attachedTo = new LinkedHashSet<>();
 
 		public Source(Supplier<String> source, Type type) {
@@ -489,4 +496,33 @@ public class Shader extends BaseScene<Shader.State> implements Scene.Perform, fi
 	public int getModCount() {
 		return modCount;
 	}
+
+	// uniform locations by UniformCache slot (-2 for not looked up yet), for the program they were looked up in
+	private int[] uniformLocations = new int[0];
+	private int uniformLocationsProgram = -1;
+	private int uniformLocationsMod = -1;
+
+	/**
+	 * the location of the uniform called 'name', whose UniformCache slot is 'slot', in 'program' (this Shader's program in the current context). Each location is asked of OpenGL once per program
+	 */
+	public int uniformLocation(int program, int slot, String name) {
+		if (program != uniformLocationsProgram || modCount != uniformLocationsMod) {
+			Arrays.fill(uniformLocations, -2);
+			uniformLocationsProgram = program;
+			uniformLocationsMod = modCount;
+		}
+		if (slot >= uniformLocations.length) {
+			int was = uniformLocations.length;
+			uniformLocations = Arrays.copyOf(uniformLocations, Math.max(slot + 1, 2 * was));
+			Arrays.fill(uniformLocations, was, uniformLocations.length, -2);
+		}
+
+		int l = uniformLocations[slot];
+		if (l != -2) {
+			UniformCache.locationHits++;
+			return l;
+		}
+		UniformCache.locationLookups++;
+		return uniformLocations[slot] = glGetUniformLocation(program, name);
+	}
 }
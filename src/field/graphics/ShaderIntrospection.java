@@ -273,7 +273,8 @@ public class ShaderIntrospection {
 
 	private String checkMesh(BaseMesh m, Function<Object, String> convert) {
 
-		Map<Integer, ArrayBuffer> q = m.buffers();
+		Map<Integer, ArrayBuffer> q = new LinkedHashMap<>(m.buffers());
+		q.putAll(m.instanceBuffers());
 
 		Map<Integer, Attribute> v = attrs.stream()
 						 .collect(Collectors.toMap(x -> x.location, x -> x));
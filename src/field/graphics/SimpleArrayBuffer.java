@@ -17,9 +17,17 @@ import static org.lwjgl.opengl.GL20.glVertexAttribPointer;
 /**
  * An OpenGL Vertex Buffer backed by a ByteBuffer. Useful for VertexArrays and ElementArrays
  */
-public class SimpleArrayBuffer implements ArrayBuffer {
+public class SimpleArrayBuffer implements ArrayBuffer, GraphicsContext.Slotted {
 
 	static public int uploadBytes = 0;
+
+	protected final GraphicsContext.Slot contextSlot = GraphicsContext.allocateSlot(this);
+
+	@Override
+	public GraphicsContext.Slot getContextSlot() {
+		return contextSlot;
+	}
+
 	final int divisor;
 	private final FloatBuffer dataAsFloat;
 	private final IntBuffer dataAsInt;
@@ -71,6 +79,11 @@ public class SimpleArrayBuffer implements ArrayBuffer {
 		return false;
 	}
 
+	@Override
+	public int getMod() {
+		return mod;
+	}
+
 	@Override
 	public int getSize() {
 		return size;
@@ -5,10 +5,14 @@ import field.linalg.Vec3;
 import field.linalg.Vec4;
 import field.utility.Dict;
 import field.utility.IdempotencyMap;
+import field.utility.Log;
 import fieldbox.boxes.TextDrawing;
 
 import java.awt.*;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
 
 /**
@@ -33,7 +37,7 @@ public class StandardFLineDrawing {
 			return v;
 		});
 
-	static public final Dict.Prop<Boolean> hint_noDepth = new Dict.Prop<>("hint_noDepth").type().toCannon().doc("set on a line to hint to the renderer that z=0 for all nodes in this line. At present this merely allows lines to be `thicken` faster.");
+	static public final Dict.Prop<Boolean> hint_noDepth = new Dict.Prop<>("hint_noDepth").type().toCannon().doc("set on a line to hint to the renderer that z=0 for all nodes in this line.");
 	static public final Dict.Prop<Boolean> filled = new Dict.Prop<>("filled").type()
 		.toCannon()
 		.doc("should the line be filled and tessellated? defaults to false").set(Dict.domain, "fline");
@@ -101,9 +105,161 @@ public class StandardFLineDrawing {
 		.toCannon()
 		.doc("setting `.noContours=true` turns off any smartness in the tesselator about how to fill FLines").set(Dict.domain, "fline");
 
+	static public final Dict.Prop<Boolean> fillEvenOdd = new Dict.Prop<>("fillEvenOdd").type()
+		.toCannon()
+		.doc("setting `.fillEvenOdd=true` fills this line with the even-odd rule rather than the default non-zero winding rule (so overlapping contours make holes)").set(Dict.domain, "fline");
+
+	static public final Dict.Prop<java.util.List<Object>> instances = new Dict.Prop<>("instances").type()
+		.toCannon()
+		.doc("draws this line many times over, once per entry, from one copy of its geometry. Each entry is a `Vec2(x,y)` or `Vec3(x,y,z)` to offset the line by, or a `Vec4(x,y,z,scale)` to offset and scale it. Points aren't instanced").set(Dict.domain, "fline");
+
+	static public final Dict.Prop<java.util.List<Vec4>> instanceColors = new Dict.Prop<>("instanceColors").type()
+		.toCannon()
+		.doc("multiplies the color of each instance (see `.instances`) by the corresponding entry in this list (white if there isn't one)").set(Dict.domain, "fline");
+
+	/**
+	 * starts tessellating, in parallel on the worker pool, any filled lines in this batch (and their subLines) that have changed since they were last filled, and flattening (see FLineFlattener) any
+	 * stroked or pointed lines that have changed since they were last drawn. Call this on the main thread before calling dispatchLine on each of them, with a mesh and a line; dispatchLine will pick
+	 * up the results.
+	 */
+	static public void prefetch(Collection<FLine> flines) {
+		prefetch(flines, true, true);
+	}
+
+	/**
+	 * prefetch(...) for lines that will be given to dispatchLine with a mesh (or not, if !toMesh) and a line (or not, if !toLine)
+	 */
+	static public void prefetch(Collection<FLine> flines, boolean toMesh, boolean toLine) {
+		java.util.List<FLine> all = new java.util.ArrayList<>(flines);
+		for (int i = 0; i < all.size(); i++) {
+			FLine fline = all.get(i);
+			fline.prefetchedSubLines = resolveSubLines(fline);
+			all.addAll(fline.prefetchedSubLines);
+		}
+
+		for (FLine fline : all) {
+			if (!fline.attributes.isTrue(filled, false)) continue;
+
+			// dispatchLine adds this before filling a stroked line, the prefetched tessellation has to agree with it
+			if (strokesAsLine(fline, toMesh, toLine)) fline.addAuxProperties(1, color.getName());
+
+			try {
+				FLineTessellator.prefetch(fline, 20);
+			} catch (Throwable t) {
+				// dispatchLine will run into this again, and report it properly
+				Log.log("drawing.trace", () -> " exception thrown while prefetching tessellation " + t);
+			}
+		}
+
+		// only lines that already carry the aux properties that dispatchLine adds, so that what's recorded is what dispatchLine would draw
+		FLineFlattener.prefetch(all, fline -> fline.attributes.isTrue(stroked, true) && fline.attributes.getOr(thicken, () -> null) == null && hasAux(fline, 1, color),
+					fline -> fline.attributes.isTrue(pointed, false) && hasAux(fline, 2, pointSize), 20);
+	}
+
+	/**
+	 * true if dispatchLine draws this line's stroke into its line MeshBuilder (and so colors it per vertex), rather than thickening it into its mesh or not drawing it at all
+	 */
+	static private boolean strokesAsLine(FLine fline, boolean toMesh, boolean toLine) {
+		if (!toLine || !fline.attributes.isTrue(stroked, true)) return false;
+		return !toMesh || fline.attributes.getOr(thicken, () -> null) == null;
+	}
+
+	/**
+	 * the lines in fline's nodes' `subLines`, either those that prefetch has already asked for (once only), or asked for now
+	 */
+	static private java.util.List<FLine> subLines(FLine fline) {
+		java.util.List<FLine> r = fline.prefetchedSubLines;
+		if (r == null) return resolveSubLines(fline);
+		fline.prefetchedSubLines = null;
+		return r;
+	}
+
+	static private java.util.List<FLine> resolveSubLines(FLine fline) {
+		java.util.List<FLine> r = new java.util.ArrayList<>(0);
+		forEachAttributed(fline, (attributes, at) -> {
+			IdempotencyMap<Supplier<FLine>> s = attributes.get(subLines);
+			if (s == null) return;
+			for (Supplier<FLine> x : s.values()) {
+				FLine f = x.get();
+				if (f != null) r.add(f);
+			}
+		});
+		return r;
+	}
+
+	/**
+	 * calls 'to' with the attributes and destination of every node, in order, that has attributes. Packed nodes (see PackedNodes) are read from their side table without making views of them
+	 */
+	static private void forEachAttributed(FLine fline, BiConsumer<Dict, Vec3> to) {
+		if (fline.nodes instanceof PackedNodes) {
+			PackedNodes p = (PackedNodes) fline.nodes;
+			for (int i : p.withAttributes()) {
+				Dict d = p.attributes(i);
+				if (d != null) to.accept(d, p.to(i, null));
+			}
+			return;
+		}
+		for (FLine.Node n : fline.nodes)
+			if (n.attributes != null) to.accept(n.attributes, n.to);
+	}
+
+	static private boolean hasAux(FLine fline, int channel, Dict.Prop p) {
+		Map<Integer, String> ap = fline.getAuxProperties();
+		return ap != null && p.getName()
+				      .equals(ap.get(channel));
+	}
+
+
+	/**
+	 * adds the instances in fline's `instances` and `instanceColors` to each of 'into' (see MeshBuilder.instance). These MeshBuilders should be ones that dispatchLine has drawn fline, and only
+	 * fline, into
+	 */
+	static public void dispatchInstances(FLine fline, MeshBuilder... into) {
+		java.util.List<Object> at = fline.attributes.get(instances);
+		java.util.List<Vec4> colors = fline.attributes.get(instanceColors);
+		int n = at == null ? 0 : at.size();
+
+		float[] t = new float[4 * n];
+		float[] c = colors == null ? null : new float[4 * n];
+		for (int i = 0; i < n; i++) {
+			Object o = at.get(i);
+			if (o instanceof Vec4) {
+				Vec4 v = (Vec4) o;
+				t[4 * i] = (float) v.x;
+				t[4 * i + 1] = (float) v.y;
+				t[4 * i + 2] = (float) v.z;
+				t[4 * i + 3] = (float) v.w;
+			} else if (o instanceof Vec3) {
+				Vec3 v = (Vec3) o;
+				t[4 * i] = (float) v.x;
+				t[4 * i + 1] = (float) v.y;
+				t[4 * i + 2] = (float) v.z;
+				t[4 * i + 3] = 1;
+			} else if (o instanceof Vec2) {
+				Vec2 v = (Vec2) o;
+				t[4 * i] = (float) v.x;
+				t[4 * i + 1] = (float) v.y;
+				t[4 * i + 3] = 1;
+			} else throw new IllegalArgumentException(" can't make an instance out of " + o + ", expected a Vec2, Vec3 or Vec4");
+
+			if (c != null) {
+				Vec4 v = i < colors.size() ? colors.get(i) : null;
+				c[4 * i] = v == null ? 1 : (float) v.x;
+				c[4 * i + 1] = v == null ? 1 : (float) v.y;
+				c[4 * i + 2] = v == null ? 1 : (float) v.z;
+				c[4 * i + 3] = v == null ? 1 : (float) v.w;
+			}
+		}
+
+		for (MeshBuilder m : into)
+			if (m != null) m.instances(t, c, n);
+	}
 
 	static public void dispatchLine(FLine fline, MeshBuilder mesh, MeshBuilder line, MeshBuilder points, Optional<TextDrawing> ot, String layerName) {
 
+		// if it's being flattened in the background, it's ours again after this
+		FLineFlattener.await(fline);
+
 		Vec4 sc = new Vec4(fline.attributes.getOr(strokeColor, () -> fline.attributes.getOr(color, () -> new Vec4(0, 0, 0, 1))).get());
 		Vec4 fc = new Vec4(fline.attributes.getOr(fillColor, () -> fline.attributes.getOr(color, () -> new Vec4(0, 0, 0, 1))).get());
 		Vec4 pc = new Vec4(fline.attributes.getOr(pointColor, () -> fline.attributes.getOr(color, () -> new Vec4(0, 0, 0, 1))).get());
@@ -124,11 +280,9 @@ public class StandardFLineDrawing {
 			mesh.aux(1, sc);
 			fline.renderLineToMeshByStroking(mesh, 20, s);
 			mesh.aux(1, sc);
-		} else {
-			if (fline.attributes.isTrue(stroked, true) && line != null) {
-				fline.addAuxProperties(1, color.getName());
-				fline.renderToLine(line, 20);
-			}
+		} else if (strokesAsLine(fline, mesh != null, line != null)) {
+			fline.addAuxProperties(1, color.getName());
+			fline.renderToLine(line, 20);
 		}
 		if (fline.attributes.isTrue(filled, false) && mesh != null) fline.renderToMesh(mesh, 20);
 		if (fline.attributes.isTrue(pointed, false) && points != null) {
@@ -139,63 +293,60 @@ public class StandardFLineDrawing {
 			points.aux(2, ps);
 		}
 
-		fline.nodes.stream().map(n -> n.attributes.get(subLines)).filter(n -> n != null).flatMap(n -> n.values().stream()).map(x -> x.get()).filter(x -> x != null).forEach(x -> {
+		for (FLine x : subLines(fline))
 			dispatchLine(x, mesh, line, points, ot, layerName);
-		});
 
 		if (fline.attributes.isTrue(hasText, false) && ot.isPresent()) {
-			fline.nodes.stream()
-				.filter(node -> node.attributes.has(text))
-				.forEach(node -> {
-					String textToDraw = node.attributes.get(text);
-					float textScale = node.attributes.getFloat(StandardFLineDrawing.textScale, 1f) * 0.15f;
-					float align = node.attributes.getFloat(StandardFLineDrawing.textAlign, 0.5f);
-					ot.map(t -> t.getFontSupport(fline.attributes.getOr(font, () -> "source-sans-pro-regular-92.fnt"), layerName))
-						.ifPresent(fs -> {
-							Vec2 v = fs.font.dimensions(textToDraw, textScale);
-							fs.mesh.aux(1, fc);
-							fs.font.draw(textToDraw, new Vec3(node.to.x - align * v.x, node.to.y, node.to.z), textScale, fline);
-						});
-				});
-
-			fline.nodes.stream()
-				.filter(node -> node.attributes.has(textSpans))
-				.forEach(node -> {
-					java.util.List<String> textToDraw = node.attributes.get(textSpans);
-					java.util.List<String> fontToDraw = node.attributes.get(fontSpans);
-					java.util.List<Vec4> colorsToDraw = node.attributes.get(textColorSpans);
-					float textScale = node.attributes.getFloat(StandardFLineDrawing.textScale, 1f) * 0.15f;
-					String prev = "source-sans-pro-regular-92.fnt";
-					Vec4 prevColor = fc;
-
-					Vec2 dim = new Vec2();
-
-					for (int i = 0; i < textToDraw.size(); i++) {
-						String m = textToDraw.get(i);
-						String f = fontToDraw == null ? prev : (i >= fontToDraw.size() ? prev : fontToDraw.get(i));
-						ot.map(t -> t.getFontSupport(fline.attributes.getOr(font, () -> f), layerName))
-							.ifPresent(fs -> {
-								Vec2 v = fs.font.dimensions(m, textScale);
-								dim.x += v.x;
-							});
-						prev = f;
-					}
-
-					Vec2 o = new Vec2();
-					for (int i = 0; i < textToDraw.size(); i++) {
-						String m = textToDraw.get(i);
-						String f = fontToDraw == null ? prev : (i >= fontToDraw.size() ? prev : fontToDraw.get(i));
-						Vec4 fcHere = colorsToDraw == null ? prevColor : (i >= colorsToDraw.size() ? prevColor : colorsToDraw.get(i));
-						ot.map(t -> t.getFontSupport(fline.attributes.getOr(font, () -> f)))
-							.ifPresent(fs -> {
-								fs.mesh.aux(1, new Vec4(fcHere).mul(op));
-								fs.font.draw(m, new Vec3(node.to.x - dim.x / 2 + o.x, node.to.y, node.to.z), textScale, fline);
-								o.x += fs.font.dimensions(m, textScale).x;
-							});
-						prev = f;
-						prevColor = fcHere;
-					}
-				});
+			TextDrawing t = ot.get();
+			String lineFont = fline.attributes.get(font);
+
+			// one font lookup per line rather than per node
+			TextDrawing.FontSupport lineFs = t.getFontSupport(lineFont == null ? "source-sans-pro-regular-92.fnt" : lineFont, layerName);
+
+			forEachAttributed(fline, (attributes, at) -> {
+				if (!attributes.has(text)) return;
+
+				String textToDraw = attributes.get(text);
+				float textScale = attributes.getFloat(StandardFLineDrawing.textScale, 1f) * 0.15f;
+				float align = attributes.getFloat(StandardFLineDrawing.textAlign, 0.5f);
+
+				float width = (float) lineFs.font.dimensions(textToDraw, textScale).x;
+				lineFs.mesh.aux(1, fc);
+				lineFs.font.draw(textToDraw, at.x - align * width, at.y, at.z, textScale, fline);
+			});
+
+			forEachAttributed(fline, (attributes, at) -> {
+				if (!attributes.has(textSpans)) return;
+
+				java.util.List<String> textToDraw = attributes.get(textSpans);
+				java.util.List<String> fontToDraw = attributes.get(fontSpans);
+				java.util.List<Vec4> colorsToDraw = attributes.get(textColorSpans);
+				float textScale = attributes.getFloat(StandardFLineDrawing.textScale, 1f) * 0.15f;
+
+				// measure every span once, remembering which font each is in
+				TextDrawing.FontSupport[] spanFs = new TextDrawing.FontSupport[textToDraw.size()];
+				float[] widths = new float[textToDraw.size()];
+				float total = 0;
+
+				String prev = "source-sans-pro-regular-92.fnt";
+				for (int i = 0; i < textToDraw.size(); i++) {
+					String f = fontToDraw == null ? prev : (i >= fontToDraw.size() ? prev : fontToDraw.get(i));
+					spanFs[i] = lineFont != null ? lineFs : t.getFontSupport(f, layerName);
+					widths[i] = (float) spanFs[i].font.dimensions(textToDraw.get(i), textScale).x;
+					total += widths[i];
+					prev = f;
+				}
+
+				float x = (float) (at.x - total / 2);
+				Vec4 prevColor = fc;
+				for (int i = 0; i < textToDraw.size(); i++) {
+					Vec4 fcHere = colorsToDraw == null ? prevColor : (i >= colorsToDraw.size() ? prevColor : colorsToDraw.get(i));
+					spanFs[i].mesh.aux(1, (float) (fcHere.x * op), (float) (fcHere.y * op), (float) (fcHere.z * op), (float) (fcHere.w * op));
+					spanFs[i].font.draw(textToDraw.get(i), x, at.y, at.z, textScale, fline);
+					x += widths[i];
+					prevColor = fcHere;
+				}
+			});
 		}
 
 	}
@@ -7,6 +7,7 @@ import org.lwjgl.opengl.GL30;
 
 import java.lang.reflect.Field;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -19,6 +20,9 @@ import static org.lwjgl.opengl.GL30.glBindFramebuffer;
 /**
  * Some OpenGL state needs to be tracked (given the slowness and deprecation of glPush/PopAttrib. Most of glPushAttrib referred to old fixed function stuff that we don't use any more; but there are
  * still a handful of things that need tracking -- viewport, current shader etc.
+ * <p>
+ * Setting the program or the blend function to what OpenGL already has is dropped, and so is unbinding the program (nothing draws without one) until another program is bound. The number of
+ * changes that reached OpenGL, and the number that didn't need to, are counted per frame (see newFrame).
  */
 public class StateTracker {
 
@@ -39,10 +43,20 @@ public class StateTracker {
 		}
 	};
 	public final State<Integer> shader = new State<Integer>() {
+		// the program that's actually bound
+		int bound = 0;
+
+		@Override
+		protected boolean redundant(Integer was, Integer now) {
+			int n = now == null ? 0 : now;
+			return n == 0 || n == bound;
+		}
+
 		@Override
 		protected void apply(Integer value) {
 			Log.log("graphics.trace", () -> "setting program to " + value);
 			GL20.glUseProgram(value);
+			bound = value;
 		}
 	};
 	public final State<Integer> fbo = new State<Integer>() {
@@ -54,6 +68,11 @@ public class StateTracker {
 		}
 	};
 	public final State<int[]> blendState = new State<int[]>() {
+		@Override
+		protected boolean redundant(int[] was, int[] now) {
+			return Arrays.equals(was, now);
+		}
+
 		@Override
 		protected void apply(int[] value) {
 			glBlendFunc(value[0], value[1]);
@@ -62,10 +81,32 @@ public class StateTracker {
 
 	LinkedHashMap<String, State> allStates = new LinkedHashMap<>();
 
+	/**
+	 * over the last frame: the number of state changes that reached OpenGL, and the number that were dropped because they wouldn't have changed anything
+	 */
+	public int appliedLastFrame = 0;
+	public int avoidedLastFrame = 0;
+
 	protected StateTracker() {
 
 	}
 
+	/**
+	 * call at the start of every frame, rolls the counts of the frame that's just finished into appliedLastFrame and avoidedLastFrame
+	 */
+	public void newFrame() {
+		int a = 0, v = 0;
+		for (State s : new State[]{viewport, scissor, shader, fbo, blendState}) {
+			a += s.applied;
+			v += s.avoided;
+			s.applied = 0;
+			s.avoided = 0;
+		}
+		appliedLastFrame = a;
+		avoidedLastFrame = v;
+		Log.log("graphics.trace", () -> "state changes last frame: " + appliedLastFrame + " applied, " + avoidedLastFrame + " avoided");
+	}
+
 	public Util.ExceptionlessAutoCloasable save() {
 
 		try {
@@ -121,14 +162,27 @@ public class StateTracker {
 	static public abstract class State<T> {
 
 		private T value;
+		protected int applied = 0;
+		protected int avoided = 0;
 
 		public T set(T m) {
 			T was = value;
 			value = m;
-			apply(value);
+			if (redundant(was, m)) avoided++;
+			else {
+				applied++;
+				apply(value);
+			}
 			return was;
 		}
 
+		/**
+		 * true if going from 'was' to 'now' needn't reach OpenGL, in which case apply isn't called. By default it always does
+		 */
+		protected boolean redundant(T was, T now) {
+			return false;
+		}
+
 		/**
 		 * returns a Runnable that can be used to restore this value to this point. Note that this is only valid for the current draw method
 		 */
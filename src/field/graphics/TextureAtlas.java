@@ -0,0 +1,274 @@
+package field.graphics;
+
+import field.utility.Log;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs many small images into a few large textures ('pages'), so that everything on a page can be drawn with one texture bind and, if it shares a mesh, one draw call.
+ * <p>
+ * Pages are divided into horizontal shelves, each as tall as the first thing put on it. allocate(...) puts a region on the shortest shelf that has room for it and isn't too much taller than it,
+ * otherwise opens a new shelf on the first page with room for one, otherwise opens a new page. Space that's freed is only reused once everything on its shelf has been freed, and then the whole shelf
+ * is. Every region has a border of 'padding' pixels, filled with copies of its edge pixels, so that filtering and mipmapping don't pull in its neighbours.
+ * <p>
+ * write(...) copies pixels into the storage of a page; flush(), on the thread with the OpenGL context and once a frame before drawing, uploads the rows that have changed, once per page.
+ */
+public class TextureAtlas {
+
+	public final int unit;
+	public final int pageSize;
+	public final int elementSize;
+
+	/**
+	 * the border around every region, in pixels (set this before the first allocate)
+	 */
+	public int padding = 2;
+
+	/**
+	 * a region can go on a shelf that's up to this fraction taller than it is
+	 */
+	public float shelfSlack = 0.5f;
+
+	protected final List<Page> pages = new ArrayList<>();
+
+	public class Page {
+		public final int index;
+		public final Texture texture;
+		protected final ByteBuffer pixels;
+		protected final List<Shelf> shelves = new ArrayList<>();
+		protected int top = 0;
+		protected int dirty0 = Integer.MAX_VALUE;
+		protected int dirty1 = -1;
+		protected long area = 0;
+		protected int regions = 0;
+
+		protected Page(int index) {
+			this.index = index;
+			pixels = ByteBuffer.allocateDirect(pageSize * pageSize * elementSize);
+			Texture.TextureSpecification s;
+			switch (elementSize) {
+				case 1:
+					s = Texture.TextureSpecification.byte1(unit, pageSize, pageSize, pixels, true);
+					break;
+				case 3:
+					s = Texture.TextureSpecification.byte3(unit, pageSize, pageSize, pixels, true);
+					break;
+				default:
+					s = Texture.TextureSpecification.byte4(unit, pageSize, pageSize, pixels, true);
+			}
+			texture = new Texture(s);
+			texture.setIsDoubleBuffered(false);
+		}
+
+		protected Shelf shelf(int height) {
+			Shelf s = new Shelf();
+			s.y = top;
+			s.height = height;
+			top += height;
+			shelves.add(s);
+			return s;
+		}
+	}
+
+	protected class Shelf {
+		int y;
+		int height;
+		int x = 0;
+		int live = 0;
+	}
+
+	/**
+	 * a rectangle of a page. x, y, width and height are in pixels and don't include the padding
+	 */
+	public class Region {
+		public final Page page;
+		public final int x;
+		public final int y;
+		public final int width;
+		public final int height;
+		protected final Shelf shelf;
+		protected boolean freed = false;
+
+		protected Region(Page page, Shelf shelf, int x, int y, int width, int height) {
+			this.page = page;
+			this.shelf = shelf;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		@Override
+		public String toString() {
+			return "Region{page " + page.index + " at " + x + "," + y + " " + width + "x" + height + (freed ? " freed" : "") + "}";
+		}
+	}
+
+	/**
+	 * 'elementSize' is the number of bytes per pixel: 1, 3 or 4
+	 */
+	public TextureAtlas(int unit, int pageSize, int elementSize) {
+		if (elementSize != 1 && elementSize != 3 && elementSize != 4) throw new IllegalArgumentException(" can't make an atlas of " + elementSize + " bytes per pixel, only 1, 3 or 4");
+		this.unit = unit;
+		this.pageSize = pageSize;
+		this.elementSize = elementSize;
+	}
+
+	/**
+	 * finds room for a 'width' x 'height' image, or returns null if it's too big to ever fit on a page
+	 */
+	public Region allocate(int width, int height) {
+		int pw = width + 2 * padding;
+		int ph = height + 2 * padding;
+		if (pw > pageSize || ph > pageSize) return null;
+
+		Page page = null;
+		Shelf shelf = null;
+		for (Page p : pages)
+			for (Shelf s : p.shelves)
+				if (s.height >= ph && s.height <= ph * (1 + shelfSlack) && s.x + pw <= pageSize && (shelf == null || s.height < shelf.height)) {
+					page = p;
+					shelf = s;
+				}
+
+		if (shelf == null) for (Page p : pages)
+			if (p.top + ph <= pageSize) {
+				page = p;
+				shelf = p.shelf(ph);
+				break;
+			}
+
+		if (shelf == null) {
+			page = new Page(pages.size());
+			pages.add(page);
+			shelf = page.shelf(ph);
+			Log.log("graphics.trace", () -> " new atlas page, " + this);
+		}
+
+		Region r = new Region(page, shelf, shelf.x + padding, shelf.y + padding, width, height);
+		shelf.x += pw;
+		shelf.live++;
+		page.area += (long) width * height;
+		page.regions++;
+		return r;
+	}
+
+	/**
+	 * gives 'r' back. Its space is reused once everything else on its shelf has been given back too
+	 */
+	public void free(Region r) {
+		if (r.freed) return;
+		r.freed = true;
+
+		Page p = r.page;
+		p.area -= (long) r.width * r.height;
+		p.regions--;
+
+		Shelf s = r.shelf;
+		if (--s.live > 0) return;
+		s.x = 0;
+
+		// empty shelves at the bottom of a page go back to the page, so that they can be reopened at any height
+		while (p.shelves.size() > 0) {
+			Shelf last = p.shelves.get(p.shelves.size() - 1);
+			if (last.live > 0) break;
+			p.shelves.remove(p.shelves.size() - 1);
+			p.top = last.y;
+		}
+	}
+
+	/**
+	 * copies 'from' (width * height pixels of elementSize bytes, row after row) into 'r', and its edges into the padding around it. It's uploaded on the next flush()
+	 */
+	public void write(Region r, ByteBuffer from) {
+		if (r.freed) throw new IllegalArgumentException(" can't write to a region that has been freed " + r);
+
+		int row = r.width * elementSize;
+		if (from.capacity() < row * r.height) throw new IllegalArgumentException(" not enough pixels for " + r + ", got " + from.capacity() + " bytes");
+
+		int stride = pageSize * elementSize;
+		ByteBuffer src = from.duplicate();
+		ByteBuffer dst = r.page.pixels.duplicate();
+
+		for (int y = -padding; y < r.height + padding; y++) {
+			int sy = Math.max(0, Math.min(r.height - 1, y));
+			int at = (r.y + y) * stride + r.x * elementSize;
+
+			src.clear();
+			src.position(sy * row);
+			src.limit(sy * row + row);
+			dst.clear();
+			dst.position(at);
+			dst.put(src);
+
+			for (int e = 0; e < elementSize; e++) {
+				byte first = from.get(sy * row + e);
+				byte last = from.get(sy * row + row - elementSize + e);
+				for (int x = 1; x <= padding; x++) {
+					dst.put(at - x * elementSize + e, first);
+					dst.put(at + row + (x - 1) * elementSize + e, last);
+				}
+			}
+		}
+
+		r.page.dirty0 = Math.min(r.page.dirty0, r.y - padding);
+		r.page.dirty1 = Math.max(r.page.dirty1, r.y + r.height + padding);
+	}
+
+	/**
+	 * uploads the rows of every page that have been written to since the last flush. Texture only keeps track of one changed range at a time, so the changes to a page are merged and uploaded
+	 * together
+	 */
+	public void flush() {
+		for (Page p : pages) {
+			if (p.dirty1 < 0) continue;
+			p.texture.upload(p.pixels, false, 0, p.dirty0, pageSize, Math.min(pageSize, p.dirty1 + 1));
+			p.dirty0 = Integer.MAX_VALUE;
+			p.dirty1 = -1;
+		}
+	}
+
+	public List<Page> getPages() {
+		return pages;
+	}
+
+	public int regions() {
+		int n = 0;
+		for (Page p : pages)
+			n += p.regions;
+		return n;
+	}
+
+	/**
+	 * the fraction of the area of every page that's covered by images (not counting their padding)
+	 */
+	public double occupancy() {
+		if (pages.size() == 0) return 0;
+		long a = 0;
+		for (Page p : pages)
+			a += p.area;
+		return a / ((double) pageSize * pageSize * pages.size());
+	}
+
+	/**
+	 * the fraction of the area taken up by shelves that isn't covered by images: space lost to padding, to images that are shorter than their shelf, and to images that have been freed from shelves
+	 * that are still in use
+	 */
+	public double fragmentation() {
+		long used = 0;
+		long claimed = 0;
+		for (Page p : pages) {
+			used += p.area;
+			for (Shelf s : p.shelves)
+				claimed += (long) s.height * s.x;
+		}
+		return claimed == 0 ? 0 : 1 - used / (double) claimed;
+	}
+
+	@Override
+	public String toString() {
+		return "TextureAtlas{" + pages.size() + " page(s) of " + pageSize + "x" + pageSize + ", " + regions() + " region(s), occupancy " + String.format("%.2f", occupancy()) + ", fragmentation " + String.format("%.2f", fragmentation()) + "}";
+	}
+}
@@ -22,6 +22,7 @@ import static org.lwjgl.opengl.GL20.*;
 public class Uniform<T> extends Scene implements Scene.Perform {
 
 	private final String name;
+	private final int slot;
 	FloatBuffer matrix3 = ByteBuffer.allocateDirect(4 * 3 * 3)
 		.order(ByteOrder.nativeOrder())
 		.asFloatBuffer();
@@ -37,6 +38,7 @@ public class Uniform<T> extends Scene implements Scene.Perform {
 
 	public Uniform(String name, Supplier<T> value) {
 		this.name = name;
+		this.slot = UniformCache.slot(name);
 		this.value = value;
 		if (value instanceof Errors.ErrorConsumer)
 			this.ec = ((Errors.ErrorConsumer) value);
@@ -46,6 +48,7 @@ public class Uniform<T> extends Scene implements Scene.Perform {
 
 	public Uniform(String name, T value) {
 		this.name = name;
+		this.slot = UniformCache.slot(name);
 		this.value = () -> value;
 		if (value instanceof Errors.ErrorConsumer)
 			this.ec = ((Errors.ErrorConsumer) value);
@@ -158,7 +161,7 @@ public class Uniform<T> extends Scene implements Scene.Perform {
 			update(-1, this::setUniformNow);
 		} else if (pass == 1) {
 			if (pushed) {
-				Runnable r = GraphicsContext.getContext().uniformCache.pop(this.name);
+				Runnable r = GraphicsContext.getContext().uniformCache.pop(slot);
 				pushed = false;
 				if (r != null) {
 					r.run();
@@ -184,7 +187,7 @@ public class Uniform<T> extends Scene implements Scene.Perform {
 		if (push) {
 			GraphicsContext was = GraphicsContext.getContext();
 			Thread wasThread = Thread.currentThread();
-			boolean changed = GraphicsContext.getContext().uniformCache.push(this.name, t, () -> {
+			boolean changed = GraphicsContext.getContext().uniformCache.push(slot, t, () -> {
 				GraphicsContext cc = GraphicsContext.getContext();
 
 				if (cc != was) {
@@ -320,7 +323,7 @@ public class Uniform<T> extends Scene implements Scene.Perform {
 		cachedName = shad;
 		cachedShader = GraphicsContext.getContext().uniformCache.getCurrentShader();
 		cachedModCount = GraphicsContext.getContext().uniformCache.getCurrentShader().getModCount();
-		return cachedLocation = glGetUniformLocation(shad, name);
+		return cachedLocation = cachedShader.uniformLocation(shad, slot, name);
 	}
 
 	@Override
@@ -3,12 +3,17 @@ package field.graphics;
 import field.utility.Util;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * GraphicsContext global cache of uniform values. The key complexity here is that OpenGL want uniforms to be set on an active shader, whereas we want uniforms to be set anywhere -- across multiple
  * shader, and before shaders become active.
+ * <p>
+ * Uniform names are resolved once (globally) to int slots, and everything per-frame goes through the slot: the Cache for a slot is found by index, and each Shader keeps the location of every slot
+ * in its current program (see Shader.uniformLocation).
  */
 public class UniformCache {
 
@@ -54,6 +59,30 @@ public class UniformCache {
 	}
 
 	public LinkedHashMap<String, Cache> cache = new LinkedHashMap<>();
+	protected List<Cache> bySlot = new ArrayList<>();
+
+	static private final Map<String, Integer> slots = new HashMap<>();
+	static private final List<String> slotNames = new ArrayList<>();
+
+	/**
+	 * statistics: uniform locations that had to be asked of OpenGL, and those that came out of a Shader's table instead
+	 */
+	static public int locationLookups = 0;
+	static public int locationHits = 0;
+
+	/**
+	 * the slot for uniforms called 'name'. The same name has the same slot everywhere, for as long as this process runs
+	 */
+	static public synchronized int slot(String name) {
+		return slots.computeIfAbsent(name, (k) -> {
+			slotNames.add(name);
+			return slotNames.size() - 1;
+		});
+	}
+
+	static public synchronized String slotName(int slot) {
+		return slotNames.get(slot);
+	}
 
 	public boolean push(String name, Object value, Runnable trampoline)
 	{
@@ -65,6 +94,27 @@ public class UniformCache {
 		return cache.computeIfAbsent(name, (k) -> new Cache(name)).pop();
 	}
 
+	public boolean push(int slot, Object value, Runnable trampoline)
+	{
+		return forSlot(slot).push(value, trampoline);
+	}
+
+	public Runnable pop(int slot)
+	{
+		return forSlot(slot).pop();
+	}
+
+	protected Cache forSlot(int slot) {
+		while (bySlot.size() <= slot)
+			bySlot.add(null);
+		Cache c = bySlot.get(slot);
+		if (c == null) {
+			String name = slotName(slot);
+			bySlot.set(slot, c = cache.computeIfAbsent(name, (k) -> new Cache(name)));
+		}
+		return c;
+	}
+
 	public void changeShader(Shader shader, int newName)
 	{
 		currentShader = shader;
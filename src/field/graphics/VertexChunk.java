@@ -0,0 +1,109 @@
+package field.graphics;
+
+import java.util.Arrays;
+
+/**
+ * A recording of the calls that flattening an FLine makes on a MeshBuilder: v(...), aux(...) and line(...), in order. Recording touches nothing but the chunk, so it can happen on another thread;
+ * replay(...) then makes exactly the same calls, in exactly the same order, on a real MeshBuilder, which leaves that MeshBuilder in exactly the state it would have been in had the FLine been
+ * drawn into it directly.
+ * <p>
+ * line(...) takes vertex numbers backwards from the current vertex, just like MeshBuilder.line(...), so a chunk can be replayed wherever it ends up in the MeshBuilder.
+ */
+public class VertexChunk implements MeshAcceptor {
+
+	static final byte V = 0;
+	static final byte AUX = 1;
+	static final byte LINE = 2;
+
+	byte[] ops = new byte[64];
+	int numOps = 0;
+
+	float[] positions = new float[3 * 64];
+	int count = 0;
+
+	// aux channels and line(...) arguments, in order
+	int[] ints = new int[16];
+	int numInts = 0;
+
+	float[][] values = new float[16][];
+	int numValues = 0;
+
+	@Override
+	public VertexChunk v(float x, float y, float z) {
+		op(V);
+		if (3 * count + 3 > positions.length) positions = Arrays.copyOf(positions, positions.length * 2);
+		positions[3 * count] = x;
+		positions[3 * count + 1] = y;
+		positions[3 * count + 2] = z;
+		count++;
+		return this;
+	}
+
+	@Override
+	public VertexChunk aux(int channel, float[] value) {
+		op(AUX);
+		integer(channel);
+		if (numValues == values.length) values = Arrays.copyOf(values, numValues * 2);
+		values[numValues++] = value;
+		return this;
+	}
+
+	/**
+	 * see MeshBuilder.line(int start)
+	 */
+	public VertexChunk line(int start) {
+		op(LINE);
+		integer(start);
+		return this;
+	}
+
+	/**
+	 * the number of vertices recorded so far
+	 */
+	public int vertices() {
+		return count;
+	}
+
+	/**
+	 * makes every recorded call on 'm', which should be open
+	 */
+	public void replay(MeshBuilder m) {
+		int p = 0, i = 0, a = 0;
+		for (int o = 0; o < numOps; o++) {
+			switch (ops[o]) {
+				case V:
+					m.v(positions[p], positions[p + 1], positions[p + 2]);
+					p += 3;
+					break;
+				case AUX:
+					m.aux(ints[i++], values[a++]);
+					break;
+				default:
+					m.line(ints[i++]);
+			}
+		}
+	}
+
+	/**
+	 * true if 'o' records exactly the same calls, with exactly the same arguments, as this
+	 */
+	public boolean sameAs(VertexChunk o) {
+		if (numOps != o.numOps || count != o.count || numInts != o.numInts || numValues != o.numValues) return false;
+		if (!Arrays.equals(Arrays.copyOf(ops, numOps), Arrays.copyOf(o.ops, numOps))) return false;
+		if (!Arrays.equals(Arrays.copyOf(positions, 3 * count), Arrays.copyOf(o.positions, 3 * count))) return false;
+		if (!Arrays.equals(Arrays.copyOf(ints, numInts), Arrays.copyOf(o.ints, numInts))) return false;
+		for (int i = 0; i < numValues; i++)
+			if (!Arrays.equals(values[i], o.values[i])) return false;
+		return true;
+	}
+
+	private void op(byte b) {
+		if (numOps == ops.length) ops = Arrays.copyOf(ops, numOps * 2);
+		ops[numOps++] = b;
+	}
+
+	private void integer(int x) {
+		if (numInts == ints.length) ints = Arrays.copyOf(ints, numInts * 2);
+		ints[numInts++] = x;
+	}
+}
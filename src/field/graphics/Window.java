@@ -508,6 +508,7 @@ public class Window implements ProvidesGraphicsContext, BoxBrowser.HasMarkdownIn
 		GraphicsContext.enterContext(graphicsContext);
 		GraphicsContext.checkError(() -> "initially");
 		try {
+			GraphicsContext.getContext().stateTracker.newFrame();
 			GraphicsContext.getContext().stateTracker.viewport.set(new int[]{0, 0, w * getRetinaScaleFactor(), h * getRetinaScaleFactor()});
 			GraphicsContext.getContext().stateTracker.scissor.set(new int[]{0, 0, w * getRetinaScaleFactor(), h * getRetinaScaleFactor()});
 			GraphicsContext.getContext().stateTracker.fbo.set(0);
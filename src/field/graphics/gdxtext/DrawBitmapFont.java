@@ -7,6 +7,7 @@ import field.linalg.Vec3;
 import field.utility.Pair;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -37,16 +38,131 @@ public class DrawBitmapFont {
 		}
 	};
 
-	Map<List, Vec2> bounds = new LinkedHashMap<List, Vec2>() {
+	Map<List, GlyphRun> runs = new LinkedHashMap<List, GlyphRun>(16, 0.75f, true) {
 		@Override
-		protected boolean removeEldestEntry(Map.Entry<List, Vec2> eldest) {
+		protected boolean removeEldestEntry(Map.Entry<List, GlyphRun> eldest) {
 			return size() > cacheSize;
 		}
 	};
 
-	public Vec2 dimensions(String text, float scale) {
+	// scratch space for translating a run to where it's being drawn
+	float[] translated = new float[3 * 64];
+
+	/**
+	 * A piece of text, laid out once at a particular scale. Positions are relative to the origin that the text is drawn at; each glyph is a quad of four vertices, each with a uv (and smoothing)
+	 * on aux channel 3, and two triangles.
+	 */
+	static public class GlyphRun {
+		public final int count;
+		public final float[] positions;
+		public final float[] uvs;
+		public final int[] quads;
+		public final Vec2 dimensions;
+
+		final Map<Integer, float[]> columns;
+
+		GlyphRun(int count, float[] positions, float[] uvs, int[] quads, Vec2 dimensions) {
+			this.count = count;
+			this.positions = positions;
+			this.uvs = uvs;
+			this.quads = quads;
+			this.dimensions = dimensions;
+			this.columns = Collections.singletonMap(3, uvs);
+		}
+	}
+
+	/**
+	 * returns the laid out glyph run for this text at this scale (from the cache, if we've seen it recently)
+	 */
+	public GlyphRun run(String text, float scale) {
 		List<Object> hash = Arrays.asList(text, scale);
-		return bounds.computeIfAbsent(hash, (k) -> _dimensions(text, scale));
+		GlyphRun r = runs.get(hash);
+		if (r == null) runs.put(hash, r = layout(text, scale));
+		return r;
+	}
+
+	public Vec2 dimensions(String text, float scale) {
+		return run(text, scale).dimensions;
+	}
+
+	private GlyphRun layout(String text, float scale) {
+		String[] pieces = text.contains("\n") ? text.split("\n") : new String[]{text};
+
+		int n = 0;
+		for (String p : pieces)
+			n += p.length();
+
+		float[] positions = new float[3 * 4 * n];
+		float[] uvs = new float[3 * 4 * n];
+		int[] quads = new int[6 * n];
+		int v = 0;
+		int q = 0;
+
+		float smoothing = Math.min(4, Math.max(0.02f, scale));
+		float mx = data.getGlyph('M').yoffset;
+		float leading = data.getGlyph('I').height * scale * 1.5f;
+
+		float y = 0;
+		for (String p : pieces) {
+			if (pieces.length > 1 && p.trim()
+						.length() == 0) {
+				y += leading;
+				continue;
+			}
+
+			float atx = 0;
+			float aty = y + mx * scale;
+			char[] ca = p.toCharArray();
+			boolean first = true;
+			for (int i = 0; i < ca.length; i++) {
+				BitmapFontData.Glyph g = data.getGlyph(ca[i]);
+				if (g == null) continue;
+
+				if (first) {
+					atx -= g.xoffset * scale;
+					first = false;
+				}
+
+				float x0 = atx + g.xoffset * scale;
+				float x1 = atx + g.width * scale + g.xoffset * scale;
+				float y0 = aty - g.yoffset * scale;
+				float y1 = aty - g.height * scale - g.yoffset * scale;
+
+				v = corner(positions, uvs, v, x0, y0, g.srcX, g.srcY + g.height, smoothing);
+				v = corner(positions, uvs, v, x1, y0, g.srcX + g.width, g.srcY + g.height, smoothing);
+				v = corner(positions, uvs, v, x1, y1, g.srcX + g.width, g.srcY, smoothing);
+				v = corner(positions, uvs, v, x0, y1, g.srcX, g.srcY, smoothing);
+
+				// the same two triangles as e_quad(0, 1, 2, 3)
+				quads[q++] = v - 1;
+				quads[q++] = v - 2;
+				quads[q++] = v - 3;
+				quads[q++] = v - 1;
+				quads[q++] = v - 3;
+				quads[q++] = v - 4;
+
+				if (i < ca.length - 1) {
+					atx += (g.xadvance - 32 + g.getKerning(ca[i + 1])) * scale;
+				}
+			}
+			y += leading;
+		}
+
+		// blank lines and characters without glyphs write nothing, so there may be fewer vertices than characters
+		if (3 * v < positions.length) {
+			positions = Arrays.copyOf(positions, 3 * v);
+			uvs = Arrays.copyOf(uvs, 3 * v);
+		}
+		return new GlyphRun(v, positions, uvs, q == quads.length ? quads : Arrays.copyOf(quads, q), _dimensions(text, scale));
+	}
+
+	static private int corner(float[] positions, float[] uvs, int v, float x, float y, float u, float w, float smoothing) {
+		positions[3 * v] = x;
+		positions[3 * v + 1] = y;
+		uvs[3 * v] = u;
+		uvs[3 * v + 1] = w;
+		uvs[3 * v + 2] = smoothing;
+		return v + 1;
 	}
 
 	private Vec2 _dimensions(String text, float scale) {
@@ -94,57 +210,34 @@ public class DrawBitmapFont {
 	}
 
 	public void draw(String text, Vec3 origin, float scale, Object h) {
+		draw(text, origin.x, origin.y, origin.z, scale, h);
+	}
 
-		if (text.contains("\n"))
-		{
-			String[] pieces = text.split("\n");
-			Vec3 o = new Vec3(origin);
-			for(String p : pieces)
-			{
-				if (p.trim().length()>0)
-					draw(p, o, scale, h);
-				o.y += data.getGlyph('I').height*scale*1.5f;
-			}
-			return ;
-		}
+	/**
+	 * draws some text. The text is laid out once (and cached as a GlyphRun) and then copied, translated, into the target MeshBuilder in a single bulk operation. If none of text, position, scale
+	 * or 'h' have changed since the last time this was drawn, the MeshBuilder can skip it altogether
+	 */
+	public void draw(String text, double x, double y, double z, float scale, Object h) {
 
-		List<Object> hash = Arrays.asList(text, new Vec2(origin.toVec2()), scale, h);
+		List<Object> hash = Arrays.asList(text, new Vec2(x, y), scale, h);
 		Pair<MeshBuilder.Bookmark, MeshBuilder.Bookmark> m = cache.computeIfAbsent(hash, (k) -> new Pair<>(target.bookmark().invalidate(), target.bookmark()));
 
-		float smoothing = Math.min(4, Math.max(0.02f, scale));
-
-		float Z = (float) origin.z;
-
 		target.skipTo(m.first, m.second, hash, () -> {
-
-			Vec2 at = new Vec2(origin.toVec2());
-			char[] ca = text.toCharArray();
-
-			float mx = data.getGlyph('M').yoffset;
-
-
-			at.y += mx * scale;
-			for (int i = 0; i < ca.length; i++) {
-				BitmapFontData.Glyph g = data.getGlyph(ca[i]);
-
-				if (i == 0) {
-					at.x -= g.xoffset * scale;
-				}
-
-				target.aux(3, g.srcX, g.srcY + g.height, smoothing);
-				target.v(at.x + g.xoffset * scale, at.y - g.yoffset * scale, Z);
-				target.aux(3, g.srcX + g.width, g.srcY + g.height, smoothing);
-				target.v(at.x + g.width * scale + g.xoffset * scale, at.y - g.yoffset * scale, Z);
-				target.aux(3, g.srcX + g.width, g.srcY, smoothing);
-				target.v(at.x + g.width * scale + g.xoffset * scale, at.y - g.height * scale - g.yoffset * scale, Z);
-				target.aux(3, g.srcX, g.srcY, smoothing);
-				target.v(at.x + g.xoffset * scale, at.y - g.height * scale - g.yoffset * scale, Z);
-				target.e_quad(0, 1, 2, 3);
-
-				if (i < ca.length - 1) {
-					at.x += (g.xadvance - 32 + g.getKerning(ca[i + 1])) * scale;
-				}
+			GlyphRun r = run(text, scale);
+			if (r.count == 0) return;
+
+			if (translated.length < r.positions.length) translated = new float[r.positions.length];
+
+			float X = (float) x;
+			float Y = (float) y;
+			float Z = (float) z;
+			for (int i = 0; i < r.count; i++) {
+				translated[3 * i] = r.positions[3 * i] + X;
+				translated[3 * i + 1] = r.positions[3 * i + 1] + Y;
+				translated[3 * i + 2] = Z;
 			}
+
+			target.bulk(translated, r.count, r.columns, r.quads);
 		});
 	}
 
@@ -0,0 +1,305 @@
+package field.graphics.util;
+
+import field.graphics.FastJPEG;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Something that Saver can hand captured frames to.
+ * <p>
+ * Frames arrive as width*height tightly packed rgb triples, bottom row first (which is how OpenGL reads them back). Unless an encoder isSequential, encode is called from several threads at once, one
+ * frame each; sequential encoders get every frame, in order, on one thread, which is what encoders that stream everything into one file need.
+ */
+public interface FrameEncoder {
+
+	/**
+	 * encodes one frame. 'filename' is where Saver would like it to go (encoders that write a single file ignore it). 'rgb' only belongs to the encoder for the duration of this call
+	 */
+	void encode(ByteBuffer rgb, int width, int height, int frame, String filename) throws IOException;
+
+	/**
+	 * the suffix for the files this writes, including the '.'
+	 */
+	String suffix();
+
+	default boolean isSequential() {
+		return false;
+	}
+
+	/**
+	 * called once, after the last frame
+	 */
+	default void close() throws IOException {
+	}
+
+	/**
+	 * jpegs, with the native encoder. This is what Saver has always done
+	 */
+	class Jpeg implements FrameEncoder {
+		protected final FastJPEG j = new FastJPEG();
+
+		@Override
+		public void encode(ByteBuffer rgb, int width, int height, int frame, String filename) {
+			j.compress(filename, rgb, width, height);
+		}
+
+		@Override
+		public String suffix() {
+			return ".jpg";
+		}
+	}
+
+	/**
+	 * pngs, in pure Java. 'level' is the java.util.zip.Deflater level, the default (1) favors speed over size
+	 */
+	class Png implements FrameEncoder {
+		public int level = 1;
+
+		@Override
+		public void encode(ByteBuffer rgb, int width, int height, int frame, String filename) throws IOException {
+			try (OutputStream o = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16)) {
+				o.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+
+				ByteArrayOutputStream header = new ByteArrayOutputStream();
+				DataOutputStream h = new DataOutputStream(header);
+				h.writeInt(width);
+				h.writeInt(height);
+				h.write(new byte[]{8, 2, 0, 0, 0});
+				chunk(o, "IHDR", header.toByteArray(), header.size());
+
+				ByteArrayOutputStream data = new ByteArrayOutputStream(width * height);
+				Deflater deflater = new Deflater(level);
+				try (DeflaterOutputStream d = new DeflaterOutputStream(data, deflater, 1 << 16)) {
+					// every row with the 'sub' filter, top row first
+					byte[] row = new byte[1 + 3 * width];
+					row[0] = 1;
+					for (int y = height - 1; y >= 0; y--) {
+						int at = 3 * width * y;
+						for (int x = 0; x < 3 * width; x++)
+							row[1 + x] = (byte) (rgb.get(at + x) - (x < 3 ? 0 : rgb.get(at + x - 3)));
+						d.write(row);
+					}
+				} finally {
+					deflater.end();
+				}
+				chunk(o, "IDAT", data.toByteArray(), data.size());
+				chunk(o, "IEND", new byte[0], 0);
+			}
+		}
+
+		static protected void chunk(OutputStream o, String type, byte[] b, int length) throws IOException {
+			DataOutputStream d = new DataOutputStream(o);
+			byte[] t = type.getBytes(StandardCharsets.US_ASCII);
+			d.writeInt(length);
+			d.write(t);
+			d.write(b, 0, length);
+			CRC32 crc = new CRC32();
+			crc.update(t);
+			crc.update(b, 0, length);
+			d.writeInt((int) crc.getValue());
+		}
+
+		@Override
+		public String suffix() {
+			return ".png";
+		}
+	}
+
+	/**
+	 * "Quite OK Image" files (see qoiformat.org), lossless and much faster to write than png
+	 */
+	class Qoi implements FrameEncoder {
+
+		@Override
+		public void encode(ByteBuffer rgb, int width, int height, int frame, String filename) throws IOException {
+			try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+				o.write(new byte[]{'q', 'o', 'i', 'f'});
+				o.writeInt(width);
+				o.writeInt(height);
+				o.write(3);
+				o.write(0);
+
+				int[] seen = new int[64];
+				int pr = 0, pg = 0, pb = 0;
+				int run = 0;
+
+				for (int y = height - 1; y >= 0; y--) {
+					int at = 3 * width * y;
+					for (int x = 0; x < width; x++) {
+						int r = rgb.get(at + 3 * x) & 0xff;
+						int g = rgb.get(at + 3 * x + 1) & 0xff;
+						int b = rgb.get(at + 3 * x + 2) & 0xff;
+
+						if (r == pr && g == pg && b == pb) {
+							run++;
+							if (run == 62) {
+								o.write(0xc0 | (run - 1));
+								run = 0;
+							}
+							continue;
+						}
+						if (run > 0) {
+							o.write(0xc0 | (run - 1));
+							run = 0;
+						}
+
+						int hash = (r * 3 + g * 5 + b * 7 + 255 * 11) % 64;
+						int packed = (r << 16) | (g << 8) | b | 0xff000000;
+						if (seen[hash] == packed) {
+							o.write(hash);
+						} else {
+							seen[hash] = packed;
+							int dr = (byte) (r - pr), dg = (byte) (g - pg), db = (byte) (b - pb);
+							int drg = dr - dg, dbg = db - dg;
+							if (dr >= -2 && dr <= 1 && dg >= -2 && dg <= 1 && db >= -2 && db <= 1) {
+								o.write(0x40 | ((dr + 2) << 4) | ((dg + 2) << 2) | (db + 2));
+							} else if (dg >= -32 && dg <= 31 && drg >= -8 && drg <= 7 && dbg >= -8 && dbg <= 7) {
+								o.write(0x80 | (dg + 32));
+								o.write(((drg + 8) << 4) | (dbg + 8));
+							} else {
+								o.write(0xfe);
+								o.write(r);
+								o.write(g);
+								o.write(b);
+							}
+						}
+						pr = r;
+						pg = g;
+						pb = b;
+					}
+				}
+				if (run > 0) o.write(0xc0 | (run - 1));
+				o.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 1});
+			}
+		}
+
+		@Override
+		public String suffix() {
+			return ".qoi";
+		}
+	}
+
+	/**
+	 * every frame, uncompressed and top row first, appended to one file. Subclasses can override header(...), which is called once with the size of the first frame, and frame(...)
+	 */
+	class Raw implements FrameEncoder {
+		protected final String filename;
+		protected OutputStream out;
+		protected byte[] row;
+
+		public Raw(String filename) {
+			this.filename = filename;
+		}
+
+		protected void header(OutputStream o, int width, int height) throws IOException {
+		}
+
+		protected void frame(OutputStream o, ByteBuffer rgb, int width, int height) throws IOException {
+			if (row == null || row.length != 3 * width) row = new byte[3 * width];
+			for (int y = height - 1; y >= 0; y--) {
+				ByteBuffer r = rgb.duplicate();
+				r.position(3 * width * y);
+				r.get(row);
+				o.write(row);
+			}
+		}
+
+		@Override
+		public void encode(ByteBuffer rgb, int width, int height, int frame, String ignored) throws IOException {
+			if (out == null) {
+				out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 20);
+				header(out, width, height);
+			}
+			frame(out, rgb, width, height);
+		}
+
+		@Override
+		public String suffix() {
+			return ".rgb";
+		}
+
+		@Override
+		public boolean isSequential() {
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (out != null) out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * a YUV4MPEG2 stream (4:2:0, full range), which ffmpeg and most other video tools will read directly
+	 */
+	class Y4m extends Raw {
+		public final int fps;
+		protected byte[] y, u, v;
+
+		public Y4m(String filename, int fps) {
+			super(filename);
+			this.fps = fps;
+		}
+
+		@Override
+		protected void header(OutputStream o, int width, int height) throws IOException {
+			o.write(("YUV4MPEG2 W" + width + " H" + height + " F" + fps + ":1 Ip A1:1 C420jpeg XCOLORRANGE=FULL\n").getBytes(StandardCharsets.US_ASCII));
+		}
+
+		@Override
+		protected void frame(OutputStream o, ByteBuffer rgb, int width, int height) throws IOException {
+			int cw = (width + 1) / 2;
+			int ch = (height + 1) / 2;
+			if (y == null || y.length != width * height) {
+				y = new byte[width * height];
+				u = new byte[cw * ch];
+				v = new byte[cw * ch];
+			}
+
+			// BT.601 full range; chroma is the average of each 2x2 block
+			for (int row = 0; row < height; row++) {
+				int at = 3 * width * (height - 1 - row);
+				for (int x = 0; x < width; x++) {
+					int r = rgb.get(at + 3 * x) & 0xff;
+					int g = rgb.get(at + 3 * x + 1) & 0xff;
+					int b = rgb.get(at + 3 * x + 2) & 0xff;
+					y[row * width + x] = (byte) clamp((77 * r + 150 * g + 29 * b + 128) >> 8);
+				}
+			}
+			for (int cy = 0; cy < ch; cy++) {
+				int r0 = height - 1 - 2 * cy;
+				int r1 = Math.max(r0 - 1, 0);
+				for (int cx = 0; cx < cw; cx++) {
+					int x0 = 2 * cx;
+					int x1 = Math.min(x0 + 1, width - 1);
+					int a = 3 * (width * r0 + x0), c = 3 * (width * r0 + x1), d = 3 * (width * r1 + x0), e = 3 * (width * r1 + x1);
+					int r = (rgb.get(a) & 0xff) + (rgb.get(c) & 0xff) + (rgb.get(d) & 0xff) + (rgb.get(e) & 0xff);
+					int g = (rgb.get(a + 1) & 0xff) + (rgb.get(c + 1) & 0xff) + (rgb.get(d + 1) & 0xff) + (rgb.get(e + 1) & 0xff);
+					int b = (rgb.get(a + 2) & 0xff) + (rgb.get(c + 2) & 0xff) + (rgb.get(d + 2) & 0xff) + (rgb.get(e + 2) & 0xff);
+					u[cy * cw + cx] = (byte) clamp(((-43 * r - 85 * g + 128 * b + 512) >> 10) + 128);
+					v[cy * cw + cx] = (byte) clamp(((128 * r - 107 * g - 21 * b + 512) >> 10) + 128);
+				}
+			}
+
+			o.write("FRAME\n".getBytes(StandardCharsets.US_ASCII));
+			o.write(y);
+			o.write(u);
+			o.write(v);
+		}
+
+		static private int clamp(int x) {
+			return x < 0 ? 0 : (x > 255 ? 255 : x);
+		}
+
+		@Override
+		public String suffix() {
+			return ".y4m";
+		}
+	}
+}
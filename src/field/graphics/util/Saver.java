@@ -1,20 +1,29 @@
 package field.graphics.util;
 
-import field.graphics.FastJPEG;
 import field.utility.IdempotencyMap;
-import org.lwjgl.opengl.GL11;
+import field.utility.Log;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_PACK_BUFFER;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL32.*;
 
 /*
-Class to save out a canvas to a directory of .jpgs
+Class to save out a canvas to a directory of .jpgs (or, with a different FrameEncoder, .png, .qoi or a single raw or .y4m stream)
+
+Frames are read back asynchronously: each update() starts a glReadPixels into the next of a ring of pixel pack buffers, and copies out whichever earlier readbacks the GPU has finished with
+(waiting only when the ring is full). Copies go into a fixed pool of 'numWorkers' direct buffers that the encoder threads hand back when they're done. If dropWhenBusy is set a frame that finds
+no free buffer is dropped (and counted) rather than waiting for one.
  */
 public class Saver {
 
@@ -24,20 +33,76 @@ public class Saver {
 
     private final int height;
 
-    private final ExecutorService pool;
-
     private final String prefix;
 
+    private FrameEncoder encoder;
+
+    private ExecutorService pool;
+
+    private final BlockingQueue<ByteBuffer> free;
+
+    /**
+     * the number of frames that can be in flight on the GPU at once (set this before the first update)
+     */
+    public int ringSize = 3;
+
+    private int[] pbos;
+    private long[] fences;
+    private String[] names;
+    private int[] frames;
+    private int head = 0;
+    private int pending = 0;
+
+    /**
+     * if true, frames that arrive when every buffer is still being encoded are dropped instead of waited for
+     */
+    public boolean dropWhenBusy = false;
+
+    /**
+     * statistics: frames read back, encoded and dropped, and the time spent in the encoder (total and for the slowest frame)
+     */
+    public final AtomicInteger framesCaptured = new AtomicInteger();
+    public final AtomicInteger framesEncoded = new AtomicInteger();
+    public final AtomicInteger framesDropped = new AtomicInteger();
+    public final AtomicLong encodeNanos = new AtomicLong();
+    public final AtomicLong maxEncodeNanos = new AtomicLong();
+
     public Saver(int width, int height, int numWorkers, String prefix) {
+        this(width, height, numWorkers, prefix, new FrameEncoder.Jpeg());
+    }
+
+    public Saver(int width, int height, int numWorkers, String prefix, FrameEncoder encoder) {
         this.width = width;
         this.height = height;
         this.numWorkers = numWorkers;
         this.prefix = prefix;
 
-        pool = Executors.newCachedThreadPool();
+        free = new ArrayBlockingQueue<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++)
+            free.add(ByteBuffer.allocateDirect(width * height * 3));
+
+        setEncoder(encoder);
     }
 
-    List<FutureTask<ByteBuffer>> workers = new ArrayList<FutureTask<ByteBuffer>>();
+    /**
+     * changes the encoder. Any frames still being encoded by the previous one are finished first, then it is closed
+     */
+    public Saver setEncoder(FrameEncoder encoder) {
+        if (pool != null) {
+            try {
+                retire();
+            } catch (IOException e) {
+                Log.log("saver", () -> " exception thrown closing the previous encoder " + e);
+            }
+        }
+        this.encoder = encoder;
+        pool = Executors.newFixedThreadPool(encoder.isSequential() ? 1 : numWorkers, r -> {
+            Thread t = new Thread(r, "Saver encoder");
+            t.setDaemon(true);
+            return t;
+        });
+        return this;
+    }
 
     int frameNumber = 0;
 
@@ -68,94 +133,196 @@ public class Saver {
 
 
     public void update() {
-        if (update(prefix, frameNumber, ".jpg")) frameNumber++;
+        if (update(prefix, frameNumber, encoder.suffix())) frameNumber++;
     }
 
+    /**
+     * call this from the thread that owns the OpenGL context, after drawing. When this is off it still finishes any readbacks that are in flight
+     */
     public boolean update(String prefix, int frameNumber, String suffix) {
-        if (!on) return false;
-
-        ByteBuffer storage = null;
-
-        if (workers.size() < numWorkers) {
-
-            storage = newStorage();
-        } else {
-            //System.out.println("state opf workers: ");
-//			for (FutureTask t : workers)
-//				System.out.println(t.isDone());
-
-            FutureTask<ByteBuffer> w = workers.remove(0);
-            try {
-                storage = w.get();
-            } catch (InterruptedException | ExecutionException e) {
-                e.printStackTrace();
-            }
+        if (!on) {
+            if (pending > 0) collect(true);
+            return false;
         }
 
-        getImage(storage);
+        if (pbos == null) allocate();
 
-        runHooks(storage);
+        // the ring is full, so the oldest readback has to finish now
+        if (pending == pbos.length) finish();
 
+        int slot = (head + pending) % pbos.length;
         lastFilename = prefix + pad(frameNumber) + suffix;
-        FutureTask<ByteBuffer> task = new FutureTask<ByteBuffer>(makeWorker(storage, lastFilename));
-        pool.execute(task);
-        workers.add(task);
+        names[slot] = lastFilename;
+        frames[slot] = frameNumber;
+        readback(slot);
+        pending++;
+        framesCaptured.incrementAndGet();
+
+        collect(false);
 
         if (drip) on = false;
 
         return true;
     }
 
-    private void runHooks(ByteBuffer storage) {
-        hooks.values().stream().forEach(x -> x.accept(storage));
+    /**
+     * finishes every readback in flight and waits for every frame to be encoded (from the thread that owns the OpenGL context)
+     */
+    public void flush() {
+        collect(true);
+        finishEncoding();
     }
 
-    private String pad(int i) {
-        String s = i + "";
-        while (s.length() < 6) s = "0" + s;
-        return s;
+    /**
+     * flushes, then closes the encoder and releases the pixel pack buffers
+     */
+    public void close() throws IOException {
+        collect(true);
+        retire();
+        if (pbos != null) {
+            glDeleteBuffers(pbos);
+            for (long f : fences)
+                if (f != 0) glDeleteSync(f);
+            pbos = null;
+        }
     }
 
-    private void getImage(ByteBuffer storage) {
+    /**
+     * mean time spent encoding a frame, in milliseconds
+     */
+    public double getMeanEncodeMillis() {
+        int n = framesEncoded.get();
+        return n == 0 ? 0 : encodeNanos.get() / 1e6 / n;
+    }
 
-        int[] a = {0};
-        assert glGetError() == 0;
+    @Override
+    public String toString() {
+        return "Saver: captured " + framesCaptured + ", encoded " + framesEncoded + ", dropped " + framesDropped + ", mean encode " + String.format("%.2f", getMeanEncodeMillis()) + "ms, max " + String.format("%.2f", maxEncodeNanos.get() / 1e6) + "ms";
+    }
 
-//		glFinish();
-        storage.rewind();
-        a[0] = glGetInteger(GL_FRAMEBUFFER_BINDING);
+    private void allocate() {
+        pbos = new int[ringSize];
+        fences = new long[ringSize];
+        names = new String[ringSize];
+        frames = new int[ringSize];
+        glGenBuffers(pbos);
+        for (int p : pbos) {
+            glBindBuffer(GL_PIXEL_PACK_BUFFER, p);
+            glBufferData(GL_PIXEL_PACK_BUFFER, (long) width * height * 3, GL_STREAM_READ);
+        }
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+    }
+
+    private void readback(int slot) {
+        int was = glGetInteger(GL_FRAMEBUFFER_BINDING);
+        int alignment = glGetInteger(GL_PACK_ALIGNMENT);
         glBindFramebuffer(GL_FRAMEBUFFER, 0);
-//		glFinish();
-//		GL11.glReadBuffer(GL11.GL_BACK);
-        glReadPixels(0, 0, width, height, GL11.GL_RGB, GL_UNSIGNED_BYTE, storage);
-//		glFinish();
-        glBindFramebuffer(GL_FRAMEBUFFER, a[0]);
-        storage.rewind();
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[slot]);
+        glPixelStorei(GL_PACK_ALIGNMENT, 1);
+        glReadPixels(0, 0, width, height, GL_RGB, GL_UNSIGNED_BYTE, 0L);
+        glPixelStorei(GL_PACK_ALIGNMENT, alignment);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
+        glBindFramebuffer(GL_FRAMEBUFFER, was);
+        fences[slot] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
 
-        assert glGetError() == 0;
+    // finishes the readbacks that are done, in order, or all of them if 'all'
+    private void collect(boolean all) {
+        while (pending > 0) {
+            if (!all) {
+                int s = glClientWaitSync(fences[head], 0, 0);
+                if (s != GL_ALREADY_SIGNALED && s != GL_CONDITION_SATISFIED) return;
+            }
+            finish();
+        }
     }
 
-    FastJPEG j2 = new FastJPEG();
+    // finishes the oldest readback, waiting for the GPU if need be, and hands it to the encoder
+    private void finish() {
+        int slot = head;
+        head = (head + 1) % pbos.length;
+        pending--;
+
+        glClientWaitSync(fences[slot], GL_SYNC_FLUSH_COMMANDS_BIT, Long.MAX_VALUE);
+        glDeleteSync(fences[slot]);
+        fences[slot] = 0;
+
+        ByteBuffer storage;
+        if (dropWhenBusy) storage = free.poll();
+        else try {
+            storage = free.take();
+        } catch (InterruptedException e) {
+            storage = null;
+        }
 
-    private Callable<ByteBuffer> makeWorker(final ByteBuffer storage, final String filename) {
-        return new Callable<ByteBuffer>() {
-            public ByteBuffer call() throws Exception {
+        if (storage == null) {
+            framesDropped.incrementAndGet();
+            Log.log("saver", () -> "dropped frame " + names[slot]);
+            return;
+        }
 
-                try {
-                    j2.compress(filename, storage, width, height);
-                } catch (Throwable t) {
-                    System.err.println(" -- exception thrown in compress for :" + filename + " " + storage + " " + width + " " + height);
-                    t.printStackTrace();
-                }
-                return storage;
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, pbos[slot]);
+        ByteBuffer mapped = glMapBufferRange(GL_PIXEL_PACK_BUFFER, 0, (long) width * height * 3, GL_MAP_READ_BIT);
+        storage.clear();
+        if (mapped != null) storage.put(mapped);
+        storage.rewind();
+        glUnmapBuffer(GL_PIXEL_PACK_BUFFER);
+        glBindBuffer(GL_PIXEL_PACK_BUFFER, 0);
 
+        runHooks(storage);
+
+        ByteBuffer finalStorage = storage;
+        String filename = names[slot];
+        int frame = frames[slot];
+        FrameEncoder encoder = this.encoder;
+        pool.execute(() -> {
+            long t0 = System.nanoTime();
+            try {
+                encoder.encode(finalStorage, width, height, frame, filename);
+            } catch (Throwable t) {
+                System.err.println(" -- exception thrown in encoder for :" + filename + " " + width + " " + height);
+                t.printStackTrace();
+            } finally {
+                long t = System.nanoTime() - t0;
+                encodeNanos.addAndGet(t);
+                maxEncodeNanos.accumulateAndGet(t, Math::max);
+                framesEncoded.incrementAndGet();
+                free.add(finalStorage);
             }
-        };
+        });
     }
 
-    private ByteBuffer newStorage() {
-        return ByteBuffer.allocateDirect(width * height * 4);
+    // waits for the encoder threads to finish everything they've been given and stop, then closes the encoder they were using
+    private void retire() throws IOException {
+        finishEncoding();
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+        }
+        encoder.close();
     }
 
+    // waits until every buffer is back in the pool
+    private void finishEncoding() {
+        List<ByteBuffer> all = new ArrayList<>(numWorkers);
+        try {
+            for (int i = 0; i < numWorkers; i++)
+                all.add(free.take());
+        } catch (InterruptedException e) {
+        } finally {
+            free.addAll(all);
+        }
+        Log.log("saver", () -> this);
+    }
+
+    private void runHooks(ByteBuffer storage) {
+        hooks.values().stream().forEach(x -> x.accept(storage));
+    }
 
+    private String pad(int i) {
+        String s = i + "";
+        while (s.length() < 6) s = "0" + s;
+        return s;
+    }
 }
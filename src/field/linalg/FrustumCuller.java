@@ -362,4 +362,47 @@ public class FrustumCuller {
 		return plane;
 	}
 
+	/**
+	 * Determine, for a whole array of axis-aligned boxes at once, which are partly or completely within the viewing frustum defined by <code>this</code> frustum culler. The boxes are given as
+	 * parallel arrays of their min and max corner coordinates; the answer for box <tt>i</tt> is written to <code>visible[i]</code>.
+	 * <p>
+	 * This gives the same answers as calling {@link #isAabInsideFrustum(double, double, double, double, double, double) isAabInsideFrustum()} on each box, but it runs plane by plane over all
+	 * of the boxes. Inside each pass the choice of corner depends only on the plane, so the loop body is straight line arithmetic over primitive arrays that the JIT can vectorize.
+	 *
+	 * @param minX    the x-coordinates of the minimum corners
+	 * @param minY    the y-coordinates of the minimum corners
+	 * @param minZ    the z-coordinates of the minimum corners
+	 * @param maxX    the x-coordinates of the maximum corners
+	 * @param maxY    the y-coordinates of the maximum corners
+	 * @param maxZ    the z-coordinates of the maximum corners
+	 * @param count   the number of boxes to test
+	 * @param visible receives <tt>true</tt> for every box that intersects the frustum and <tt>false</tt> otherwise
+	 * @return the number of boxes that intersect the frustum
+	 */
+	public int areAabsInsideFrustum(double[] minX, double[] minY, double[] minZ, double[] maxX, double[] maxY, double[] maxZ, int count, boolean[] visible) {
+		for (int i = 0; i < count; i++)
+			visible[i] = true;
+
+		plane(nxX, nxY, nxZ, nxW, minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+		plane(pxX, pxY, pxZ, pxW, minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+		plane(nyX, nyY, nyZ, nyW, minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+		plane(pyX, pyY, pyZ, pyW, minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+		plane(nzX, nzY, nzZ, nzW, minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+		plane(pzX, pzY, pzZ, pzW, minX, minY, minZ, maxX, maxY, maxZ, count, visible);
+
+		int n = 0;
+		for (int i = 0; i < count; i++)
+			if (visible[i]) n++;
+		return n;
+	}
+
+	private static void plane(double a, double b, double c, double d, double[] minX, double[] minY, double[] minZ, double[] maxX, double[] maxY, double[] maxZ, int count, boolean[] visible) {
+		// the 'n' vertex of every box, the corner furthest along the plane normal, comes from the same arrays
+		double[] x = a < 0 ? minX : maxX;
+		double[] y = b < 0 ? minY : maxY;
+		double[] z = c < 0 ? minZ : maxZ;
+		for (int i = 0; i < count; i++)
+			visible[i] &= a * x[i] + b * y[i] + c * z[i] >= -d;
+	}
+
 }
@@ -75,16 +75,33 @@ public class MappedFloatArray {
 	public Vec3 toVec3(int index) {
 		switch (preferredDimension) {
 			case 1:
-				new Vec3(get1f(index), 0, 0);
+				return new Vec3(get1f(index), 0, 0);
 			case 2:
-				get2f(index).toVec3();
+				return get2f(index * 2).toVec3();
 			case 3:
-				get3f(index);
+				return get3f(index * 3);
 			default:
 				throw new IllegalArgumentException();
 		}
 	}
 
+	/**
+	 * reads 'count' xyz triples, starting at float 'index', into 'dest' without allocating a Vec3 for each
+	 */
+	public Points3f get3f(int index, int count, Points3f dest) {
+		if (dest == null) dest = new Points3f(count);
+		FloatBuffer f = fbuffer.duplicate();
+		f.position(index);
+		return dest.load(f, count);
+	}
+
+	/**
+	 * reads every xyz triple into 'dest'
+	 */
+	public Points3f all3f(Points3f dest) {
+		return get3f(0, length3f(), dest);
+	}
+
 	public int preferredDimension() {
 		return preferredDimension;
 	}
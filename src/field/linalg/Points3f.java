@@ -0,0 +1,319 @@
+package field.linalg;
+
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * A packed, structure-of-arrays buffer of 3d points in single precision: one array each for x, y and z, and no Vec3 per point. This is the float twin of Points3d, for data that's headed
+ * to (or coming from) vertex buffers.
+ * <p>
+ * The bulk operations here (transform, project, rotate, normalize, cross, dot, lerp and bounds) are plain counted loops over primitive arrays with the matrix or quaternion hoisted into locals,
+ * which is the shape HotSpot's superword pass vectorizes. Interleaved data (mesh buffers, MappedFloatArray, direct or mapped buffers) comes in and out with load(...) and store(...).
+ * <p>
+ * Operations that produce points write into this buffer (growing it if need be), so 'this' can also be an argument.
+ */
+public class Points3f {
+
+	public float[] x;
+	public float[] y;
+	public float[] z;
+	public int size = 0;
+
+	public Points3f() {
+		this(16);
+	}
+
+	public Points3f(int capacity) {
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public Points3f clear() {
+		size = 0;
+		return this;
+	}
+
+	/**
+	 * makes sure there's room for 'n' points, keeping the first 'size' of them
+	 */
+	public Points3f ensureCapacity(int n) {
+		if (n > x.length) {
+			int c = Math.max(n, x.length * 2);
+			x = Arrays.copyOf(x, c);
+			y = Arrays.copyOf(y, c);
+			z = Arrays.copyOf(z, c);
+		}
+		return this;
+	}
+
+	/**
+	 * sets size to 'n', growing the storage if needed. New points are not cleared
+	 */
+	public Points3f resize(int n) {
+		ensureCapacity(n);
+		size = n;
+		return this;
+	}
+
+	public Points3f add(float px, float py, float pz) {
+		ensureCapacity(size + 1);
+		x[size] = px;
+		y[size] = py;
+		z[size] = pz;
+		size++;
+		return this;
+	}
+
+	public Points3f add(Vec3 v) {
+		return add((float) v.x, (float) v.y, (float) v.z);
+	}
+
+	public Points3f set(int i, Vec3 v) {
+		x[i] = (float) v.x;
+		y[i] = (float) v.y;
+		z[i] = (float) v.z;
+		return this;
+	}
+
+	public Vec3 get(int i, Vec3 dest) {
+		if (dest == null) dest = new Vec3();
+		return dest.set(x[i], y[i], z[i]);
+	}
+
+	/**
+	 * replaces the contents of this buffer with 'count' interleaved xyz triples from 'from', starting at its current position. The position of 'from' isn't changed
+	 */
+	public Points3f load(DoubleBuffer from, int count) {
+		resize(count);
+		int p = from.position();
+		for (int i = 0; i < count; i++) {
+			x[i] = (float) from.get(p + 3 * i);
+			y[i] = (float) from.get(p + 3 * i + 1);
+			z[i] = (float) from.get(p + 3 * i + 2);
+		}
+		return this;
+	}
+
+	public Points3f load(FloatBuffer from, int count) {
+		resize(count);
+		int p = from.position();
+		for (int i = 0; i < count; i++) {
+			x[i] = from.get(p + 3 * i);
+			y[i] = from.get(p + 3 * i + 1);
+			z[i] = from.get(p + 3 * i + 2);
+		}
+		return this;
+	}
+
+	public Points3f load(float[] interleaved, int offset, int count) {
+		resize(count);
+		for (int i = 0; i < count; i++) {
+			x[i] = interleaved[offset + 3 * i];
+			y[i] = interleaved[offset + 3 * i + 1];
+			z[i] = interleaved[offset + 3 * i + 2];
+		}
+		return this;
+	}
+
+	/**
+	 * writes this buffer as interleaved xyz triples to 'to', starting at its current position. The position of 'to' isn't changed
+	 */
+	public Points3f store(DoubleBuffer to) {
+		int p = to.position();
+		for (int i = 0; i < size; i++) {
+			to.put(p + 3 * i, x[i]);
+			to.put(p + 3 * i + 1, y[i]);
+			to.put(p + 3 * i + 2, z[i]);
+		}
+		return this;
+	}
+
+	public Points3f store(FloatBuffer to) {
+		int p = to.position();
+		for (int i = 0; i < size; i++) {
+			to.put(p + 3 * i, x[i]);
+			to.put(p + 3 * i + 1, y[i]);
+			to.put(p + 3 * i + 2, z[i]);
+		}
+		return this;
+	}
+
+	public Points3f store(float[] interleaved, int offset) {
+		for (int i = 0; i < size; i++) {
+			interleaved[offset + 3 * i] = x[i];
+			interleaved[offset + 3 * i + 1] = y[i];
+			interleaved[offset + 3 * i + 2] = z[i];
+		}
+		return this;
+	}
+
+	/**
+	 * transforms every point by 'm' (with w=1, no perspective division), the bulk equivalent of Vec3.mul(Mat4)
+	 */
+	public Points3f transform(Mat4 m) {
+		return transform(m, this);
+	}
+
+	/**
+	 * sets this to 'from' transformed by 'm'
+	 */
+	public Points3f transform(Mat4 m, Points3f from) {
+		resize(from.size);
+		float m00 = (float) m.m00, m10 = (float) m.m10, m20 = (float) m.m20, m30 = (float) m.m30;
+		float m01 = (float) m.m01, m11 = (float) m.m11, m21 = (float) m.m21, m31 = (float) m.m31;
+		float m02 = (float) m.m02, m12 = (float) m.m12, m22 = (float) m.m22, m32 = (float) m.m32;
+		float[] fx = from.x, fy = from.y, fz = from.z;
+		float[] tx = x, ty = y, tz = z;
+		for (int i = 0; i < from.size; i++) {
+			float a = fx[i], b = fy[i], c = fz[i];
+			tx[i] = m00 * a + m10 * b + m20 * c + m30;
+			ty[i] = m01 * a + m11 * b + m21 * c + m31;
+			tz[i] = m02 * a + m12 * b + m22 * c + m32;
+		}
+		return this;
+	}
+
+	/**
+	 * transforms every point by 'm' with perspective division, the bulk equivalent of Vec3.mulProject(Mat4)
+	 */
+	public Points3f project(Mat4 m) {
+		return project(m, this);
+	}
+
+	public Points3f project(Mat4 m, Points3f from) {
+		resize(from.size);
+		float m00 = (float) m.m00, m10 = (float) m.m10, m20 = (float) m.m20, m30 = (float) m.m30;
+		float m01 = (float) m.m01, m11 = (float) m.m11, m21 = (float) m.m21, m31 = (float) m.m31;
+		float m02 = (float) m.m02, m12 = (float) m.m12, m22 = (float) m.m22, m32 = (float) m.m32;
+		float m03 = (float) m.m03, m13 = (float) m.m13, m23 = (float) m.m23, m33 = (float) m.m33;
+		float[] fx = from.x, fy = from.y, fz = from.z;
+		float[] tx = x, ty = y, tz = z;
+		for (int i = 0; i < from.size; i++) {
+			float a = fx[i], b = fy[i], c = fz[i];
+			float w = 1 / (m03 * a + m13 * b + m23 * c + m33);
+			tx[i] = (m00 * a + m10 * b + m20 * c + m30) * w;
+			ty[i] = (m01 * a + m11 * b + m21 * c + m31) * w;
+			tz[i] = (m02 * a + m12 * b + m22 * c + m32) * w;
+		}
+		return this;
+	}
+
+	/**
+	 * rotates every point by 'q', the bulk equivalent of Quat.transform(Vec3)
+	 */
+	public Points3f rotate(Quat q) {
+		return rotate(q, this);
+	}
+
+	public Points3f rotate(Quat q, Points3f from) {
+		// the same expansion of q into a rotation matrix as Quat.transform
+		double n = q.x * 2.0, n2 = q.y * 2.0, n3 = q.z * 2.0;
+		double n4 = q.x * n, n5 = q.y * n2, n6 = q.z * n3;
+		double n7 = q.x * n2, n8 = q.x * n3, n9 = q.y * n3;
+		double n10 = q.w * n, n11 = q.w * n2, n12 = q.w * n3;
+
+		Mat4 m = new Mat4();
+		m.m00 = 1.0 - (n5 + n6);
+		m.m10 = n7 - n12;
+		m.m20 = n8 + n11;
+		m.m01 = n7 + n12;
+		m.m11 = 1.0 - (n4 + n6);
+		m.m21 = n9 - n10;
+		m.m02 = n8 - n11;
+		m.m12 = n9 + n10;
+		m.m22 = 1.0 - (n4 + n5);
+		return transform(m, from);
+	}
+
+	/**
+	 * normalizes every point (as a vector). Zero length vectors are left alone
+	 */
+	public Points3f normalize() {
+		float[] tx = x, ty = y, tz = z;
+		for (int i = 0; i < size; i++) {
+			float l = (float) Math.sqrt(tx[i] * tx[i] + ty[i] * ty[i] + tz[i] * tz[i]);
+			float s = l > 0 ? 1 / l : 1;
+			tx[i] *= s;
+			ty[i] *= s;
+			tz[i] *= s;
+		}
+		return this;
+	}
+
+	/**
+	 * sets this to the pairwise cross product of 'a' and 'b'
+	 */
+	public Points3f cross(Points3f a, Points3f b) {
+		int n = Math.min(a.size, b.size);
+		resize(n);
+		float[] ax = a.x, ay = a.y, az = a.z;
+		float[] bx = b.x, by = b.y, bz = b.z;
+		float[] tx = x, ty = y, tz = z;
+		for (int i = 0; i < n; i++) {
+			float cx = ay[i] * bz[i] - az[i] * by[i];
+			float cy = az[i] * bx[i] - ax[i] * bz[i];
+			float cz = ax[i] * by[i] - ay[i] * bx[i];
+			tx[i] = cx;
+			ty[i] = cy;
+			tz[i] = cz;
+		}
+		return this;
+	}
+
+	/**
+	 * the pairwise dot product of this and 'b', written into 'dest' (which is allocated if it's null or too small)
+	 */
+	public float[] dot(Points3f b, float[] dest) {
+		int n = Math.min(size, b.size);
+		if (dest == null || dest.length < n) dest = new float[n];
+		float[] ax = x, ay = y, az = z;
+		float[] bx = b.x, by = b.y, bz = b.z;
+		for (int i = 0; i < n; i++)
+			dest[i] = ax[i] * bx[i] + ay[i] * by[i] + az[i] * bz[i];
+		return dest;
+	}
+
+	/**
+	 * sets this to a + (b - a) * t, pairwise
+	 */
+	public Points3f lerp(Points3f a, Points3f b, float t) {
+		int n = Math.min(a.size, b.size);
+		resize(n);
+		float[] ax = a.x, ay = a.y, az = a.z;
+		float[] bx = b.x, by = b.y, bz = b.z;
+		float[] tx = x, ty = y, tz = z;
+		for (int i = 0; i < n; i++) {
+			tx[i] = ax[i] + (bx[i] - ax[i]) * t;
+			ty[i] = ay[i] + (by[i] - ay[i]) * t;
+			tz[i] = az[i] + (bz[i] - az[i]) * t;
+		}
+		return this;
+	}
+
+	/**
+	 * writes the axis aligned bounds of these points into 'min' and 'max'. Returns false (and leaves them alone) if there are no points
+	 */
+	public boolean bounds(Vec3 min, Vec3 max) {
+		if (size == 0) return false;
+		float minx = Float.POSITIVE_INFINITY, miny = Float.POSITIVE_INFINITY, minz = Float.POSITIVE_INFINITY;
+		float maxx = Float.NEGATIVE_INFINITY, maxy = Float.NEGATIVE_INFINITY, maxz = Float.NEGATIVE_INFINITY;
+		float[] tx = x, ty = y, tz = z;
+		for (int i = 0; i < size; i++) {
+			minx = Math.min(minx, tx[i]);
+			maxx = Math.max(maxx, tx[i]);
+			miny = Math.min(miny, ty[i]);
+			maxy = Math.max(maxy, ty[i]);
+			minz = Math.min(minz, tz[i]);
+			maxz = Math.max(maxz, tz[i]);
+		}
+		min.set(minx, miny, minz);
+		max.set(maxx, maxy, maxz);
+		return true;
+	}
+}
@@ -1,35 +1,70 @@
 package field.message;
 
+import field.utility.Log;
 import field.utility.Pair;
 
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+/**
+ * A message bus. Messages are accepted onto a queue and dispatched by a service thread to every handler whose address matches.
+ * <p>
+ * Handlers registered for an exact address (registerExact) are found with a hash lookup; only handlers registered with a Predicate are tested against every address. Dispatch doesn't wait for
+ * handlers: each handler has its own bounded mailbox that is drained, in order, by at most one task at a time on the handler executor. A handler whose mailbox is full loses its oldest message.
+ */
 public class MessageQueue<t_message, t_address> {
 
-	ExecutorService handlerDispatch;
+	static public final int defaultMailboxCapacity = 1024;
+
+	Executor handlerDispatch;
 	protected BlockingQueue<Pair<t_address, t_message>> queue;
 	Consumer<Boolean> queueService;
 
+	public int mailboxCapacity = defaultMailboxCapacity;
+
+	// metrics
+	public final LongAdder dispatched = new LongAdder();
+	public final LongAdder delivered = new LongAdder();
+	public final LongAdder dropped = new LongAdder();
+	// the bits of a double, so that it can be updated with compareAndSet
+	final AtomicLong meanLatency = new AtomicLong(Double.doubleToLongBits(0));
+	final AtomicLong maxLatency = new AtomicLong();
+
 	public class Handler {
 		final Consumer<t_message> handledBy;
 		final Predicate<t_address> matchedBy;
+		final t_address exactly;
 		final Object tag;
 
+		final ArrayDeque<Pair<t_message, Long>> mailbox = new ArrayDeque<>();
+		final AtomicBoolean scheduled = new AtomicBoolean(false);
+
 		protected Handler(Predicate<t_address> address, Consumer<t_message> destination, Object tag) {
 			this.matchedBy = address;
 			this.handledBy = destination;
+			this.exactly = null;
 			this.tag = tag;
 		}
 
 		protected Handler(Predicate<t_address> address, Consumer<t_message> destination) {
-			this.matchedBy = address;
+			this(address, destination, null);
+		}
+
+		protected Handler(t_address exactly, Consumer<t_message> destination, Object tag) {
+			this.matchedBy = x -> exactly.equals(x);
 			this.handledBy = destination;
-			this.tag = null;
+			this.exactly = exactly;
+			this.tag = tag;
 		}
 
 		public Callable<Void> call(t_message arguments) {
@@ -38,42 +73,103 @@ public class MessageQueue<t_message, t_address> {
 				return null;
 			};
 		}
+
+		protected void post(t_message m) {
+			synchronized (mailbox) {
+				if (mailbox.size() >= mailboxCapacity) {
+					mailbox.poll();
+					dropped.increment();
+					Log.log("messages.warning", () -> " mailbox full for handler " + handledBy + ", dropping oldest message");
+				}
+				mailbox.add(new Pair<>(m, System.nanoTime()));
+			}
+			if (scheduled.compareAndSet(false, true)) handlerDispatch.execute(this::drain);
+		}
+
+		protected void drain() {
+			while (true) {
+				Pair<t_message, Long> m;
+				synchronized (mailbox) {
+					m = mailbox.poll();
+					// 'scheduled' is cleared under the same lock that post() adds under, so nothing can be left behind
+					if (m == null) {
+						scheduled.set(false);
+						break;
+					}
+				}
+				latency(System.nanoTime() - m.second);
+				try {
+					handledBy.accept(m.first);
+				} catch (Throwable t) {
+					Log.log("messages.error", () -> " exception thrown in message handler " + handledBy + " :" + t);
+					t.printStackTrace();
+				}
+				delivered.increment();
+			}
+		}
+
+		protected int depth() {
+			synchronized (mailbox) {
+				return mailbox.size();
+			}
+		}
 	}
 
 	CopyOnWriteArrayList<Handler> handlers = new CopyOnWriteArrayList<>();
 
+	// handlers registered with registerExact, indexed by address. Everything in here is also in 'handlers'
+	Map<t_address, CopyOnWriteArrayList<Handler>> exactHandlers = new ConcurrentHashMap<>();
+	CopyOnWriteArrayList<Handler> predicateHandlers = new CopyOnWriteArrayList<>();
+
 	public MessageQueue() {
 		this(() -> Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() + 2), LinkedBlockingQueue::new);
 	}
 
 	public MessageQueue(Supplier<? extends ExecutorService> handlerDispatch, Supplier<? extends BlockingQueue<Pair<t_address, t_message>>> queue) {
-		this.handlerDispatch = handlerDispatch.get();
+		this(handlerDispatch.get(), queue);
+	}
+
+	/**
+	 * 'handlerDispatch' runs handlers. Pass Runnable::run to have handlers called directly by whatever services the queue
+	 */
+	public MessageQueue(Executor handlerDispatch, Supplier<? extends BlockingQueue<Pair<t_address, t_message>>> queue) {
+		this.handlerDispatch = handlerDispatch;
 		this.queue = queue.get();
 		this.queueService = makeQueueServiceThread(this::dispatch);
 	}
 
 
-
 	protected Consumer<Boolean> makeQueueServiceThread(BiConsumer<t_address, t_message> to) {
 		CompletableFuture<Boolean> stop = new CompletableFuture<Boolean>();
-		new Thread(() -> {
+		Thread t = new Thread(() -> {
 			while (!stop.isDone()) {
 				try {
-					Pair<t_address, t_message> m = queue.poll(1, TimeUnit.SECONDS);
-					if (m != null && !stop.isDone()) to.accept(m.first, m.second);
+					Pair<t_address, t_message> m = queue.take();
+					if (!stop.isDone()) to.accept(m.first, m.second);
 				} catch (InterruptedException e) {
-					e.printStackTrace();
+					// stop() interrupts us
 				}
 			}
-		}).start();
-		return x -> stop.complete(x);
+		});
+		t.setName("MessageQueue service");
+		t.start();
+		return x -> {
+			stop.complete(x);
+			t.interrupt();
+		};
 	}
 
 	protected void dispatch(t_address a, t_message m) {
-		try {
-			handlerDispatch.invokeAll(handlers.stream().filter(x -> x.matchedBy.test(a)).map(x -> x.call(m)).collect(Collectors.toList()));
-		} catch (InterruptedException e) {
+		dispatched.increment();
+
+		if (a != null) {
+			List<Handler> exact = exactHandlers.get(a);
+			if (exact != null) for (Handler h : exact)
+				h.post(m);
 		}
+
+		for (Handler h : predicateHandlers)
+			if (h.matchedBy.test(a)) h.post(m);
 	}
 
 	public void accept(t_address address, t_message message) {
@@ -87,24 +183,83 @@ public class MessageQueue<t_message, t_address> {
 		}
 	}
 
+	/**
+	 * messages waiting to be dispatched plus messages waiting in handler mailboxes
+	 */
+	public int queueDepth() {
+		int d = queue.size();
+		for (Handler h : handlers)
+			d += h.depth();
+		return d;
+	}
+
+	/**
+	 * mean (exponentially weighted) and worst time, in milliseconds, between a message being dispatched to a handler and that handler starting on it
+	 */
+	public double meanLatencyMillis() {
+		return Double.longBitsToDouble(meanLatency.get()) / 1e6;
+	}
+
+	public double maxLatencyMillis() {
+		return maxLatency.get() / 1e6;
+	}
+
+	protected void latency(long nanos) {
+		// handlers drain on many threads at once
+		long was;
+		do {
+			was = meanLatency.get();
+		} while (!meanLatency.compareAndSet(was, Double.doubleToLongBits(Double.longBitsToDouble(was) * 0.95 + nanos * 0.05)));
+		maxLatency.accumulateAndGet(nanos, Math::max);
+	}
+
 	public void register(Predicate<t_address> address, Consumer<t_message> destination, Object tag) {
 		deregister(tag);
-		handlers.add(new Handler(address, destination, tag));
+		add(new Handler(address, destination, tag));
 	}
 
 	public void register(Predicate<t_address> address, Consumer<t_message> destination) {
-		handlers.add(new Handler(address, destination));
+		add(new Handler(address, destination));
+	}
+
+	/**
+	 * register a handler for exactly 'address' (by equals). This is much cheaper to dispatch to than the equivalent Predicate
+	 */
+	public void registerExact(t_address address, Consumer<t_message> destination, Object tag) {
+		deregister(tag);
+		add(new Handler(address, destination, tag));
+	}
+
+	public void registerExact(t_address address, Consumer<t_message> destination) {
+		add(new Handler(address, destination, null));
+	}
+
+	protected void add(Handler h) {
+		handlers.add(h);
+		if (h.exactly != null) exactHandlers.computeIfAbsent(h.exactly, k -> new CopyOnWriteArrayList<>())
+						      .add(h);
+		else predicateHandlers.add(h);
+	}
+
+	protected void remove(List<Handler> h) {
+		handlers.removeAll(h);
+		predicateHandlers.removeAll(h);
+		for (Handler hh : h)
+			if (hh.exactly != null) {
+				List<Handler> l = exactHandlers.get(hh.exactly);
+				if (l != null) l.remove(hh);
+			}
 	}
 
 	public void deregister(Predicate<t_address> a) {
-		handlers.removeAll(handlers.stream().filter(x -> x.matchedBy.equals(a)).collect(Collectors.toList()));
+		remove(handlers.stream().filter(x -> x.matchedBy.equals(a)).collect(Collectors.toList()));
 	}
 
 	public void deregister(Consumer<t_message> a) {
-		handlers.removeAll(handlers.stream().filter(x -> x.handledBy.equals(a)).collect(Collectors.toList()));
+		remove(handlers.stream().filter(x -> x.handledBy.equals(a)).collect(Collectors.toList()));
 	}
 
 	public void deregister(Object tag) {
-		handlers.removeAll(handlers.stream().filter(x -> tag.equals(x.tag)).collect(Collectors.toList()));
+		remove(handlers.stream().filter(x -> tag.equals(x.tag)).collect(Collectors.toList()));
 	}
 }
@@ -13,6 +13,7 @@ import java.lang.reflect.Field;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -405,8 +406,99 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 
 	Function<Prop, Object> failure = null;
 
+	/**
+	 * called after a value is put into, or removed from, a Dict
+	 */
+	public interface OnChange {
+		void changed(Prop p, Object was, Object now);
+	}
+
+	transient OnChange onChange = null;
+
+	// values that haven't been computed yet, see defer(...)
+	transient Map<Prop, Supplier<?>> deferred = null;
+
+	/**
+	 * associates 'key' with a value that will be computed (once) by 'value' the first time that anything asks for it. Until then it takes no space and costs nothing. IO uses this to open
+	 * documents without reading the text of every box.
+	 * <p>
+	 * Asking for the whole map (getMap(), duplicate() and so on) computes everything that's outstanding. Putting or removing 'key' discards the supplier
+	 */
+	public <T> Dict defer(Prop<T> key, Supplier<T> value) {
+		synchronized (this) {
+			if (deferred == null) deferred = new LinkedHashMap<>();
+			deferred.put(key, value);
+		}
+		return this;
+	}
+
+	/**
+	 * true if 'key' (or, for null, anything) is still waiting to be computed
+	 */
+	public boolean isDeferred(Prop<?> key) {
+		Map<Prop, Supplier<?>> d = deferred;
+		if (d == null) return false;
+		synchronized (this) {
+			return key == null ? d.size() > 0 : d.containsKey(key);
+		}
+	}
+
+	protected void resolve(Prop key) {
+		if (deferred == null) return;
+		synchronized (this) {
+			if (deferred == null) return;
+			Supplier<?> s = deferred.remove(key);
+			if (s == null) return;
+			Object v = s.get();
+			if (v != null) dictionary.putIfAbsent(key, v);
+		}
+	}
+
+	/**
+	 * a copy of the suppliers that are still waiting. These can be run on another thread, as long as what they compute goes back into this Dict through installDeferred on the thread that owns it
+	 */
+	public Map<Prop, Supplier<?>> pendingDeferred() {
+		if (deferred == null) return Collections.emptyMap();
+		synchronized (this) {
+			return deferred == null ? Collections.emptyMap() : new LinkedHashMap<>(deferred);
+		}
+	}
+
+	/**
+	 * puts 'values', computed from the suppliers in 'from' (see pendingDeferred), into this Dict. Keys whose supplier has since been resolved, replaced or discarded are left alone
+	 */
+	public Dict installDeferred(Map<Prop, Supplier<?>> from, Map<Prop, Object> values) {
+		if (deferred == null) return this;
+		synchronized (this) {
+			if (deferred == null) return this;
+			for (Map.Entry<Prop, Supplier<?>> e : from.entrySet()) {
+				if (deferred.get(e.getKey()) != e.getValue()) continue;
+				deferred.remove(e.getKey());
+				Object v = values.get(e.getKey());
+				if (v != null) dictionary.putIfAbsent(e.getKey(), v);
+			}
+			if (deferred.isEmpty()) deferred = null;
+		}
+		return this;
+	}
+
+	/**
+	 * computes everything that's been deferred
+	 */
+	public Dict resolveAll() {
+		if (deferred == null) return this;
+		synchronized (this) {
+			if (deferred == null) return this;
+			for (Prop p : new ArrayList<>(deferred.keySet()))
+				resolve(p);
+			deferred = null;
+		}
+		return this;
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T> T get(Prop<T> key) {
+		resolve(key);
 		Object o = dictionary.get(key);
 		if (failure != null && o == null && !dictionary.containsKey(key))
 			return (T) failure.apply(key);
@@ -418,16 +510,37 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 		return this;
 	}
 
+	/**
+	 * there's one of these per Dict. Box uses it to keep indices over its properties (for example Intersects) up to date. It isn't copied by duplicate()
+	 */
+	public Dict setOnChange(OnChange onChange) {
+		this.onChange = onChange;
+		return this;
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T> T getOrConstruct(Prop<T> key) {
 
+		resolve(key);
 		Prop<T> cc = key.findCannon();
 		if (cc != null && cc.autoConstructor != null) {
-			return (T) dictionary.computeIfAbsent(key, k -> cc.autoConstructor.get());
+			return constructIfAbsent(key, cc.autoConstructor, null);
 		}
 		return get(key);
 	}
 
+	/**
+	 * dictionary.computeIfAbsent, but a value that this inserts is passed to 'then' (if there is one) and then to onChange, like anything else that's put
+	 */
+	@SuppressWarnings("unchecked")
+	private <V> V constructIfAbsent(Prop key, Supplier<?> make, Consumer<V> then) {
+		Object[] made = {null};
+		V v = (V) dictionary.computeIfAbsent(key, k -> made[0] = make.get());
+		if (then != null) then.accept(v);
+		if (made[0] != null && made[0] == v && onChange != null) onChange.changed(key, null, v);
+		return v;
+	}
+
 	public <T> T getOr(Prop<T> key, Supplier<T> def) {
 		T t = get(key);
 		if (t == null) return def.get();
@@ -440,7 +553,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 		T t = get(k);
 		if (t != null) return t;
 
-		return (T) dictionary.computeIfAbsent(k, (x) -> def.apply(k));
+		return constructIfAbsent(k, () -> def.apply(k), null);
 	}
 
 	public float getFloat(Prop<? extends Number> n, float def) {
@@ -456,6 +569,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 
 
 	public Dict duplicate() {
+		resolveAll();
 		Dict r = new Dict();
 
 		r.dictionary = new LinkedHashMap<Prop, Object>(dictionary.size());
@@ -471,6 +585,8 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 		if (obj == null) return false;
 		if (getClass() != obj.getClass()) return false;
 		final Dict other = (Dict) obj;
+		resolveAll();
+		other.resolveAll();
 		if (dictionary == null) {
 			if (other.dictionary != null) return false;
 		} else if (!dictionary.equals(other.dictionary)) return false;
@@ -479,6 +595,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 
 
 	public Map<Prop, Object> getMap() {
+		resolveAll();
 		return dictionary;
 	}
 
@@ -486,6 +603,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		resolveAll();
 		result = prime * result + ((dictionary == null) ? 0 : safeHash(dictionary));
 		return result;
 	}
@@ -504,6 +622,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	}
 
 	public boolean isTrue(Prop<?> prop, boolean def) {
+		resolve(prop);
 		if (!dictionary.containsKey(prop)) return def;
 
 		Object p = dictionary.get(prop);
@@ -518,7 +637,11 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	public <T> Dict put(Prop<T> key, T value) {
 		if (value == null) return this;
 
-		dictionary.put(key, value);
+		if (deferred != null) synchronized (this) {
+			if (deferred != null) deferred.remove(key);
+		}
+		Object was = dictionary.put(key, value);
+		if (onChange != null) onChange.changed(key, was, value);
 		return this;
 	}
 
@@ -527,7 +650,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	 */
 	public Dict putAll(Dict d) {
 		Dict r = new Dict();
-		for (Map.Entry<Prop, Object> e : d.dictionary.entrySet()) {
+		for (Map.Entry<Prop, Object> e : d.getMap().entrySet()) {
 			Object was = get(e.getKey());
 			put(e.getKey(), e.getValue());
 			if (was != null) r.put(e.getKey(), was instanceof Mutable ? ((Mutable) was).duplicate() : was);
@@ -539,7 +662,8 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	 * putAll with a chance to handle collisions. Function3<Key, Object_here, Object_there, Object_or_null_as_merged>
 	 */
 	public Dict putAll(Dict d, Curry.Function3<Object, Object, Object, Object> collision) {
-		for (Map.Entry<Prop, Object> e : d.dictionary.entrySet()) {
+		resolveAll();
+		for (Map.Entry<Prop, Object> e : d.getMap().entrySet()) {
 			if (!dictionary.containsKey(e.getKey())) put(e.getKey(), e.getValue());
 			else {
 				Object r = collision.apply(e.getKey(), dictionary.get(e.getKey()), e.getValue());
@@ -554,7 +678,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	 * putAll, filtered
 	 */
 	public Dict putAll(Dict d, Function<Prop, Boolean> filter) {
-		for (Map.Entry<Prop, Object> e : d.dictionary.entrySet()) {
+		for (Map.Entry<Prop, Object> e : d.getMap().entrySet()) {
 
 			if (filter.apply(e.getKey())) {
 				put(e.getKey(), e.getValue() instanceof Mutable ? ((Mutable) e.getValue()).duplicate() : e.getValue());
@@ -565,52 +689,48 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 
 
 	public <T> Dict putToList(Prop<? extends Collection<T>> key, T value) {
+		resolve(key);
 
 		if (key.toCannon().autoConstructor != null) {
-			Collection<T> c = (Collection<T>) dictionary.computeIfAbsent(key, (k) -> key.toCannon().autoConstructor.get());
-			c.add(value);
+			this.<Collection<T>>constructIfAbsent(key, key.toCannon().autoConstructor, c -> c.add(value));
 			return this;
 		} else {
-			Collection<T> c = (Collection<T>) dictionary.computeIfAbsent(key, (k) -> new ArrayList<T>());
-			c.add(value);
+			this.<Collection<T>>constructIfAbsent(key, () -> new ArrayList<T>(), c -> c.add(value));
 			return this;
 		}
 	}
 
 	public <T> Dict putToList(Prop<? extends Collection<T>> key, T value, Supplier<? extends Collection<T>> def) {
+		resolve(key);
 
 		if (key.toCannon().autoConstructor != null) {
-			Collection<T> c = (Collection<T>) dictionary.computeIfAbsent(key, (k) -> key.toCannon().autoConstructor.get());
-			c.add(value);
+			this.<Collection<T>>constructIfAbsent(key, key.toCannon().autoConstructor, c -> c.add(value));
 			return this;
 		} else {
-			Collection<T> c = (Collection<T>) dictionary.computeIfAbsent(key, (k) -> def.get());
-			c.add(value);
+			this.<Collection<T>>constructIfAbsent(key, def, c -> c.add(value));
 			return this;
 		}
 	}
 
 	public <T> Dict putToListMap(Prop<? extends LinkedHashMapAndArrayList<T>> key, T value) {
+		resolve(key);
 
 		if (key.toCannon().autoConstructor != null) {
-			LinkedHashMapAndArrayList<T> c = (LinkedHashMapAndArrayList<T>) dictionary.computeIfAbsent(key, (k) -> key.toCannon().autoConstructor.get());
-			c.add(value);
+			this.<LinkedHashMapAndArrayList<T>>constructIfAbsent(key, key.toCannon().autoConstructor, c -> c.add(value));
 			return this;
 		} else {
-			LinkedHashMapAndArrayList<T> c = (LinkedHashMapAndArrayList<T>) dictionary.computeIfAbsent(key, (k) -> new ArrayList<T>());
-			c.add(value);
+			this.<LinkedHashMapAndArrayList<T>>constructIfAbsent(key, () -> new ArrayList<T>(), c -> c.add(value));
 			return this;
 		}
 	}
 
 	public <K, T> Dict putToMap(Prop<? extends Map<String, T>> key, K tok, T value) {
+		resolve(key);
 		if (key.toCannon().autoConstructor != null) {
-			Map<K, T> c = (Map<K, T>) dictionary.computeIfAbsent(key, (k) -> key.toCannon().autoConstructor.get());
-			c.put(tok, value);
+			this.<Map<K, T>>constructIfAbsent(key, key.toCannon().autoConstructor, c -> c.put(tok, value));
 			return this;
 		} else {
-			Map<K, T> c = (Map<K, T>) dictionary.computeIfAbsent(key, (k) -> new IdempotencyMap<T>(null));
-			c.put(tok, value);
+			this.<Map<K, T>>constructIfAbsent(key, () -> new IdempotencyMap<T>(null), c -> c.put(tok, value));
 			return this;
 		}
 	}
@@ -641,11 +761,14 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	}
 
 	public <T> T remove(Prop<T> t) {
+		resolve(t);
 		Object x = dictionary.remove(t);
+		if (onChange != null && x != null) onChange.changed(t, x, null);
 		return (T) x;
 	}
 
 	public long longHash() {
+		resolveAll();
 		long start = 1;
 		Set<Entry<Prop, Object>> e = dictionary.entrySet();
 		for (Entry ee : e) {
@@ -655,6 +778,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	}
 
 	public long longHash(Set<String> ex) {
+		resolveAll();
 		long start = 1;
 		Set<Entry<Prop, Object>> e = dictionary.entrySet();
 		for (Entry<Prop, Object> ee : e) {
@@ -665,6 +789,7 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	}
 
 	public boolean has(Prop<?> context) {
+		resolve(context);
 		return dictionary.containsKey(context);
 	}
 
@@ -672,12 +797,14 @@ public class Dict implements Serializable, fieldlinker.AsMap {
 	 * null-safe equals.
 	 */
 	public <T> boolean equals(Prop<T> context, T v) {
+		resolve(context);
 		Object d = dictionary.get(context);
 		if (d == null) return v == null;
 		return d.equals(v);
 	}
 
 	public void removeValue(Object c) {
+		resolveAll();
 		Set<Entry<Prop, Object>> es = dictionary.entrySet();
 		Iterator<Entry<Prop, Object>> is = es.iterator();
 		while (is.hasNext()) {
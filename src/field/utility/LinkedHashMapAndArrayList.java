@@ -10,6 +10,7 @@ import java.util.Map;
 public class LinkedHashMapAndArrayList<V> extends LinkedHashMap<String, V> {
 
 	protected int uniq = 0;
+	protected int mod = 0;
 
 	Map<Object, String> keys = new MapMaker().weakKeys().makeMap();
 
@@ -20,6 +21,13 @@ public class LinkedHashMapAndArrayList<V> extends LinkedHashMap<String, V> {
 		_put("__internal_" + (++uniq), massage(value));
 	}
 
+	/**
+	 * incremented by every put, remove and clear that goes through this class, so that things that cache what's in here (like a recorded Scene) can tell that it has changed
+	 */
+	public int getModCount() {
+		return mod;
+	}
+
 	public void addAll(Collection<Object> value)
 	{
 		for(Object o : value)
@@ -34,6 +42,7 @@ public class LinkedHashMapAndArrayList<V> extends LinkedHashMap<String, V> {
 	// this one is better for writing Java, because it gives you type inference on lambdas as V
 	public V _put(String key, V v)
 	{
+		mod++;
 		V displaced = super.put(massageKey(key), v);
 		if (displaced!=null)
 		{
@@ -53,6 +62,7 @@ public class LinkedHashMapAndArrayList<V> extends LinkedHashMap<String, V> {
 	public V remove(Object v)
 	{
 		Log.log("lhmaal_remove", ()->"removing "+v+" "+this);
+		mod++;
 		V q = super.remove(v);
 		V q2 = super.remove(keys.remove(massageKey(""+v)));
 		Log.log("lhmaal_remove",()-> "now "+this);
@@ -67,6 +77,7 @@ public class LinkedHashMapAndArrayList<V> extends LinkedHashMap<String, V> {
 
 	@Override
 	public void clear() {
+		mod++;
 		ArrayList<V> val = new ArrayList<>(values());
 		super.clear();
 		val.forEach(x -> _removed(x));
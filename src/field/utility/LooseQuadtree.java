@@ -0,0 +1,286 @@
+package field.utility;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * A loose quadtree over Rects. Each node's bounds are doubled when testing for containment, so an item is always stored in exactly one node, picked from its center and size alone. That makes
+ * update(...) and remove(...) cheap enough to call every time something moves. The tree has no fixed extent: the root grows outwards to meet anything placed beyond it, and nodes that are left
+ * empty are pruned (shrinking the root back again) so that things moving around for a long time don't leave the tree ever larger.
+ * <p>
+ * Rects are copied on insertion; mutating a Rect after handing it to the tree won't move it until update(...) or revalidate() is called. The tree keeps hold of the Rect it was last given for each
+ * value so that revalidate() can find the ones that have been mutated in place. That's a pass over everything, so callers should do it at most once a frame rather than before every query.
+ */
+public class LooseQuadtree<T> {
+
+	static public final int maxDepth = 16;
+	static public final int maxPerLeaf = 8;
+
+	static protected class Entry<T> {
+		final T value;
+		float x, y, w, h;
+		Node<T> node;
+
+		// the Rect we were given and what it was then, so that revalidate() can tell if it has been changed since
+		Rect source;
+		float sx, sy, sw, sh;
+
+		Entry(T value) {
+			this.value = value;
+		}
+
+		void set(Rect r) {
+			source = r;
+			sx = r.x;
+			sy = r.y;
+			sw = r.w;
+			sh = r.h;
+
+			// Rects are allowed to have negative widths and heights
+			x = Math.min(r.x, r.x + r.w);
+			y = Math.min(r.y, r.y + r.h);
+			w = Math.abs(r.w);
+			h = Math.abs(r.h);
+		}
+
+		float cx() {
+			return x + w / 2;
+		}
+
+		float cy() {
+			return y + h / 2;
+		}
+
+		float extent() {
+			return Math.max(w, h) / 2;
+		}
+	}
+
+	static protected class Node<T> {
+		final float cx, cy, half;
+		final int depth;
+		Node<T> parent;
+		Node<T>[] children;
+		List<Entry<T>> entries = new ArrayList<>(2);
+
+		Node(float cx, float cy, float half, int depth) {
+			this.cx = cx;
+			this.cy = cy;
+			this.half = half;
+			this.depth = depth;
+		}
+
+		boolean centerInside(float x, float y) {
+			return x >= cx - half && x < cx + half && y >= cy - half && y < cy + half;
+		}
+
+		// loose bounds are twice the size of the node
+		boolean looseContains(float x, float y) {
+			return x >= cx - 2 * half && x <= cx + 2 * half && y >= cy - 2 * half && y <= cy + 2 * half;
+		}
+
+		boolean looseOverlaps(float x, float y, float w, float h) {
+			return x <= cx + 2 * half && x + w >= cx - 2 * half && y <= cy + 2 * half && y + h >= cy - 2 * half;
+		}
+
+		int quadrant(float x, float y) {
+			return (x < cx ? 0 : 1) + (y < cy ? 0 : 2);
+		}
+
+		Node<T> child(int q) {
+			if (children == null) children = new Node[4];
+			if (children[q] == null) {
+				float h = half / 2;
+				children[q] = new Node<>(cx + ((q & 1) == 0 ? -h : h), cy + ((q & 2) == 0 ? -h : h), h, depth + 1);
+				children[q].parent = this;
+			}
+			return children[q];
+		}
+	}
+
+	protected Node<T> root = null;
+	protected final Map<T, Entry<T>> entries = new HashMap<>();
+
+	public int size() {
+		return entries.size();
+	}
+
+	public boolean contains(T value) {
+		return entries.containsKey(value);
+	}
+
+	public void clear() {
+		root = null;
+		entries.clear();
+	}
+
+	/**
+	 * inserts 'value' with bounds 'r', or moves it if it's already present. Returns false (and removes 'value') if 'r' isn't finite
+	 */
+	public boolean update(T value, Rect r) {
+		if (!Float.isFinite(r.x) || !Float.isFinite(r.y) || !Float.isFinite(r.w) || !Float.isFinite(r.h)) {
+			remove(value);
+			return false;
+		}
+
+		Entry<T> e = entries.get(value);
+		if (e == null) entries.put(value, e = new Entry<>(value));
+		else detach(e);
+
+		e.set(r);
+		place(e);
+		return true;
+	}
+
+	/**
+	 * moves everything whose Rect has been mutated in place since it was given to update(...). This is a pass over every value, but one that only compares floats; returns the number of values moved
+	 * (or removed, if their Rect is no longer finite)
+	 */
+	public int revalidate() {
+		List<Entry<T>> moved = null;
+		for (Entry<T> e : entries.values()) {
+			Rect r = e.source;
+			if (r.x == e.sx && r.y == e.sy && r.w == e.sw && r.h == e.sh) continue;
+			if (moved == null) moved = new ArrayList<>();
+			moved.add(e);
+		}
+		if (moved == null) return 0;
+
+		for (Entry<T> e : moved)
+			update(e.value, e.source);
+		return moved.size();
+	}
+
+	public boolean remove(T value) {
+		Entry<T> e = entries.remove(value);
+		if (e == null) return false;
+		detach(e);
+		return true;
+	}
+
+	/**
+	 * calls 'to' with every value whose bounds (inclusively) contain x,y. Order is unspecified
+	 */
+	public void query(float x, float y, Consumer<T> to) {
+		if (root != null) query(root, x, y, to);
+	}
+
+	/**
+	 * calls 'to' with every value whose bounds overlap 'r'. Order is unspecified
+	 */
+	public void query(Rect r, Consumer<T> to) {
+		if (root == null) return;
+		float x = Math.min(r.x, r.x + r.w);
+		float y = Math.min(r.y, r.y + r.h);
+		query(root, x, y, Math.abs(r.w), Math.abs(r.h), to);
+	}
+
+	protected void query(Node<T> n, float x, float y, Consumer<T> to) {
+		for (int i = 0; i < n.entries.size(); i++) {
+			Entry<T> e = n.entries.get(i);
+			if (x >= e.x && x <= e.x + e.w && y >= e.y && y <= e.y + e.h) to.accept(e.value);
+		}
+		if (n.children != null) for (Node<T> c : n.children)
+			if (c != null && c.looseContains(x, y)) query(c, x, y, to);
+	}
+
+	protected void query(Node<T> n, float x, float y, float w, float h, Consumer<T> to) {
+		for (int i = 0; i < n.entries.size(); i++) {
+			Entry<T> e = n.entries.get(i);
+			if (x <= e.x + e.w && x + w >= e.x && y <= e.y + e.h && y + h >= e.y) to.accept(e.value);
+		}
+		if (n.children != null) for (Node<T> c : n.children)
+			if (c != null && c.looseOverlaps(x, y, w, h)) query(c, x, y, w, h, to);
+	}
+
+	protected void place(Entry<T> e) {
+		float cx = e.cx();
+		float cy = e.cy();
+		float extent = e.extent();
+
+		if (root == null) root = new Node<>(cx, cy, Math.max(64, nextPowerOfTwo(extent)), 0);
+		while (!root.centerInside(cx, cy) || extent > root.half) grow(cx, cy);
+
+		Node<T> n = root;
+		// descend while the entry still fits in the child its center falls in, only splitting nodes that are getting crowded
+		while (n.depth - root.depth < maxDepth && extent <= n.half / 2 && (n.children != null || n.entries.size() >= maxPerLeaf)) {
+			n = n.child(n.quadrant(cx, cy));
+		}
+		n.entries.add(e);
+		e.node = n;
+	}
+
+	protected void detach(Entry<T> e) {
+		if (e.node != null) {
+			e.node.entries.remove(e);
+			prune(e.node);
+		}
+		e.node = null;
+	}
+
+	/**
+	 * removes 'n' and then its ancestors for as long as they are empty leaves, then shrinks the root while it's just a single child
+	 */
+	protected void prune(Node<T> n) {
+		while (n.parent != null && n.entries.isEmpty() && n.children == null) {
+			Node<T> p = n.parent;
+			boolean any = false;
+			for (int q = 0; q < 4; q++) {
+				if (p.children[q] == n) p.children[q] = null;
+				else if (p.children[q] != null) any = true;
+			}
+			if (!any) p.children = null;
+			n.parent = null;
+			n = p;
+		}
+
+		while (root != null && root.entries.isEmpty()) {
+			Node<T> only = null;
+			int count = 0;
+			if (root.children != null) for (Node<T> c : root.children)
+				if (c != null) {
+					only = c;
+					count++;
+				}
+			if (count > 1) break;
+			root = only;
+			if (only != null) only.parent = null;
+		}
+	}
+
+	/**
+	 * the number of nodes in the tree
+	 */
+	public int nodes() {
+		return root == null ? 0 : nodes(root);
+	}
+
+	protected int nodes(Node<T> n) {
+		int c = 1;
+		if (n.children != null) for (Node<T> k : n.children)
+			if (k != null) c += nodes(k);
+		return c;
+	}
+
+	protected void grow(float towardsX, float towardsY) {
+		Node<T> old = root;
+		float h = old.half;
+		float ncx = old.cx + (towardsX < old.cx ? -h : h);
+		float ncy = old.cy + (towardsY < old.cy ? -h : h);
+		Node<T> n = new Node<>(ncx, ncy, h * 2, old.depth - 1);
+		n.children = new Node[4];
+		n.children[n.quadrant(old.cx, old.cy)] = old;
+		old.parent = n;
+		root = n;
+	}
+
+	static protected float nextPowerOfTwo(float f) {
+		float p = 1;
+		while (p < f) p *= 2;
+		return p;
+	}
+
+}
@@ -14,6 +14,8 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.function.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -77,12 +79,59 @@ public class Box implements fieldlinker.AsMap, HandlesCompletion {
 	@HiddenInAutocomplete
 	public boolean disconnected = false;
 
+	/**
+	 * incremented every time any box is connected, disconnected or has setDisconnected called on it. Caches over the box graph (for example Intersects) use this to notice when they need to be
+	 * rebuilt
+	 */
+	@HiddenInAutocomplete
+	static public volatile int topology = 0;
+
+	public interface OnPropertyChange {
+		void changed(Box target, Dict.Prop p, Object was, Object now);
+	}
+
+	static protected final Map<Dict.Prop, List<OnPropertyChange>> propertyListeners = new ConcurrentHashMap<>();
+
+	/**
+	 * 'c' is called, on whatever thread made the change, every time property 'p' is put into or removed from any box. Values that are mutated in place don't count as changes.
+	 */
+	@HiddenInAutocomplete
+	static public void onPropertyChange(Dict.Prop p, OnPropertyChange c) {
+		propertyListeners.computeIfAbsent(p, k -> new CopyOnWriteArrayList<>())
+			.add(c);
+	}
+
+	@HiddenInAutocomplete
+	static public void removePropertyChange(Dict.Prop p, OnPropertyChange c) {
+		List<OnPropertyChange> l = propertyListeners.get(p);
+		if (l != null) l.remove(c);
+	}
+
+	static protected void propertyChanged(Box target, Dict.Prop p, Object was, Object now) {
+		List<OnPropertyChange> l = propertyListeners.get(p);
+		if (l == null) return;
+		for (int i = 0; i < l.size(); i++)
+			l.get(i)
+			 .changed(target, p, was, now);
+	}
+
 
 	public Box() {
+		properties.setOnChange((p, was, now) -> propertyChanged(this, p, was, now));
 		properties.put(IO.id, newID());
 		BoxDefaultCode.configure(this);
 	}
 
+	/**
+	 * sets 'disconnected' and lets caches over the box graph know about it.
+	 */
+	@HiddenInAutocomplete
+	public Box setDisconnected(boolean disconnected) {
+		if (this.disconnected != disconnected) topology++;
+		this.disconnected = disconnected;
+		return this;
+	}
+
 	@HiddenInAutocomplete
 	static public String newID() {
 		// ensure CallLogic is loaded
@@ -118,6 +167,7 @@ public class Box implements fieldlinker.AsMap, HandlesCompletion {
 	 * Connect box 'b' to this box. b is now a child of this box, this box is now a parent of 'b'
 	 */
 	public Box connect(Box b) {
+		topology++;
 		if (children.add(b)) all.addLast(b);
 		else {
 			// restore ordering to LinkedHashSet
@@ -139,6 +189,7 @@ public class Box implements fieldlinker.AsMap, HandlesCompletion {
 	 * Disconnect box 'b' to this box. b is now no longer child of this box, this box is now no longer parent of 'b'
 	 */
 	public Box disconnect(Box b) {
+		topology++;
 		children.remove(b);
 		b.parents.remove(this);
 
@@ -5,6 +5,7 @@ import field.graphics.*;
 import field.linalg.Vec2;
 import field.linalg.Vec4;
 import field.utility.Dict;
+import field.utility.Options;
 import field.utility.Rect;
 import field.utility.Util;
 import fieldbox.io.IO;
@@ -34,6 +35,12 @@ import static fieldbox.boxes.FLineDrawing.*;
  */
 public class Drawing extends Box implements DrawingInterface {
 
+	/**
+	 * the shaders of each layer record their traversal (see Scene.setRecorded). Set "recordLayers" to false in the options to turn this off
+	 */
+	static public boolean recordLayers = Options.dict()
+						    .isTrue(new Dict.Prop<>("recordLayers"), true);
+
 	static public final Dict.Prop<Collection<Drawer>> drawers = new Dict.Prop<>("drawers").type()
 		.toCannon()
 		.doc("a collection of things that will draw inside the OpenGL paint context. Currently FrameDrawer & FLineInteraction plug into the window at this low level");
@@ -187,6 +194,7 @@ public class Drawing extends Box implements DrawingInterface {
 		PerLayer layer = layerLocal.computeIfAbsent(layerName, (k) -> new PerLayer());
 
 		layer.shader = new Shader();
+		layer.shader.setRecorded(recordLayers);
 
 		layer.shader.addSource(Shader.Type.vertex, "#version 410\n" +
 			"layout(location=0) in vec3 position;\n" +
@@ -203,7 +211,7 @@ public class Drawing extends Box implements DrawingInterface {
 			"   vcolor = color;\n" +
 			"}");
 
-		layer.shader.addSource(Shader.Type.fragment, "#version 410\n" +
+		String lineFragment = "#version 410\n" +
 			"layout(location=0) out vec4 _output;\n" +
 			"in vec4 vcolor;\n" +
 			"uniform float opacity; \n" +
@@ -215,7 +223,9 @@ public class Drawing extends Box implements DrawingInterface {
 			"	_output  = vec4(abs(vcolor.xyzw));\n" +
 			"	if (vcolor.w<0) _output.w *= f;" +
 			"	_output.w *= opacity;\n" +
-			"}");
+			"}";
+
+		layer.shader.addSource(Shader.Type.fragment, lineFragment);
 
 		layer.shader.attach(new Uniform<Vec2>("translation", this::getTranslationRounded));
 		layer.shader.attach(new Uniform<Vec2>("scale", () -> new Vec2(scale.x * boxScale.x, scale.y * boxScale.y)));
@@ -223,7 +233,38 @@ public class Drawing extends Box implements DrawingInterface {
 		layer.shader.attach(new Uniform<Float>("opacity", () -> opacity));
 		layer.shader.attach(new Uniform<Float>("displayZ", () -> displayZ));
 
+		// just like 'shader', but every vertex is offset, scaled and tinted by the instance it belongs to (see MeshBuilder.instance)
+		layer.instanceShader = new Shader();
+		layer.instanceShader.setRecorded(recordLayers);
+
+		layer.instanceShader.addSource(Shader.Type.vertex, "#version 410\n" +
+			"layout(location=0) in vec3 position;\n" +
+			"layout(location=1) in vec4 color;\n" +
+			"layout(location=6) in vec4 instanceTransform;\n" +
+			"layout(location=7) in vec4 instanceColor;\n" +
+			"out vec4 vcolor;\n" +
+			"uniform vec2 translation;\n" +
+			"uniform vec2 scale;\n" +
+			"uniform vec2 bounds;\n" +
+			"uniform float displayZ;\n" +
+			"void main()\n" +
+			"{\n" +
+			"	vec3 p = position*instanceTransform.w+instanceTransform.xyz;\n" +
+			"	vec2 at = (scale.xy*(p.xy+vec2(0.5,0.5))+translation.xy)/bounds.xy;\n" +
+			"   gl_Position =  vec4(-1+at.x*2+displayZ*p.z, 1-at.y*2, 0.5, 1.0);\n" +
+			"   vcolor = color*instanceColor;\n" +
+			"}");
+
+		layer.instanceShader.addSource(Shader.Type.fragment, lineFragment);
+
+		layer.instanceShader.attach(new Uniform<Vec2>("translation", this::getTranslationRounded));
+		layer.instanceShader.attach(new Uniform<Vec2>("scale", () -> new Vec2(scale.x * boxScale.x, scale.y * boxScale.y)));
+		layer.instanceShader.attach(new Uniform<Vec2>("bounds", () -> new Vec2(Window.getCurrentWidth(), Window.getCurrentHeight())));
+		layer.instanceShader.attach(new Uniform<Float>("opacity", () -> opacity));
+		layer.instanceShader.attach(new Uniform<Float>("displayZ", () -> displayZ));
+
 		layer.pointShader = new Shader();
+		layer.pointShader.setRecorded(recordLayers);
 
 		layer.pointShader.addSource(Shader.Type.vertex, "#version 410\n" +
 			"layout(location=0) in vec3 position;\n" +
@@ -305,6 +346,10 @@ public class Drawing extends Box implements DrawingInterface {
 			.getLayer(layerName)
 			.getScene()
 			.attach(layer.pointShader);
+		window.getCompositor()
+			.getLayer(layerName)
+			.getScene()
+			.attach(layer.instanceShader);
 
 		/*
 		BaseMesh mesh = BaseMesh.triangleList(1, 1);
@@ -434,6 +479,66 @@ public class Drawing extends Box implements DrawingInterface {
 		throw new IllegalArgumentException(" graphics resource (point) isn't open, are you trying to draw outside of your drawing method?");
 	}
 
+	/**
+	 * Returns a MeshBuilder (lines if elementDimension is 2, triangles if 3) on this layer that belongs to 'prototype' alone and draws what's in it as instances (see MeshBuilder.instance). Its
+	 * geometry is cached like any other, so a prototype that doesn't change isn't sent to OpenGL again, only its instances are. Builders that aren't asked for during a repaint are let go of at the end
+	 * of it.
+	 */
+	public MeshBuilder getInstanced(String layerName, FLine prototype, int elementDimension) {
+		if (elementDimension != 2 && elementDimension != 3) throw new IllegalArgumentException(" can only instance lines (2) or triangles (3), not " + elementDimension);
+		if (layerName.contains(".")) layerName = layerName.substring(0, layerName.lastIndexOf("."));
+
+		PerLayer l = layerLocal.get(layerName);
+		if (l == null || l.instanceShader == null) return null;
+
+		Map<FLine, MeshBuilder> m = elementDimension == 2 ? l._instancedLine : l._instancedMesh;
+		Deque<MeshBuilder> spare = elementDimension == 2 ? l._instancedLineSpare : l._instancedMeshSpare;
+		MeshBuilder ll = m.computeIfAbsent(prototype, k -> {
+			// lines that are made afresh every frame pick up the MeshBuilder that last frame's line left behind, rather than allocating a new one each time
+			MeshBuilder was = spare.poll();
+			if (was != null) return was;
+
+			BaseMesh mesh = elementDimension == 2 ? BaseMesh.lineList(1, 1) : BaseMesh.triangleList(1, 1);
+			l.instanceShader.attach(mesh);
+
+			MeshBuilder b = new MeshBuilder(mesh);
+			bracketableList.add(b);
+
+			b.open();
+
+			return b;
+		});
+		l._instancedUsed.add(ll);
+		if (ll.isOpen()) return ll;
+		throw new IllegalArgumentException(" graphics resource (instanced) isn't open, are you trying to draw outside of your drawing method?");
+	}
+
+	// instanced MeshBuilders that nothing asked for during the last repaint are kept spare (and draw nothing) for one more repaint, in case their line has just been remade, then let go of
+	private void releaseUnusedInstanced() {
+		for (PerLayer l : layerLocal.values()) {
+			for (Deque<MeshBuilder> spare : Arrays.asList(l._instancedLineSpare, l._instancedMeshSpare)) {
+				MeshBuilder b;
+				while ((b = spare.poll()) != null) {
+					l.instanceShader.detach(b.getTarget());
+					bracketableList.remove(b);
+				}
+			}
+
+			for (Map<FLine, MeshBuilder> m : Arrays.asList(l._instancedLine, l._instancedMesh)) {
+				Deque<MeshBuilder> spare = m == l._instancedLine ? l._instancedLineSpare : l._instancedMeshSpare;
+				Iterator<MeshBuilder> i = m.values()
+							   .iterator();
+				while (i.hasNext()) {
+					MeshBuilder b = i.next();
+					if (l._instancedUsed.contains(b)) continue;
+					spare.add(b);
+					i.remove();
+				}
+			}
+			l._instancedUsed.clear();
+		}
+	}
+
 	public DrawingInterface addBracketable(Bracketable bracketable) {
 		bracketableList.add(bracketable);
 		if (isInsideDrawing()) bracketable.open();
@@ -579,6 +684,8 @@ public class Drawing extends Box implements DrawingInterface {
 			insideDrawing = false;
 		}
 
+		releaseUnusedInstanced();
+
 		find(Boxes.window, both()).findFirst()
 			.ifPresent(x -> {
 				lastDimensions = new Vec2(x.getWidth(), x.getHeight());
@@ -730,7 +837,14 @@ public class Drawing extends Box implements DrawingInterface {
 		private Map<String, MeshBuilder> _line= new LinkedHashMap<>();
 		private Map<String, MeshBuilder> _point= new LinkedHashMap<>();
 
+		private Map<FLine, MeshBuilder> _instancedLine = new IdentityHashMap<>();
+		private Map<FLine, MeshBuilder> _instancedMesh = new IdentityHashMap<>();
+		private Set<MeshBuilder> _instancedUsed = Collections.newSetFromMap(new IdentityHashMap<>());
+		private Deque<MeshBuilder> _instancedLineSpare = new ArrayDeque<>();
+		private Deque<MeshBuilder> _instancedMeshSpare = new ArrayDeque<>();
+
 		private Shader shader;
 		private Shader pointShader;
+		private Shader instanceShader;
 	}
 }
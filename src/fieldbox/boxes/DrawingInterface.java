@@ -1,6 +1,7 @@
 package fieldbox.boxes;
 
 import field.graphics.Bracketable;
+import field.graphics.FLine;
 import field.graphics.MeshBuilder;
 import field.graphics.Scene;
 
@@ -16,6 +17,14 @@ public interface DrawingInterface {
 
 	MeshBuilder getPoints(String layerName);
 
+	/**
+	 * a MeshBuilder (lines if elementDimension is 2, triangles if 3) that belongs to 'prototype' alone and draws what's in it as instances (see MeshBuilder.instance), or null if instancing isn't
+	 * supported here
+	 */
+	default MeshBuilder getInstanced(String layerName, FLine prototype, int elementDimension) {
+		return null;
+	}
+
 	default Optional<TextDrawing> getTextDrawing(Box from) {
 		return from.first(TextDrawing.textDrawing, from.both());
 	}
@@ -214,6 +214,9 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 		Util.Errors error = new Util.Errors();
 		Optional<TextDrawing> text = context.getTextDrawing(this);
 
+		// lines are gathered first, so that the filled ones can all be tessellated in parallel before any of them are drawn
+		List<Triple<Box, FLine, String>> toDispatch = new ArrayList<>();
+
 		this.breadthFirst(this.both())
 			.forEach(Util.wrap(x -> {
 				if (Planes.on(root, x) <= 0) {
@@ -246,7 +249,7 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 					.map(c -> c.apply(x))
 					.filter(fline -> fline != null)
 					.collect(Collectors.toList())
-					.forEach(fline -> dispatchLine(fline, context, text, defaultLayer));
+					.forEach(fline -> toDispatch.add(new Triple<>(x, fline, defaultLayer)));
 				Map<String, Supplier<FLine>> ll = x.properties.computeIfAbsent(lines, (k) -> new IdempotencyMap<>(Supplier.class));
 
 				all = new ArrayList<>();
@@ -265,7 +268,7 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 					.stream()
 					.map(c -> c.get())
 					.filter(fline -> fline != null)
-					.forEach(fline -> dispatchLine(fline, context, text, defaultLayer));
+					.forEach(fline -> toDispatch.add(new Triple<>(x, fline, defaultLayer)));
 
 
 				Map<String, Supplier<Collection<Supplier<FLine>>>> bl = x.properties.get(bulkLines);
@@ -290,12 +293,18 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 					final List<FLine> finalAll = all;
 					Log.log("drawing.trace", () -> " --> " + finalAll);
 
-					all.forEach(fline -> dispatchLine(fline, context, text, defaultLayer));
+					all.forEach(fline -> toDispatch.add(new Triple<>(x, fline, defaultLayer)));
 				}
 				Log.log("drawing.trace", () -> "lines for " + x + " finished");
 
 			}, error));
 
+		StandardFLineDrawing.prefetch(toDispatch.stream()
+						.map(x -> x.second)
+						.collect(Collectors.toList()));
+
+		toDispatch.forEach(Util.wrap(x -> dispatchLine(x.second, context, text, x.third), error));
+
 		if (error.hasErrors()) {
 			error.getErrors()
 				.stream()
@@ -313,6 +322,16 @@ public class FLineDrawing extends Box implements Drawing.Drawer {
 	protected void dispatchLine(FLine fline, DrawingInterface context, Optional<TextDrawing> text, String defaultLayer) {
 		String layerName = fline.attributes.getOr(layer, () -> defaultLayer);
 
+		if (fline.attributes.has(StandardFLineDrawing.instances)) {
+			MeshBuilder line = context.getInstanced(layerName, fline, 2);
+			MeshBuilder mesh = context.getInstanced(layerName, fline, 3);
+			if (line != null && mesh != null) {
+				StandardFLineDrawing.dispatchLine(fline, mesh, line, null, text, layerName);
+				StandardFLineDrawing.dispatchInstances(fline, line, mesh);
+				return;
+			}
+		}
+
 		MeshBuilder line = context.getLine(layerName);
 		MeshBuilder mesh = context.getMesh(layerName);
 		MeshBuilder points = context.getPoints(layerName);
@@ -59,12 +59,7 @@ public class FrameManipulation extends Box {
 				.findFirst();
 			Vec2 point = new Vec2(e.after.mx, e.after.my);
 
-			Optional<Box> hit = breadthFirst(both()).filter(b -> frame(b) != null)
-				.filter(b -> !b.properties.isTrue(Box.hidden, false))
-				.filter(b -> Planes.on(root, b) >= 1)
-				.filter(b -> frame(b).intersects(point))
-				.sorted((a, b) -> Float.compare(order(frame(a)), order(frame(b))))
-				.findFirst();
+			Optional<Box> hit = Optional.ofNullable(Intersects.first(root, point, b -> !b.properties.isTrue(Box.hidden, false) && Planes.on(root, b) >= 1));
 
 			if (hit.isPresent()) {
 				Box hitBox = hit.get();
@@ -165,12 +160,7 @@ public class FrameManipulation extends Box {
 			.findFirst();
 		Vec2 point = new Vec2(e.after.mx, e.after.my);
 
-		Optional<Box> hit = breadthFirst(both()).filter(b -> frame(b) != null)
-			.filter(b -> !b.properties.isTrue(Box.hidden, false))
-			.filter(b -> Planes.on(root, b) >= 1)
-			.filter(b -> frame(b).intersects(point))
-			.sorted((a, b) -> Float.compare(order(frame(a)), order(frame(b))))
-			.findFirst();
+		Optional<Box> hit = Optional.ofNullable(Intersects.first(root, point, b -> !b.properties.isTrue(Box.hidden, false) && Planes.on(root, b) >= 1));
 
 		startTranslationFeedback();
 
@@ -220,13 +210,7 @@ public class FrameManipulation extends Box {
 
 		Vec2 point = new Vec2(e.after.mx, e.after.my);
 
-		Optional<Box> hit = breadthFirst(both()).filter(b -> frame(b) != null)
-			.filter(b -> !b.properties.isTrue(Box.hidden, false))
-			//.filter(b -> !b.properties.isTrue(Mouse.isSticky, false))
-			.filter(b -> Planes.on(root, b) >= 1)
-			.filter(b -> frame(b).intersects(point))
-			.sorted((a, b) -> Float.compare(order(frame(a)), order(frame(b))))
-			.findFirst();
+		Optional<Box> hit = Optional.ofNullable(Intersects.first(root, point, b -> !b.properties.isTrue(Box.hidden, false) && Planes.on(root, b) >= 1));
 
 
 		Log.log("selection", () -> "hit box is " + hit.orElse(null));
@@ -1,36 +1,239 @@
 package fieldbox.boxes;
 
+import field.app.RunLoop;
 import field.graphics.Window;
 import field.linalg.Vec2;
+import field.utility.Log;
+import field.utility.LooseQuadtree;
 import field.utility.Rect;
 import fieldbox.boxes.plugins.Planes;
 
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
 
 /**
  * This is becoming a pattern: event processing starts either at a mouse over'd box, or a selected box, or the root
+ * <p>
+ * Hit testing goes through a per-root Index (a LooseQuadtree over Box.frame) rather than a walk over the whole graph. The index is rebuilt when Box.topology changes and is otherwise updated from
+ * Box.onPropertyChange. Frames that are mutated in place (rather than put back into the box) are found by LooseQuadtree.revalidate(), which compares each frame with the copy the tree took of it;
+ * that's a pass over every box, so it's done at most once per RunLoop.tick, and a frame mutated in place is seen by hit tests from the next frame on.
  */
 public class Intersects {
 
+	static public int rebuilds = 0;
+	static public int updates = 0;
+
+	static protected final Map<Box, Index> indices = Collections.synchronizedMap(new WeakHashMap<>());
+
+	static {
+		Box.onPropertyChange(Box.frame, (b, p, was, now) -> changed(b));
+		Box.onPropertyChange(Mouse.isSelected, (b, p, was, now) -> changed(b));
+	}
+
 	static public Box startAt(Window.MouseState e, Box root) {
 		Vec2 point = e == null ? null : new Vec2(e.mx, e.my);
 
-		Optional<Box> hit = point == null ? Optional.empty() : root.breadthFirst(root.both())
-			.filter(b -> frame(b) != null)
-			.filter(b -> !b.properties.isTrue(Box.hidden, false))
-			.filter(b -> point == null || frame(b).intersects(point))
-			.filter(x -> !x.properties.isTrue(Mouse.isSticky, false))
-			.filter(x -> Planes.on(root, x)>=1)
-			.sorted((a, b) -> Float.compare(order(frame(a)), order(frame(b))))
-			.findFirst();
+		Index index = index(root);
+
+		Box hit = point == null ? null : index.first(root, point);
+		if (hit != null) return hit;
+
+		Box selected = index.firstSelected();
+		return selected == null ? root : selected;
+	}
+
+	/**
+	 * the smallest box whose frame contains 'point' and that passes 'accept' (ties go to the box nearest the root), or null. Unlike startAt, this doesn't skip hidden, sticky, disconnected or off
+	 * plane boxes unless 'accept' does
+	 */
+	static public Box first(Box root, Vec2 point, Predicate<Box> accept) {
+		return index(root).first(point, b -> frame(b) != null && accept.test(b));
+	}
+
+	/**
+	 * all boxes that are visible on the current planes and whose frame contains 'point', smallest first
+	 */
+	static public List<Box> at(Box root, Vec2 point) {
+		return index(root).at(root, point);
+	}
+
+	/**
+	 * all boxes that are visible on the current planes and whose frame overlaps 'rect', smallest first
+	 */
+	static public List<Box> in(Box root, Rect rect) {
+		return index(root).in(root, rect);
+	}
+
+	static public Index index(Box root) {
+		Index i = indices.computeIfAbsent(root, k -> new Index());
+		i.refresh(root);
+		return i;
+	}
+
+	/**
+	 * times 'queries' hit tests at random points inside the frames of the boxes under 'root', through the index and through the walk over the graph that it replaced, and logs (to
+	 * "intersects.trace") and returns the mean latency of each and the number of queries where they disagree
+	 */
+	static public String benchmark(Box root, int queries) {
+		List<Rect> frames = new ArrayList<>();
+		root.breadthFirst(root.both())
+		    .map(Intersects::frame)
+		    .filter(Objects::nonNull)
+		    .forEach(frames::add);
+		if (frames.isEmpty()) return "no frames to hit";
+
+		Random r = new Random(0);
+		Vec2[] points = new Vec2[queries];
+		for (int i = 0; i < queries; i++) {
+			Rect f = frames.get(r.nextInt(frames.size()));
+			points[i] = new Vec2(f.x + r.nextDouble() * f.w, f.y + r.nextDouble() * f.h);
+		}
+
+		Box[] indexed = new Box[queries];
+		long t0 = System.nanoTime();
+		for (int i = 0; i < queries; i++)
+			indexed[i] = index(root).first(root, points[i]);
+		long t1 = System.nanoTime();
+
+		int disagree = 0;
+		for (int i = 0; i < queries; i++) {
+			Vec2 point = points[i];
+			Box walked = root.breadthFirst(root.both())
+					 .filter(b -> !b.disconnected && frame(b) != null && !b.properties.isTrue(Box.hidden, false) && !b.properties.isTrue(Mouse.isSticky, false))
+					 .filter(b -> Planes.on(root, b) >= 1)
+					 .filter(b -> frame(b).intersects(point))
+					 .sorted((a, b) -> Float.compare(order(frame(a)), order(frame(b))))
+					 .findFirst()
+					 .orElse(null);
+			if (walked != indexed[i]) disagree++;
+		}
+		long t2 = System.nanoTime();
+
+		String s = queries + " queries over " + frames.size() + " frames: index " + String.format("%.2f", (t1 - t0) / 1000.0 / queries) + "us, graph walk " + String.format("%.2f", (t2 - t1) / 1000.0 / queries) + "us, " + disagree + " disagreement(s)";
+		Log.log("intersects.trace", () -> s);
+		return s;
+	}
+
+	static protected void changed(Box b) {
+		if (indices.isEmpty()) return;
+
+		synchronized (indices) {
+			for (Index i : indices.values())
+				i.dirty.add(b);
+		}
+	}
+
+	static public class Index {
+		protected final LooseQuadtree<Box> tree = new LooseQuadtree<>();
+
+		// breadth first order from the root, used to break ties the same way a walk over the graph would
+		protected final Map<Box, Integer> order = new HashMap<>();
+		protected final Set<Box> selected = new LinkedHashSet<>();
+		protected final Queue<Box> dirty = new ConcurrentLinkedQueue<>();
+
+		protected int topology = -1;
+		protected long revalidated = -1;
+
+		protected void refresh(Box root) {
+			if (topology != Box.topology) {
+				rebuild(root);
+				return;
+			}
+
+			Box b;
+			while ((b = dirty.poll()) != null) {
+				if (!order.containsKey(b)) continue;
+				update(b);
+				updates++;
+			}
+
+			// frames that have been changed in place, rather than put back into their box, once a frame
+			if (revalidated != RunLoop.tick) {
+				revalidated = RunLoop.tick;
+				updates += tree.revalidate();
+			}
+		}
+
+		protected void rebuild(Box root) {
+			topology = Box.topology;
+			revalidated = RunLoop.tick;
+			dirty.clear();
+			tree.clear();
+			order.clear();
+			selected.clear();
+
+			root.breadthFirst(root.both())
+			    .forEach(b -> {
+				    order.put(b, order.size());
+				    update(b);
+			    });
+			rebuilds++;
+		}
+
+		protected void update(Box b) {
+			Rect f = frame(b);
+			if (f == null) tree.remove(b);
+			else tree.update(b, f);
+
+			if (b.properties.isTrue(Mouse.isSelected, false)) selected.add(b);
+			else selected.remove(b);
+		}
+
+		public Box first(Box root, Vec2 point) {
+			return first(point, b -> hittable(root, b));
+		}
+
+		public Box first(Vec2 point, Predicate<Box> accept) {
+			Box[] best = {null};
+			float[] bestOrder = {Float.POSITIVE_INFINITY};
+
+			tree.query((float) point.x, (float) point.y, b -> {
+				if (!accept.test(b) || !frame(b).intersects(point)) return;
+				float o = order(frame(b));
+				if (best[0] == null || o < bestOrder[0] || (o == bestOrder[0] && order.get(b) < order.get(best[0]))) {
+					best[0] = b;
+					bestOrder[0] = o;
+				}
+			});
+			return best[0];
+		}
+
+		public List<Box> at(Box root, Vec2 point) {
+			List<Box> r = new ArrayList<>();
+			tree.query((float) point.x, (float) point.y, b -> {
+				if (hittable(root, b) && frame(b).intersects(point)) r.add(b);
+			});
+			r.sort(this::compare);
+			return r;
+		}
+
+		public List<Box> in(Box root, Rect rect) {
+			List<Box> r = new ArrayList<>();
+			tree.query(rect, b -> {
+				if (hittable(root, b) && frame(b).intersects(rect)) r.add(b);
+			});
+			r.sort(this::compare);
+			return r;
+		}
 
-		Box startAt = hit.orElseGet(() -> root.breadthFirst(root.both())
-			.filter(x -> x.properties.isTrue(Mouse.isSelected, false) && !x.properties.isTrue(Mouse.isSticky, false))
-			.findFirst()
-			.orElseGet(() -> root));
+		public Box firstSelected() {
+			Box best = null;
+			for (Box b : selected) {
+				if (b.disconnected || b.properties.isTrue(Mouse.isSticky, false) || !b.properties.isTrue(Mouse.isSelected, false)) continue;
+				if (best == null || order.get(b) < order.get(best)) best = b;
+			}
+			return best;
+		}
 
-		return startAt;
+		protected int compare(Box a, Box b) {
+			int c = Float.compare(order(frame(a)), order(frame(b)));
+			return c != 0 ? c : Integer.compare(order.get(a), order.get(b));
+		}
 
+		protected boolean hittable(Box root, Box b) {
+			return !b.disconnected && frame(b) != null && !b.properties.isTrue(Box.hidden, false) && !b.properties.isTrue(Mouse.isSticky, false) && Planes.on(root, b) >= 1;
+		}
 	}
 
 
@@ -53,10 +53,17 @@ public class Mouse {
 	long lastStartAtTime = 0;
 	int click = 0;
 
+	Optional<Drawing> drawing = Optional.empty();
+	int drawingAtTopology = -1;
+
 	public void dispatch(Box root, Window.Event<Window.MouseState> event) {
 
-		Optional<Drawing> drawing = root.find(Drawing.drawing, root.both())
-						.findFirst();
+		// finding the drawing is a walk over the graph, only worth redoing when the graph has changed
+		if (drawingAtTopology != Box.topology || !drawing.isPresent()) {
+			drawing = root.find(Drawing.drawing, root.both())
+				      .findFirst();
+			drawingAtTopology = Box.topology;
+		}
 		if (drawing.isPresent())
 		{
 			fixDrawingSpace(drawing, event.after);
@@ -6,16 +6,20 @@ import field.app.RunLoop;
 import field.message.MessageQueue;
 import field.utility.*;
 
-import java.util.Collection;
-import java.util.LinkedHashMap;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 /**
  * Plugin: Watches for properties being changed and then fires change events off to the message bus.
+ * <p>
+ * Changes are pushed to us by Box.onPropertyChange as they happen and delivered, coalesced per box and property, once per update. The cost is proportional to the number of changes, not to the
+ * number of boxes. Values that are mutated in place (rather than put back into the box) are invisible to this; call poll(...) for properties that need the old per-frame comparison.
  */
 public class Watches extends Box  {
 
@@ -30,7 +34,8 @@ public class Watches extends Box  {
 
 	public Watches()
 	{
-		this.messageQueue = new MessageQueue<Quad<Dict.Prop, Box,  Object, Object>, String>() {
+		// handlers are called directly from the main loop, which is where they've always been safe to touch the box graph from
+		this.messageQueue = new MessageQueue<Quad<Dict.Prop, Box,  Object, Object>, String>((Executor) Runnable::run, LinkedBlockingQueue::new) {
 			@Override
 			protected Consumer<Boolean> makeQueueServiceThread(BiConsumer<String, Quad<Dict.Prop, Box,  Object, Object>> to) {
 
@@ -61,40 +66,87 @@ public class Watches extends Box  {
 
 	SetMultimap<Dict.Prop, String> allWatches = MultimapBuilder.linkedHashKeys().linkedHashSetValues().build();
 
+	// properties that still need to be compared every update, because their values get changed in place
+	Set<Dict.Prop> polled = new LinkedHashSet<>();
+
+	// properties whose watches were added since the last update, these get one complete pass to pick up values that were there before we were listening
+	Set<Dict.Prop> unseeded = new LinkedHashSet<>();
+
+	Queue<Pair<Box, Dict.Prop>> changes = new ConcurrentLinkedQueue<>();
+	Box.OnPropertyChange listener = (target, p, was, now) -> changes.add(new Pair<>(target, p));
+
+	static public int delivered = 0;
+
 	protected boolean update() {
 
-		breadthFirst(both()).forEach((x) -> {
-			LinkedHashMap<Dict.Prop, Object> previous = x.properties.computeIfAbsent(watchedPrevious, (k) -> new LinkedHashMap<>());
-			for (Dict.Prop p : allWatches .keySet()) {
-				Object was = previous.get(p);
-				Object now = x.properties.get(p);
-
-				if (!Util.safeEq(was, now))
-				{
-					fire(p, x, was, now, allWatches .get(p));
-					// fetch it again, fire can change the value of the property
-					now = x.properties.get(p);
-					previous.put(p, now instanceof Mutable ? ((Mutable)now).duplicate() : now);
-				}
-			}
-		});
+		if (unseeded.size() > 0 || polled.size() > 0) {
+			Set<Dict.Prop> everywhere = new LinkedHashSet<>(unseeded);
+			everywhere.addAll(polled);
+			unseeded.clear();
+
+			breadthFirst(both()).forEach((x) -> {
+				for (Dict.Prop p : everywhere)
+					check(x, p);
+			});
+		}
+
+		if (changes.peek() == null) return true;
+
+		LinkedHashSet<Pair<Box, Dict.Prop>> c = new LinkedHashSet<>();
+		Pair<Box, Dict.Prop> n;
+		while ((n = changes.poll()) != null)
+			c.add(n);
+
+		for (Pair<Box, Dict.Prop> q : c)
+			if (!q.first.disconnected) check(q.first, q.second);
+
 		return true;
 	}
 
+	protected void check(Box x, Dict.Prop p) {
+		LinkedHashMap<Dict.Prop, Object> previous = x.properties.computeIfAbsent(watchedPrevious, (k) -> new LinkedHashMap<>());
+		Object was = previous.get(p);
+		Object now = x.properties.get(p);
+
+		if (!Util.safeEq(was, now)) {
+			delivered++;
+			fire(p, x, was, now, allWatches.get(p));
+			// fetch it again, fire can change the value of the property
+			now = x.properties.get(p);
+			previous.put(p, now instanceof Mutable ? ((Mutable) now).duplicate() : now);
+		}
+	}
+
+	/**
+	 * compare 'property' on every box, every update, in addition to listening for it to be set. Only needed for properties with values that are mutated in place
+	 */
+	public Watches poll(Dict.Prop property) {
+		polled.add(property);
+		return this;
+	}
+
 	public String addWatch(Dict.Prop property, String address)
 	{
+		listenTo(property);
 		allWatches .put(property, address);
 		return address;
 	}
 
+	protected void listenTo(Dict.Prop property) {
+		if (allWatches.containsKey(property)) return;
+		unseeded.add(property);
+		Box.onPropertyChange(property, listener);
+	}
+
 	public <T> String addWatch(Dict.Prop<T> property, Consumer<Quad<Dict.Prop<T>, Box,  T, T>> c)
 	{
 		// weakness in Java typing. We can't quite use 'c' below in the messageQueue callback, nor can we cast 'x'.
 		Consumer cc = c;
 
 		String address = UUID.randomUUID().toString();
+		listenTo(property);
 		allWatches .put(property, address);
-		messageQueue.register(x -> x.equals(address), x -> {
+		messageQueue.registerExact(address, x -> {
 			cc.accept(x);
 		});
 		return address;
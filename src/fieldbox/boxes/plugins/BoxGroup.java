@@ -204,7 +204,7 @@ public class BoxGroup extends Box implements IO.Loaded {
 			.filter(x -> x != this)
 			.forEach(x -> {
 				collapsedState.put(x.properties.getOrConstruct(IO.id), x.disconnected);
-				x.disconnected = true;
+				x.setDisconnected(true);
 			});
 		Drawing.dirty(this, 2);
 	}
@@ -217,7 +217,7 @@ public class BoxGroup extends Box implements IO.Loaded {
 			.filter(x -> x != this)
 			.forEach(x -> {
 				Boolean m = collapsedState.get(x.properties.getOrConstruct(IO.id));
-				x.disconnected = m != null ? m.booleanValue() : false;
+				x.setDisconnected(m != null ? m.booleanValue() : false);
 			});
 
 		Drawing.dirty(this, 2);
@@ -13,19 +13,49 @@ import fieldbox.ui.FieldBoxWindow;
 
 import java.io.File;
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
  * Plugin that adds the ability to easily put (jpg) images on the canvas.
+ * <p>
+ * Decoded images come from ImageCache.shared, and each image is drawn from the smallest level of that cache that still has at least as many pixels as it covers on screen. A small proxy is shown
+ * first and replaced by finer levels as (and if) the view zooms in on it.
+ * <p>
+ * Levels no bigger than atlasMax on either side are packed into a TextureAtlas and every image on a page of it is drawn by one mesh, so a canvas full of small images costs a texture bind and a
+ * draw call per page rather than per image. Larger levels get a texture (and a mesh) of their own.
  */
 public class Image extends Box {
 
 	static public final Dict.Prop<Function<String, TextureLoader>> newImage = new Dict.Prop<>("newImage").toCannon();
-	FastJPEG j = new FastJPEG();
+
+	/**
+	 * the level of detail that an image is first shown at fits in this many pixels on its longest side
+	 */
+	static public int proxySize = 256;
+
+	/**
+	 * set to false to give every image its own texture and mesh
+	 */
+	static public boolean atlasing = true;
+
+	/**
+	 * levels up to this many pixels on a side go into the atlas, which has pages of atlasPageSize x atlasPageSize
+	 */
+	static public int atlasMax = 512;
+	static public int atlasPageSize = 2048;
+
+	JPEGLoader j = FastJPEG.j;
+	ImageCache cache = ImageCache.shared;
 	Map<String, PerLayer> layerLocal = new LinkedHashMap<>();
+	Drawing drawing;
 
 
 	public Image(Box root) {
@@ -44,6 +74,8 @@ public class Image extends Box {
 				      .orElseThrow(() -> new IllegalArgumentException(" can't install Image into something without drawing support"));
 
 
+		if (this.drawing == null) this.drawing = drawing;
+
 		PerLayer layer = layerLocal.computeIfAbsent(layerName, (k) -> new PerLayer());
 
 		layer.mainShader = new Shader();
@@ -88,6 +120,9 @@ public class Image extends Box {
 		layer.mainShader.attach(new Uniform<Vec2>("scale", () -> drawing.getScale()));
 		layer.mainShader.attach(new Uniform<Vec2>("bounds", () -> new Vec2(Window.getCurrentWidth(), Window.getCurrentHeight())));
 
+		layer.atlas = new TextureAtlas(0, atlasPageSize, 3);
+		layer.mainShader.attach(-150, (x) -> layer.atlas.flush());
+
 		window.getCompositor()
 		      .getLayer(layerName)
 		      .getScene()
@@ -101,6 +136,55 @@ public class Image extends Box {
 		return new TextureLoader(filename);
 	}
 
+	/**
+	 * the atlas that small images on this layer are packed into (its toString reports occupancy and fragmentation)
+	 */
+	public TextureAtlas getAtlas(String layerName) {
+		PerLayer pl = layerLocal.get(layerName);
+		return pl == null ? null : pl.atlas;
+	}
+
+	/**
+	 * every image on one page of the atlas, drawn by one mesh. Each image has a slot of 4 vertices and 2 triangles; the last image moves into the slot of one that leaves
+	 */
+	protected class Batch {
+		protected final BaseMesh mesh = BaseMesh.triangleList(4, 2);
+		protected final List<TextureLoader> members = new ArrayList<>();
+
+		protected Batch(PerLayer layer, TextureAtlas.Page page) {
+			mesh.attach(page.texture);
+			mesh.attach(-100, (x) -> {
+				for (TextureLoader t : new ArrayList<>(members))
+					t.update();
+			});
+			mesh.setVertexLimit(0);
+			mesh.setElementLimit(0);
+			layer.mainShader.attach(new Guard(mesh, (p) -> mesh.getVertexLimit() > 0));
+		}
+
+		protected void add(TextureLoader t) {
+			t.slot = members.size();
+			members.add(t);
+			limits();
+		}
+
+		protected void remove(TextureLoader t) {
+			TextureLoader moved = members.remove(members.size() - 1);
+			if (moved != t) {
+				members.set(t.slot, moved);
+				moved.slot = t.slot;
+				moved.write();
+			}
+			t.slot = -1;
+			limits();
+		}
+
+		protected void limits() {
+			mesh.setVertexLimit(4 * members.size());
+			mesh.setElementLimit(2 * members.size());
+		}
+	}
+
 	public class TextureLoader {
 		public String filename;
 		public ByteBuffer data;
@@ -110,6 +194,24 @@ public class Image extends Box {
 		public int w;
 		public int h;
 
+		/**
+		 * the ImageCache level currently on screen (-1 if nothing is yet) and the one that's being fetched (-1 if none)
+		 */
+		public int level = -1;
+		protected int fetching = -1;
+
+		protected Rect rect;
+		protected Rect crop;
+		protected Vec4 color;
+		protected boolean attached = false;
+
+		/**
+		 * where this is in the atlas, and its batch and slot in that batch, if the level on screen is in the atlas
+		 */
+		protected TextureAtlas.Region region;
+		protected Batch batch;
+		protected int slot = -1;
+
 		public Consumer<TextureLoader> updator = null;
 
 		public TextureLoader(String filename) {
@@ -117,28 +219,19 @@ public class Image extends Box {
 			int[] d = j.dimensions(filename);
 			w = d[0];
 			h = d[1];
-			data = ByteBuffer.allocateDirect(w * h * 3);
-			target = new Texture(Texture.TextureSpecification.byte3(0, w, h, data, true));
-			target.setIsDoubleBuffered(false);
-			RunLoop.workerPool.submit(() -> {
-				j.decompress(filename, data, w, h);
-				target.upload(data, false);
-				loaded = true;
-				Drawing.dirty(Image.this);
-				return null;
-			});
 			mesh = BaseMesh.triangleList(4, 2);
-			mesh.attach(target);
 
 			geometry(new Rect(0, 0, 10 * w / (float) h, 10));
 			color(new Vec4(1, 1, 1, 0.5f));
 
-			PerLayer pl = layerLocal.computeIfAbsent("__main__", (k) -> new PerLayer());
-			pl.mainShader.attach(mesh);
+			fetch(ImageCache.levelFor(w, h, proxySize * w / (double) Math.max(w, h), proxySize * h / (double) Math.max(w, h)));
 
-			mesh.attach(-100, (x) -> {
-				if (updator!=null) updator.accept(this);
-			});
+			mesh.attach(-100, (x) -> update());
+		}
+
+		protected void update() {
+			if (updator != null) updator.accept(this);
+			refine();
 		}
 
 		public void makeLive(Consumer<TextureLoader> updator)
@@ -168,10 +261,19 @@ public class Image extends Box {
 			this.filename = s;
 			if (!new File(filename).exists())
 			{
+				cache.evictFile(filename);
+				if (region != null) {
+					layer().atlas.write(region, ByteBuffer.allocateDirect(3 * region.width * region.height));
+					Drawing.dirty(Image.this);
+					return;
+				}
+				Texture target = this.target;
+				if (data == null || target == null) return;
+				// 'data' is the ImageCache's level, shared with anything else showing it, so upload a blank copy rather than clearing it
+				ByteBuffer blank = ByteBuffer.allocateDirect(data.capacity());
+				data = blank;
 				RunLoop.workerPool.submit(() -> {
-					for(int i=0;i<data.capacity();i++)
-						data.put(i, (byte)0);
-					target.upload(data, false);
+					target.upload(blank, false);
 					loaded = true;
 					Drawing.dirty(Image.this);
 					return null;
@@ -181,19 +283,82 @@ public class Image extends Box {
 
 			int[] d = j.dimensions(filename);
 			if (d[0]!=w || d[1]!=h) throw new IllegalArgumentException(" dimensions mismatch :"+d[0]+"!="+w+" || "+d[1]+"!="+h);
-			RunLoop.workerPool.submit(() -> {
-				j.decompress(filename, data, w, h);
-				target.upload(data, false);
-				loaded = true;
-				Drawing.dirty(Image.this);
-				return null;
-			});
+			fetching = -1;
+			fetch(Math.max(0, level));
 		}
 
 		public void delete()
 		{
-			PerLayer pl = layerLocal.computeIfAbsent("__main__", (k) -> new PerLayer());
-			pl.mainShader.detach(mesh);
+			release();
+		}
+
+		protected PerLayer layer() {
+			return layerLocal.computeIfAbsent("__main__", (k) -> new PerLayer());
+		}
+
+		// takes this off the screen: out of its batch (giving its region of the atlas back) or off its own mesh
+		protected void release() {
+			if (batch != null) batch.remove(this);
+			batch = null;
+			if (region != null) layer().atlas.free(region);
+			region = null;
+			if (attached) layer().mainShader.detach(mesh);
+			attached = false;
+			if (target != null) mesh.detach(target);
+			target = null;
+		}
+
+		/**
+		 * asks for a finer level if this is drawn bigger than the one it has, or a coarser one (so that the finer one can be evicted) if it's now drawn at less than half that
+		 */
+		protected void refine() {
+			if (drawing == null || rect == null || level == -1) return;
+			Vec2 s = drawing.getScale();
+			int want = ImageCache.levelFor(w, h, rect.w * s.x * w / crop.w, rect.h * s.y * h / crop.h);
+			if (want < level || want > level + 1) fetch(want);
+		}
+
+		protected void fetch(int want) {
+			if (want == fetching) return;
+			fetching = want;
+			String f = filename;
+			CompletableFuture<ImageCache.Level> c = cache.request(f, want);
+			c.thenAccept(l -> RunLoop.main.once(() -> {
+				if (fetching != l.level || !f.equals(filename)) return;
+				fetching = -1;
+				show(l);
+			}));
+		}
+
+		protected void show(ImageCache.Level l) {
+			PerLayer pl = layer();
+			TextureAtlas.Region r = atlasing && pl.atlas != null && l.width <= atlasMax && l.height <= atlasMax ? pl.atlas.allocate(l.width, l.height) : null;
+
+			release();
+
+			if (r != null) {
+				pl.atlas.write(r, l.data);
+				region = r;
+				batch = pl.batches.computeIfAbsent(r.page, (k) -> new Batch(pl, k));
+				batch.add(this);
+			} else {
+				Texture t = new Texture(Texture.TextureSpecification.byte3(0, l.width, l.height, l.data, true));
+				t.setIsDoubleBuffered(false);
+				t.upload(l.data, false);
+
+				mesh.attach(t);
+				target = t;
+				pl.mainShader.attach(mesh);
+				attached = true;
+			}
+			data = l.data;
+			level = l.level;
+
+			// texture coordinates are in the pixels of the level (or of the atlas page it's on)
+			write();
+
+			loaded = true;
+			Drawing.dirty(Image.this);
 		}
 
 		public TextureLoader geometry(Rect r) {
@@ -201,57 +366,82 @@ public class Image extends Box {
 		}
 
 		public TextureLoader geometry(Rect r, Rect crop) {
-			mesh.vertex()
-			    .put(r.x)
-			    .put(r.y)
-			    .put(0)
-			    .put(r.x + r.w)
-			    .put(r.y)
-			    .put(0)
-			    .put(r.x + r.w)
-			    .put(r.y + r.h)
-			    .put(0)
-			    .put(r.x)
-			    .put(r.y + r.h)
-			    .put(0);
-			mesh.aux(2, 2)
-			    .put(crop.x)
-			    .put(crop.y)
-			    .put(crop.x + crop.w)
-			    .put(crop.y)
-			    .put(crop.x + crop.w)
-			    .put(crop.y + crop.h)
-			    .put(crop.x)
-			    .put(crop.y + crop.h);
-			mesh.elements().put(0).put(1).put(2).put(0).put(2).put(3);
+			this.rect = r;
+			this.crop = crop;
+			write();
 			return this;
 		}
 
 		public TextureLoader color(Vec4 c) {
-			mesh.aux(1, 4)
-			    .put((float) c.x)
-			    .put((float) c.y)
-			    .put((float) c.z)
-			    .put((float) c.w)
-			    .put((float) c.x)
-			    .put((float) c.y)
-			    .put((float) c.z)
-			    .put((float) c.w)
-			    .put((float) c.x)
-			    .put((float) c.y)
-			    .put((float) c.z)
-			    .put((float) c.w)
-			    .put((float) c.x)
-			    .put((float) c.y)
-			    .put((float) c.z)
-			    .put((float) c.w);
+			this.color = new Vec4(c);
+			write();
 			return this;
 		}
 
+		// writes this image's quad into its slot of its batch, or into its own mesh
+		protected void write() {
+			if (rect == null || color == null) return;
+
+			BaseMesh on = batch == null ? mesh : batch.mesh;
+			int at = batch == null ? 0 : slot;
+
+			Rect r = rect;
+			float sx = level == -1 ? 1 : ImageCache.sizeAt(w, level) / (float) w;
+			float sy = level == -1 ? 1 : ImageCache.sizeAt(h, level) / (float) h;
+			float ox = region == null ? 0 : region.x;
+			float oy = region == null ? 0 : region.y;
+
+			FloatBuffer v = on.vertex();
+			v.position(12 * at);
+			v.put(r.x)
+			 .put(r.y)
+			 .put(0)
+			 .put(r.x + r.w)
+			 .put(r.y)
+			 .put(0)
+			 .put(r.x + r.w)
+			 .put(r.y + r.h)
+			 .put(0)
+			 .put(r.x)
+			 .put(r.y + r.h)
+			 .put(0);
+
+			FloatBuffer t = on.aux(2, 2);
+			t.position(8 * at);
+			t.put(ox + crop.x * sx)
+			 .put(oy + crop.y * sy)
+			 .put(ox + (crop.x + crop.w) * sx)
+			 .put(oy + crop.y * sy)
+			 .put(ox + (crop.x + crop.w) * sx)
+			 .put(oy + (crop.y + crop.h) * sy)
+			 .put(ox + crop.x * sx)
+			 .put(oy + (crop.y + crop.h) * sy);
+
+			FloatBuffer c = on.aux(1, 4);
+			c.position(16 * at);
+			for (int i = 0; i < 4; i++)
+				c.put((float) color.x)
+				 .put((float) color.y)
+				 .put((float) color.z)
+				 .put((float) color.w);
+
+			IntBuffer e = on.elements();
+			e.position(6 * at);
+			int b = 4 * at;
+			e.put(b)
+			 .put(b + 1)
+			 .put(b + 2)
+			 .put(b)
+			 .put(b + 2)
+			 .put(b + 3);
+		}
+
 	}
 
 	public class PerLayer {
 		protected Shader mainShader;
+		protected TextureAtlas atlas;
+		protected Map<TextureAtlas.Page, Batch> batches = new LinkedHashMap<>();
 	}
 
 
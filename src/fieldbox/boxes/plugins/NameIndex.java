@@ -0,0 +1,217 @@
+package fieldbox.boxes.plugins;
+
+import field.utility.Dict;
+import fieldbox.boxes.Box;
+import fieldbox.io.IO;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Pattern;
+
+/**
+ * An index from Box.name and IO.id to the boxes below a particular box. This answers Pseudo's `_.named.x` and `_.withID.x` without a walk over the graph.
+ * <p>
+ * One of these is kept (in the property _nameIndex) on every box that has been searched from. It's rebuilt, with one breadth first walk downwards, when Box.topology changes and otherwise kept
+ * up to date from Box.onPropertyChange. Results are always in the same (breadth first) order that walking the graph would give.
+ */
+public class NameIndex {
+
+	static public final Dict.Prop<NameIndex> nameIndex = new Dict.Prop<>("_nameIndex");
+
+	static public int rebuilds = 0;
+
+	static protected final Set<NameIndex> live = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+	static {
+		Box.onPropertyChange(Box.name, (b, p, was, now) -> changed(b));
+		Box.onPropertyChange(IO.id, (b, p, was, now) -> changed(b));
+	}
+
+	static protected void changed(Box b) {
+		if (live.isEmpty()) return;
+		synchronized (live) {
+			for (NameIndex i : live)
+				i.dirty.add(b);
+		}
+	}
+
+	static public NameIndex of(Box on) {
+		NameIndex i = on.properties.computeIfAbsent(nameIndex, k -> {
+			NameIndex n = new NameIndex(on);
+			live.add(n);
+			return n;
+		});
+		i.refresh();
+		return i;
+	}
+
+	static protected final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(64, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+			return size() > 256;
+		}
+	};
+
+	/**
+	 * compiled Patterns, cached
+	 */
+	static public Pattern pattern(String regex) {
+		synchronized (patterns) {
+			return patterns.computeIfAbsent(regex, Pattern::compile);
+		}
+	}
+
+	static protected boolean isLiteral(String s) {
+		for (int i = 0; i < s.length(); i++)
+			if ("\\[](){}.*+?^$|".indexOf(s.charAt(i)) != -1) return false;
+		return true;
+	}
+
+	protected final Box on;
+	protected int topology = -1;
+
+	protected final Map<Box, Integer> order = new HashMap<>();
+	protected final Map<Box, String> nameOf = new HashMap<>();
+	protected final Map<Box, String> idOf = new HashMap<>();
+
+	// sorted, so a range of this is everything starting with a prefix
+	protected final TreeMap<String, List<Box>> byName = new TreeMap<>();
+	protected final Map<String, List<Box>> byID = new HashMap<>();
+
+	// results of regex queries, cleared by any change
+	protected final Map<String, List<Box>> matched = new HashMap<>();
+
+	protected final Queue<Box> dirty = new ConcurrentLinkedQueue<>();
+
+	protected NameIndex(Box on) {
+		this.on = on;
+	}
+
+	protected synchronized void refresh() {
+		if (topology != Box.topology) {
+			rebuild();
+			return;
+		}
+
+		Box b;
+		while ((b = dirty.poll()) != null) {
+			if (!order.containsKey(b)) continue;
+			remove(b);
+			add(b);
+			matched.clear();
+		}
+	}
+
+	protected void rebuild() {
+		topology = Box.topology;
+		dirty.clear();
+		order.clear();
+		nameOf.clear();
+		idOf.clear();
+		byName.clear();
+		byID.clear();
+		matched.clear();
+
+		on.breadthFirst(on.downwards())
+		  .forEach(x -> {
+			  order.put(x, order.size());
+			  add(x);
+		  });
+		rebuilds++;
+	}
+
+	protected void add(Box b) {
+		String n = b.properties.get(Box.name);
+		if (n != null) {
+			nameOf.put(b, n);
+			insert(byName.computeIfAbsent(n, k -> new ArrayList<>(1)), b);
+		}
+		String i = b.properties.get(IO.id);
+		if (i != null) {
+			idOf.put(b, i);
+			insert(byID.computeIfAbsent(i, k -> new ArrayList<>(1)), b);
+		}
+	}
+
+	protected void remove(Box b) {
+		String n = nameOf.remove(b);
+		if (n != null) remove(byName, n, b);
+		String i = idOf.remove(b);
+		if (i != null) remove(byID, i, b);
+	}
+
+	protected void insert(List<Box> l, Box b) {
+		int o = order.get(b);
+		int at = 0;
+		while (at < l.size() && order.get(l.get(at)) < o) at++;
+		l.add(at, b);
+	}
+
+	protected void remove(Map<String, List<Box>> m, String k, Box b) {
+		List<Box> l = m.get(k);
+		if (l == null) return;
+		l.remove(b);
+		if (l.isEmpty()) m.remove(k);
+	}
+
+	/**
+	 * all boxes whose name matches the regular expression 'p'
+	 */
+	public synchronized List<Box> named(String p) {
+		if (isLiteral(p)) return connected(byName.get(p));
+
+		List<Box> r = matched.get(p);
+		if (r == null) {
+			Pattern pattern = pattern(p);
+			r = new ArrayList<>();
+			for (Map.Entry<String, List<Box>> e : byName.entrySet())
+				if (pattern.matcher(e.getKey())
+					   .matches()) r.addAll(e.getValue());
+			r.sort(Comparator.comparing(order::get));
+			matched.put(p, r);
+		}
+		return connected(r);
+	}
+
+	/**
+	 * the first box whose id matches the regular expression 'p'
+	 */
+	public synchronized Box withID(String p) {
+		if (isLiteral(p)) {
+			List<Box> r = connected(byID.get(p));
+			return r.size() > 0 ? r.get(0) : null;
+		}
+
+		Pattern pattern = pattern(p);
+		Box best = null;
+		for (Map.Entry<String, List<Box>> e : byID.entrySet())
+			if (pattern.matcher(e.getKey())
+				   .matches()) for (Box b : e.getValue())
+				if (!b.disconnected && (best == null || order.get(b) < order.get(best))) best = b;
+		return best;
+	}
+
+	/**
+	 * all names that start with 'prefix'
+	 */
+	public synchronized Set<String> namesStartingWith(String prefix) {
+		SortedMap<String, List<Box>> m = prefix.length() == 0 ? byName : byName.subMap(prefix, prefix + Character.MAX_VALUE);
+		Set<String> r = new LinkedHashSet<>();
+		for (Map.Entry<String, List<Box>> e : m.entrySet())
+			for (Box b : e.getValue())
+				if (!b.disconnected) {
+					r.add(e.getKey());
+					break;
+				}
+		return r;
+	}
+
+	// 'disconnected' can be changed without a change in topology, so it's filtered out here rather than in the index
+	protected List<Box> connected(List<Box> l) {
+		if (l == null) return new ArrayList<>();
+		List<Box> r = new ArrayList<>(l.size());
+		for (Box b : l)
+			if (!b.disconnected) r.add(b);
+		return r;
+	}
+}
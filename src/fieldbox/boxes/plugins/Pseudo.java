@@ -9,7 +9,6 @@ import fieldbox.boxes.Box;
 import fieldbox.boxes.Boxes;
 import fieldbox.execution.Completion;
 import fieldbox.execution.HandlesCompletion;
-import fieldbox.io.IO;
 import fieldlinker.AsMap;
 
 import java.util.*;
@@ -201,11 +200,7 @@ public class Pseudo extends Box {
 
         @Override
         public Object asMap_get(String p) {
-            return on.breadthFirst(on.downwards())
-                    .filter(x -> x.properties.has(Box.name))
-                    .filter(x -> x.properties.get(Box.name)
-                            .matches(p))
-                    .collect(Collectors.toList());
+            return NameIndex.of(on).named(p);
         }
 
         @Override
@@ -235,9 +230,7 @@ public class Pseudo extends Box {
         }
 
         public List<Completion> getCompletionsFor(String prefix) {
-            Set<String> q = on.breadthFirst(on.downwards())
-                    .filter(x -> x.properties.has(Box.name))
-                    .map(x -> x.properties.get(Box.name)).filter(x -> x.startsWith(prefix)).collect(Collectors.toSet());
+            Set<String> q = NameIndex.of(on).namesStartingWith(prefix);
 
             List<Completion> c = new ArrayList<>();
 
@@ -312,11 +305,7 @@ public class Pseudo extends Box {
 
         @Override
         public Object asMap_get(String p) {
-            return on.breadthFirst(on.downwards())
-                    .filter(x -> x.properties.has(IO.id))
-                    .filter(x -> x.properties.get(IO.id)
-                            .matches(p))
-                    .findFirst().orElse(null);
+            return NameIndex.of(on).withID(p);
         }
 
         @Override
@@ -521,6 +510,8 @@ public class Pseudo extends Box {
         @Override
         public Object asMap_get(String s) {
             Dict.Prop p = new Dict.Prop(s);
+            // the common case, and it saves a walk
+            if (on.properties.has(p) && !on.disconnected) return on;
             return on.breadthFirst(on.upwards())
                     .filter(x -> x.properties.has(p))
                     .findFirst()
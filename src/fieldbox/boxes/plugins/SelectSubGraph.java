@@ -129,10 +129,10 @@ public class SelectSubGraph extends Box {
 			this.proxyForDrawing = proxy;
 			cacheDrawingProxy();
 
-			root.children().forEach(x -> x.disconnected = true);
+			root.children().forEach(x -> x.setDisconnected(true));
 
 			for (Box cc : newChildren) {
-				cc.disconnected = false;
+				cc.setDisconnected(false);
 				cc.properties.put(Boxes.dontSave, true);
 				root.connect(cc);
 			}
@@ -140,7 +140,7 @@ public class SelectSubGraph extends Box {
 			quitModal = () -> {
 				for (Box cc : newChildren) {
 					root.disconnect(cc);
-					cc.disconnected = true;
+					cc.setDisconnected(true);
 				}
 				proxyForDrawing = null;
 				m.close();
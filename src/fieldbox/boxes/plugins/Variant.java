@@ -136,7 +136,7 @@ public class Variant extends Box implements IO.Loaded {
 		@Override
 		public void close() {
 			for (Map.Entry<Box, Boolean> e : state.entrySet()) {
-				e.getKey().disconnected = e.getValue();
+				e.getKey().setDisconnected(e.getValue());
 			}
 
 		}
@@ -158,7 +158,7 @@ public class Variant extends Box implements IO.Loaded {
 		Memo m = freezeGraph(documentRoot);
 		documentRoot.breadthFirstAll(documentRoot.both())
 			.forEach(x -> {
-				x.disconnected = false;
+				x.setDisconnected(false);
 			});
 		return m;
 	}
@@ -364,7 +364,7 @@ public class Variant extends Box implements IO.Loaded {
 			if (t == null) return;
 
 			if (isIncluded(x, t)) {
-				x.disconnected = false;
+				x.setDisconnected(false);
 				x.properties.getOrConstruct(excludes)
 					.remove(t);
 
@@ -378,7 +378,7 @@ public class Variant extends Box implements IO.Loaded {
 
 			}
 
-			if (isExcluded(x, t)) x.disconnected = true;
+			if (isExcluded(x, t)) x.setDisconnected(true);
 
 			installDrawer(x, t);
 		});
@@ -0,0 +1,238 @@
+package fieldbox.execution;
+
+import field.utility.Log;
+import fieldbox.io.IO;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * A persistent index of what JavaSupport found on the classpath, so that it doesn't have to look again on every startup.
+ * <p>
+ * Each entry belongs to a jar, a src.zip, a source tree or the runtime image, and is stamped with the modification time and size of that source (for a directory, the newest modification time and the
+ * total size of everything in it). An entry is only handed back by get(...) if the stamp still matches; otherwise the caller re-indexes that one source and put(...)s the result. An entry holds class
+ * names (each with the thing we show next to it in import help) and, for sources, the first paragraph of each top level class's javadoc and the URL of the .java file it came from, so that QDox only
+ * needs to parse a file when something actually asks for it.
+ * <p>
+ * The file is memory mapped and read once at startup. Layout, where every count and length is an unsigned LEB128 varint and strings are (utf-8 length, utf-8 bytes):
+ * <pre>
+ *   magic 'FCI1'
+ *   entries: count, then for each
+ *     key string, mtime (8 bytes), size (8 bytes)
+ *     classes: count, then (name string, owner string)
+ *     sources: count, then (name string, url string, doc string)
+ * </pre>
+ */
+public class ClassIndex {
+
+	static public final int MAGIC = 0x46434931;
+
+	static public class Entry {
+		public final String key;
+		public final long mtime;
+		public final long size;
+
+		public final Map<String, String> classes = new LinkedHashMap<>();
+
+		// name -> {url, doc}
+		public final Map<String, String[]> sources = new LinkedHashMap<>();
+
+		public Entry(String key, long mtime, long size) {
+			this.key = key;
+			this.mtime = mtime;
+			this.size = size;
+		}
+	}
+
+	protected final File file;
+	protected final Map<String, Entry> entries = new LinkedHashMap<>();
+	protected final Set<String> touched = new HashSet<>();
+	protected boolean dirty = false;
+
+	static public int hits = 0;
+	static public int misses = 0;
+
+	public ClassIndex(File file) {
+		this.file = file;
+		if (!file.exists()) return;
+
+		try (FileChannel c = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			read(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()));
+		} catch (Throwable t) {
+			// an old or damaged index is just thrown away and rebuilt
+			Log.log("jar.indexer", () -> " couldn't read class index " + file + ", will rebuild it (" + t + ")");
+			entries.clear();
+		}
+	}
+
+	/**
+	 * every entry, whether it's up to date or not
+	 */
+	public synchronized List<Entry> all() {
+		return new ArrayList<>(entries.values());
+	}
+
+	/**
+	 * the entry for 'f', or null if there isn't one or 'f' has changed since it was made
+	 */
+	public Entry get(File f) {
+		long[] s = stamp(f);
+		return get(f.getAbsolutePath(), s[0], s[1]);
+	}
+
+	public synchronized Entry get(String key, long mtime, long size) {
+		Entry e = entries.get(key);
+		if (e != null && e.mtime == mtime && e.size == size) {
+			touched.add(key);
+			hits++;
+			return e;
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * a new, empty entry for 'f' stamped as it is now. Fill it in and then put(...) it
+	 */
+	public Entry entry(File f) {
+		long[] s = stamp(f);
+		return new Entry(f.getAbsolutePath(), s[0], s[1]);
+	}
+
+	public synchronized void put(Entry e) {
+		entries.put(e.key, e);
+		touched.add(e.key);
+		dirty = true;
+	}
+
+	/**
+	 * writes the index out if anything has been put since it was read. Entries that nobody asked for since then (jars that are no longer on the classpath) are dropped
+	 */
+	public synchronized void save() {
+		dirty |= entries.keySet()
+				.retainAll(touched);
+		if (!dirty) return;
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile()
+			    .mkdirs();
+			try (DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				write(o);
+			}
+			IO.replace(temp.toPath(), file.toPath());
+			dirty = false;
+			Log.log("jar.indexer", () -> " saved class index with " + entries.size() + " entries to " + file);
+		} catch (IOException e) {
+			Log.log("jar.indexer", () -> " couldn't save class index " + file + " " + e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * modification time and size of 'f'. For a directory that's the newest modification time and total size of everything below it, which changes when anything in it is added, removed or edited
+	 */
+	static public long[] stamp(File f) {
+		if (!f.isDirectory()) return new long[]{f.lastModified(), f.length()};
+
+		long[] r = {0, 0};
+		try {
+			Files.walkFileTree(f.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+					r[0] = Math.max(r[0], attrs.lastModifiedTime()
+								   .toMillis());
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					r[0] = Math.max(r[0], attrs.lastModifiedTime()
+								   .toMillis());
+					r[1] += attrs.size();
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			return new long[]{-1, -1};
+		}
+		return r;
+	}
+
+	protected void read(ByteBuffer b) throws IOException {
+		if (b.remaining() < 4 || b.getInt() != MAGIC) throw new IOException(" not a class index");
+
+		int n = varint(b);
+		for (int i = 0; i < n; i++) {
+			Entry e = new Entry(string(b), b.getLong(), b.getLong());
+			int c = varint(b);
+			for (int j = 0; j < c; j++)
+				e.classes.put(string(b), string(b));
+			int s = varint(b);
+			for (int j = 0; j < s; j++)
+				e.sources.put(string(b), new String[]{string(b), string(b)});
+			entries.put(e.key, e);
+		}
+	}
+
+	protected void write(DataOutputStream o) throws IOException {
+		o.writeInt(MAGIC);
+		varint(o, entries.size());
+		for (Entry e : entries.values()) {
+			string(o, e.key);
+			o.writeLong(e.mtime);
+			o.writeLong(e.size);
+			varint(o, e.classes.size());
+			for (Map.Entry<String, String> c : e.classes.entrySet()) {
+				string(o, c.getKey());
+				string(o, c.getValue());
+			}
+			varint(o, e.sources.size());
+			for (Map.Entry<String, String[]> s : e.sources.entrySet()) {
+				string(o, s.getKey());
+				string(o, s.getValue()[0]);
+				string(o, s.getValue()[1]);
+			}
+		}
+	}
+
+	static private int varint(ByteBuffer b) {
+		int r = 0;
+		int shift = 0;
+		while (true) {
+			byte x = b.get();
+			r |= (x & 0x7f) << shift;
+			if ((x & 0x80) == 0) return r;
+			shift += 7;
+		}
+	}
+
+	static private String string(ByteBuffer b) {
+		byte[] a = new byte[varint(b)];
+		b.get(a);
+		return new String(a, StandardCharsets.UTF_8);
+	}
+
+	static private void varint(DataOutputStream o, int v) throws IOException {
+		while ((v & ~0x7f) != 0) {
+			o.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		o.write(v);
+	}
+
+	static private void string(DataOutputStream o, String s) throws IOException {
+		byte[] b = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+		varint(o, b.length);
+		o.write(b);
+	}
+}
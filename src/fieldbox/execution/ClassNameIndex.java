@@ -0,0 +1,192 @@
+package fieldbox.execution;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A trigram index over fully qualified class names, for JavaSupport's import help.
+ * <p>
+ * Every name gets an id, in the order it was added, and every distinct three character sequence in a name has a postings list of the ids of the names that contain it. Those lists are sorted
+ * because ids only ever go up, so a substring query intersects the lists for its own trigrams (smallest first) and then checks the few candidates that are left with String.contains. Queries shorter
+ * than three characters fall back to a scan.
+ * <p>
+ * Names are added from the indexing threads while completion reads from others. Adding takes a lock, reading doesn't: the arrays are only ever appended to (and replaced by bigger copies before
+ * the counts that cover them are published), so a reader sees a consistent prefix of everything that's been added.
+ */
+public class ClassNameIndex {
+
+	static protected class Postings {
+		volatile int n;
+		int[] ids = new int[4];
+
+		void add(int id) {
+			if (n > 0 && ids[n - 1] == id) return;
+			if (n == ids.length) ids = Arrays.copyOf(ids, n * 2);
+			ids[n] = id;
+			n++;
+		}
+	}
+
+	protected final Map<Long, Postings> trigrams = new ConcurrentHashMap<>();
+	protected final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+	protected volatile int size = 0;
+	protected String[] names = new String[1024];
+	protected String[] info = new String[1024];
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * adds 'name' with 'info' (the html shown next to it), replacing the info of 'name' if it's already here
+	 */
+	public void put(String name, String info) {
+		add(name, info, true);
+	}
+
+	/**
+	 * adds 'name' with 'info', unless 'name' is already here (in which case it keeps the info it has)
+	 */
+	public void putIfAbsent(String name, String info) {
+		add(name, info, false);
+	}
+
+	protected synchronized void add(String name, String info, boolean replace) {
+		Integer was = ids.get(name);
+		if (was != null) {
+			if (replace) this.info[was] = info;
+			return;
+		}
+
+		int id = size;
+		if (id == names.length) {
+			names = Arrays.copyOf(names, id * 2);
+			this.info = Arrays.copyOf(this.info, id * 2);
+		}
+		names[id] = name;
+		this.info[id] = info;
+
+		for (int i = 0; i + 3 <= name.length(); i++)
+			trigrams.computeIfAbsent(trigram(name, i), k -> new Postings())
+				.add(id);
+
+		ids.put(name, id);
+		size = id + 1;
+	}
+
+	public String info(String name) {
+		Integer id = ids.get(name);
+		return id == null ? null : info[id];
+	}
+
+	/**
+	 * the (at most) 'k' best names that contain 'fragment', each paired with its info. Names whose last part is exactly 'fragment' come first, then names whose last part contains it, then names
+	 * that have been completed more often (by 'score', which is given the last part of the name), then shorter ones
+	 */
+	public List<Map.Entry<String, String>> find(String fragment, int k, ToDoubleFunction<String> score) {
+		int n = size;
+		String[] names = this.names;
+		String[] info = this.info;
+
+		PriorityQueue<Hit> best = new PriorityQueue<>(k + 1, Comparator.reverseOrder());
+
+		if (fragment.length() < 3) {
+			for (int i = 0; i < n; i++)
+				if (names[i].contains(fragment)) offer(best, k, names[i], info[i], fragment, score);
+		} else {
+			int[] candidates = candidates(fragment, n);
+			for (int i : candidates)
+				if (names[i].contains(fragment)) offer(best, k, names[i], info[i], fragment, score);
+		}
+
+		List<Hit> sorted = new ArrayList<>(best);
+		Collections.sort(sorted);
+		List<Map.Entry<String, String>> r = new ArrayList<>(sorted.size());
+		for (Hit h : sorted)
+			r.add(new AbstractMap.SimpleImmutableEntry<>(h.name, h.info));
+		return r;
+	}
+
+	protected int[] candidates(String fragment, int n) {
+		int count = fragment.length() - 2;
+		int[][] lists = new int[count][];
+		int[] lengths = new int[count];
+		for (int i = 0; i < count; i++) {
+			Postings p = trigrams.get(trigram(fragment, i));
+			if (p == null) return new int[0];
+			// n before ids, see the class comment
+			int pn = p.n;
+			lists[i] = p.ids;
+			lengths[i] = pn;
+		}
+
+		// intersect, starting with the shortest list
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparingInt(i -> lengths[i]));
+
+		int[] r = Arrays.copyOf(lists[order[0]], lengths[order[0]]);
+		int rn = r.length;
+		for (int o = 1; o < count && rn > 0; o++) {
+			int[] l = lists[order[o]];
+			int ln = lengths[order[o]];
+			int a = 0, b = 0, w = 0;
+			while (a < rn && b < ln) {
+				if (r[a] < l[b]) a++;
+				else if (r[a] > l[b]) b++;
+				else {
+					r[w++] = r[a];
+					a++;
+					b++;
+				}
+			}
+			rn = w;
+		}
+
+		// anything added after we read 'size' is ignored
+		while (rn > 0 && r[rn - 1] >= n) rn--;
+		return Arrays.copyOf(r, rn);
+	}
+
+	static protected void offer(PriorityQueue<Hit> best, int k, String name, String info, String fragment, ToDoubleFunction<String> score) {
+		String last = name.substring(name.lastIndexOf('.') + 1);
+		Hit h = new Hit(name, info, last.equals(fragment) ? 0 : last.contains(fragment) ? 1 : 2, score.applyAsDouble(last), last.length());
+		if (best.size() < k) best.add(h);
+		else if (h.compareTo(best.peek()) < 0) {
+			best.poll();
+			best.add(h);
+		}
+	}
+
+	static protected long trigram(String s, int at) {
+		return ((long) s.charAt(at) << 32) | ((long) s.charAt(at + 1) << 16) | s.charAt(at + 2);
+	}
+
+	static protected class Hit implements Comparable<Hit> {
+		final String name;
+		final String info;
+		final int match;
+		final double score;
+		final int length;
+
+		Hit(String name, String info, int match, double score, int length) {
+			this.name = name;
+			this.info = info;
+			this.match = match;
+			this.score = score;
+			this.length = length;
+		}
+
+		// better hits sort first
+		@Override
+		public int compareTo(Hit o) {
+			if (match != o.match) return Integer.compare(match, o.match);
+			if (score != o.score) return -Double.compare(score, o.score);
+			if (length != o.length) return Integer.compare(length, o.length);
+			return name.compareTo(o.name);
+		}
+	}
+}
@@ -135,6 +135,14 @@ public class CompletionStats {
 
 	}
 
+	/**
+	 * how often (with older completions decaying) 'replaceWith' has been chosen
+	 */
+	public double count(String replaceWith) {
+		Double c = counts.get(replaceWith);
+		return c == null ? 0 : c;
+	}
+
 	public void notify(String uuid) {
 
 		String replaceWith = uuidToCompletions.get(uuid);
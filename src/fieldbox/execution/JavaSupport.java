@@ -5,12 +5,12 @@ import com.thoughtworks.qdox.directorywalker.DirectoryScanner;
 import com.thoughtworks.qdox.directorywalker.SuffixFilter;
 import com.thoughtworks.qdox.model.*;
 import com.thoughtworks.qdox.model.impl.DefaultJavaParameter;
-import com.thoughtworks.qdox.parser.ParseException;
 import field.app.RunLoop;
 import field.graphics.FLine;
 import field.utility.Documentation;
 import field.utility.Log;
 import field.utility.MarkdownToHTML;
+import field.utility.Options;
 import field.utility.Pair;
 import fieldagent.Trampoline;
 import fieldnashorn.annotations.HiddenInAutocomplete;
@@ -29,6 +29,8 @@ import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.jar.JarFile;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -40,7 +42,8 @@ import java.util.zip.ZipFile;
  * When Nashorn/Javascript completion bumps up against something that's actually a Java object, we can use Java reflection based completion. Better yet, if we have the source code fore that Java we
  * can get very good completion information with parameter names, generics and javadocs. We're using qdox to parse the Java sources.
  * <p>
- * This class also contains our class discovery mechanism for import help
+ * This class also contains our class discovery mechanism for import help. What it finds is kept in a ClassIndex (in ~/.field/classindex.bin) so that on the next startup import help is available
+ * straight away and only jars and source trees that have changed are looked at again. Sources that haven't changed aren't handed to qdox at all until completion asks about a class in them.
  * <p>
  * Todo: this is useful across language runtimes, not just Nashorn/Javascript.
  */
@@ -50,15 +53,31 @@ public class JavaSupport {
 
     private final JavaProjectBuilder builder;
 
-    Map<String, String> allClassNames = new LinkedHashMap<>();
+    // every class name we know about, with its javadoc summary if we have source for it or where it came from if we don't
+    final ClassNameIndex allClassNames = new ClassNameIndex();
 
     Set<String> srcZipsDeltWith = new LinkedHashSet<>();
 
+    final ClassIndex index = new ClassIndex(new File(Options.getDirectory("preferences", () -> System.getProperty("user.home") + "/.field/"), "classindex.bin"));
+
+    // top level class name -> url of a .java file that's in the index but hasn't been given to qdox yet
+    private final Map<String, String> unparsed = new HashMap<>();
+
+    // indexing tasks still running, the index is saved when this gets to zero
+    private final AtomicInteger indexing = new AtomicInteger(1);
+
     public JavaSupport() {
         javaSupport = this;
 
         builder = new JavaProjectBuilder();
 
+        // everything from last time is available immediately, whatever has changed since is replaced as it's re-indexed below
+        for (ClassIndex.Entry e : index.all()) {
+            if (!e.key.startsWith("jrt:") && !new File(e.key).exists()) continue;
+            addClassNames(e.classes);
+            remember(e, false);
+        }
+
         Set<Path> all = new LinkedHashSet<>();
 
         ClassLoader classLoader = Thread.currentThread()
@@ -80,14 +99,14 @@ public class JavaSupport {
                     Log.log("jar.indexer", () -> "will index paths:" + paths + " from classloader " + classLoader);
                     for (URL path : paths) {
                         Log.log("jar.indexer", () -> "will index path " + path);
+                        indexing.incrementAndGet();
                         RunLoop.workerPool.submit(() -> {
+                          try {
                             Map<String, String> a = indexClasses(path);
 
                             Log.log("jar.indexer", () -> "indexed path " + path + " and got " + a.size() + " classes");
 
-                            synchronized (allClassNames) {
-                                allClassNames.putAll(a);
-                            }
+                            addClassNames(a);
 
                             File f = new File(path.getFile());
                             while (f != null) {
@@ -138,10 +157,13 @@ public class JavaSupport {
 
                                 f = f.getParentFile();
                             }
+                          } finally {
+                            indexed();
+                          }
                         });
                     }
 
-                    allClassNames.putAll(indexJigsaw());
+                    addClassNames(indexJigsaw());
 
                     builder.setErrorHandler(e -> Log.log("completion.general", () -> " problem parsing Java source file for completion, will skip this file and continue on "));
                     builder.addClassLoader(classLoader);
@@ -156,12 +178,7 @@ public class JavaSupport {
                             if (dir.endsWith("src")) {
                                 Log.log("jar.indexer", () -> " added " + dir + " to source path");
                                 all.add(dir);
-                                try {
-                                    builder.addSourceTree(dir.toFile(),
-                                            f -> Log.log("jar.indexer", () -> " error parsing file " + f + ", but we'll continue on anyway..."));
-                                } catch (ParseException e) {
-                                    e.printStackTrace();
-                                }
+                                indexSrcTree(dir.toString());
                             }
                             return FileVisitResult.CONTINUE;
                         }
@@ -188,37 +205,116 @@ public class JavaSupport {
                     }
                 } catch (IOException e) {
                     e.printStackTrace();
+                } finally {
+                    indexed();
                 }
             });
         });
     }
 
+    private void indexed() {
+        if (indexing.decrementAndGet() > 0) return;
+        index.save();
+        Log.log("jar.indexer", () -> "finished indexing, " + ClassIndex.hits + " up to date in the class index and " + ClassIndex.misses + " re-indexed");
+    }
+
     private boolean indexSrcTree(String p) {
-        if (srcZipsDeltWith.contains(p)) {
-            Log.log("jar.indexer", () -> " we've already delt with path " + p);
-            return true;
+        synchronized (srcZipsDeltWith) {
+            if (srcZipsDeltWith.contains(p)) {
+                Log.log("jar.indexer", () -> " we've already delt with path " + p);
+                return true;
+            }
+            srcZipsDeltWith.add(p);
         }
-        srcZipsDeltWith.add(p);
         Log.log("jar.indexer", () -> " added " + p + " to source path given classpath");
-//									builder.addSourceTree(new File(p));
 
-        DirectoryScanner scanner = new DirectoryScanner(new File(p));
-        scanner.addFilter(new SuffixFilter(".java"));
+        try {
+            indexSources(new File(p));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * gives the .java files in 'f' (a directory or a zip of sources) to qdox, unless the index says that nothing in 'f' has changed, in which case we just remember where they are
+     */
+    private void indexSources(File f) throws IOException {
+        ClassIndex.Entry e = index.get(f);
+        if (e != null) {
+            Log.log("jar.indexer", () -> " source " + f + " hasn't changed since it was last indexed");
+            remember(e, true);
+            return;
+        }
+
+        e = index.entry(f);
+        if (f.isDirectory()) parseSrcTree(f, e);
+        else parseSrcZip(f, e);
+        index.put(e);
+        remember(e, false);
+    }
 
+    private void addClassNames(Map<String, String> m) {
+        for (Map.Entry<String, String> e : m.entrySet())
+            allClassNames.putIfAbsent(e.getKey(), "<br><span class=doc>from " + e.getValue() + "</span>");
+    }
+
+    private void remember(ClassIndex.Entry e, boolean lazily) {
+        for (Map.Entry<String, String[]> s : e.sources.entrySet())
+            allClassNames.put(s.getKey(), "<br><span class=doc>" + s.getValue()[1] + "</span>");
+        if (lazily) synchronized (unparsed) {
+            for (Map.Entry<String, String[]> s : e.sources.entrySet())
+                unparsed.put(s.getKey(), s.getValue()[0]);
+        }
+    }
+
+    private void parse(URL u, ClassIndex.Entry into) {
+        try {
+            JavaSource s = builder.addSource(u);
+            for (JavaClass c : s.getClasses())
+                into.sources.put(c.getFullyQualifiedName(), new String[]{"" + u, MarkdownToHTML.unwrapFirstParagraph(MarkdownToHTML.convert(c.getComment()))});
+        } catch (com.thoughtworks.qdox.parser.ParseException e) {
+            failedToParse.add("" + u);
+        } catch (Throwable t) {
+            t.printStackTrace();
+        }
+    }
+
+    private void parseSrcTree(File p, ClassIndex.Entry into) {
+        DirectoryScanner scanner = new DirectoryScanner(p);
+        scanner.addFilter(new SuffixFilter(".java"));
 
         scanner.scan(new com.thoughtworks.qdox.directorywalker.FileVisitor() {
             public void visitFile(File currentFile) {
                 try {
-                    builder.addSource(currentFile);
-                } catch (com.thoughtworks.qdox.parser.ParseException e) {
-                    failedToParse.add(p);
-                } catch (Throwable t) {
-                    t.printStackTrace();
+                    parse(currentFile.toURI()
+                            .toURL(), into);
+                } catch (IOException e) {
+                    failedToParse.add(currentFile.getPath());
                 }
-
             }
         });
-        return false;
+    }
+
+    /**
+     * qdox's model of class 'name', parsing its source first if we know where it is and haven't done so yet
+     */
+    private JavaClass classByName(String name) {
+        String top = name.contains("$") ? name.substring(0, name.indexOf('$')) : name;
+        String u;
+        synchronized (unparsed) {
+            u = unparsed.remove(top);
+        }
+        if (u != null) {
+            try {
+                builder.addSource(new URL(u));
+            } catch (com.thoughtworks.qdox.parser.ParseException e) {
+                failedToParse.add(u);
+            } catch (Throwable t) {
+                Log.log("completion.general", () -> " problem parsing " + u + " for completion " + t);
+            }
+        }
+        return builder.getClassByName(name);
     }
 
     static public String compress(String name, String signature) {
@@ -259,20 +355,21 @@ public class JavaSupport {
     private Set<String> failedToParse = new LinkedHashSet<>();
 
     private void indexSrcZip(String filename) throws IOException {
-        try {
-            ZipFile zipFile = new ZipFile(filename);
+        indexSources(new File(filename));
+    }
+
+    private void parseSrcZip(File filename, ClassIndex.Entry into) throws IOException {
+        try (ZipFile zipFile = new ZipFile(filename)) {
             Enumeration entries = zipFile.entries();
             while (entries.hasMoreElements()) {
                 ZipEntry zipEntry = (ZipEntry) entries.nextElement();
                 try {
                     if (zipEntry.getName().endsWith(".java")) {
-                        String u = "jar:" + new File(filename).toURI().toURL() + "!/" + zipEntry.getName();
+                        String u = "jar:" + filename.toURI().toURL() + "!/" + zipEntry.getName();
                         Log.log("jar.indexer", () -> "will index a source file from a jar:" + u);
                         builder.setEncoding(Charset.defaultCharset().name());
-                        builder.addSource(new URL(u));
+                        parse(new URL(u), into);
                     }
-                } catch (com.thoughtworks.qdox.parser.ParseException t) {
-                    failedToParse.add(zipEntry.getName());
                 } catch (Throwable t) {
                     t.printStackTrace();
                 }
@@ -283,6 +380,18 @@ public class JavaSupport {
     }
 
     private Map<String, String> indexJigsaw() {
+        // the runtime image only changes when the jdk does
+        long[] stamp = ClassIndex.stamp(new File(System.getProperty("java.home"), "lib/modules"));
+        ClassIndex.Entry e = index.get("jrt:/", stamp[0], stamp[1]);
+        if (e != null) return e.classes;
+
+        e = new ClassIndex.Entry("jrt:/", stamp[0], stamp[1]);
+        e.classes.putAll(indexJigsaw_walk());
+        index.put(e);
+        return e.classes;
+    }
+
+    private Map<String, String> indexJigsaw_walk() {
         Log.log("jar.indexer", () -> "will index jigsaw");
         try {
             FileSystem fs = FileSystems.getFileSystem(URI.create("jrt:/"));
@@ -340,13 +449,23 @@ public class JavaSupport {
 
     private Map<String, String> indexClasses(URL path) {
         String f = path.getFile();
-        if (f.endsWith(".jar")) return indexClasses_jar(f);
+        if (f.endsWith(".jar")) return cached(new File(f), () -> indexClasses_jar(f));
         else if (new File(f).exists()) {
             return indexClasses_tree(f);
         } else Log.log("indexer", () -> "path " + path + " " + f + " does not exist");
         return Collections.emptyMap();
     }
 
+    private Map<String, String> cached(File f, Supplier<Map<String, String>> indexer) {
+        ClassIndex.Entry e = index.get(f);
+        if (e != null) return e.classes;
+
+        e = index.entry(f);
+        e.classes.putAll(indexer.get());
+        index.put(e);
+        return e.classes;
+    }
+
     private Map<String, String> indexClasses_tree(String f) {
 
         Map<String, String> ret = new LinkedHashMap<>();
@@ -451,7 +570,7 @@ public class JavaSupport {
         boolean wasJava = c.getName()
                 .startsWith("java");
 
-        JavaClass j = builder.getClassByName(c.getName());
+        JavaClass j = classByName(c.getName());
         List<Completion> r = new ArrayList<>();
 
         final JavaClass finalJ = j;
@@ -525,7 +644,7 @@ public class JavaSupport {
                         String val = "";
                         boolean tostring = false;
                         if (!staticsOnly && (hasAnnotation(m.getAnnotations(), SafeToToString.class) || m.getType().isPrimitive())
-                                || hasAnnotation(builder.getClassByName(m.getType().getCanonicalName()).getAnnotations(), SafeToToString.class)) {
+                                || hasAnnotation(classByName(m.getType().getName()).getAnnotations(), SafeToToString.class)) {
                             try {
                                 val = "= <b>" + access(c.getDeclaredField(m.getName())).get(o) + "</b> &nbsp;";
                                 tostring = true;
@@ -590,7 +709,7 @@ public class JavaSupport {
 
                 c = c.getSuperclass();
                 if (c == null) break;
-                j = builder.getClassByName(c.getName());
+                j = classByName(c.getName());
 
                 //TODO: should we stop when we get into java.* classes if we started from something that wasn't?
                 // PApplet's completion is heavily polluted by this stuff.
@@ -715,51 +834,23 @@ public class JavaSupport {
 
     }
 
+    /**
+     * the 100 best class names containing 'left' for import help, classes whose name is exactly 'left' and that have been picked more often first
+     */
     public List<Pair<String, String>> getPossibleJavaClassesFor(String left) {
         try {
             List<Pair<String, String>> rr = new ArrayList<>();
-
-            Set<String> seen = new LinkedHashSet<>();
-
-            for (JavaClass c : builder.getClasses()) {
-                if (c.getName()
-                        .contains(left) && !seen.contains(c.getFullyQualifiedName())) {
-                    seen.add(c.getFullyQualifiedName());
-                    rr.add(new Pair<>(c.getFullyQualifiedName(), "<br><span class=doc>" + MarkdownToHTML.unwrapFirstParagraph(MarkdownToHTML.convert(c.getComment())) + "</span>"));
-                }
-            }
-
-            synchronized (allClassNames) {
-                for (Map.Entry<String, String> e : allClassNames.entrySet()) {
-                    if (e.getKey()
-                            .contains(left) && !seen.contains(e.getKey())) {
-                        seen.add(e.getKey());
-                        rr.add(new Pair<>(e.getKey(), "<br><span class=doc>from " + e.getValue() + "</span>"));
-                    }
-                }
-            }
-
-            if (rr.size() > 100) rr = rr.subList(0, 100);
-
-
-            Collections.sort(rr, (a, b) -> {
-                String[] pa = a.first.split("\\.");
-                String[] pb = b.first.split("\\.");
-
-                return Double.compare(pa[pa.length - 1].length(), pb[pb.length - 1].length());
-
-            });
-
+            for (Map.Entry<String, String> e : allClassNames.find(left, 100, CompletionStats.stats::count))
+                rr.add(new Pair<>(e.getKey(), e.getValue()));
             return rr;
         } catch (Throwable t) {
             t.printStackTrace();
             return Collections.emptyList();
         }
-
     }
 
 
     public JavaClass sourceForClass(Class<?> of) {
-        return builder.getClassByName(of.getName());
+        return classByName(of.getName());
     }
 }
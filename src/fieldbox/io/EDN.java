@@ -13,6 +13,11 @@ import us.bpsm.edn.printer.Printers;
 import us.bpsm.edn.protocols.Protocol;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
@@ -60,7 +65,7 @@ public class EDN {
 	public EDN() {
 		builder = Parsers.newParserConfigBuilder();
 
-		builder.putTagHandler(RECT, simpleDeserializeFromMap(Rect.class));
+		builder.putTagHandler(RECT, rectFromMap());
 		builder.putTagHandler(DOCUMENT, simpleDeserializeFromMap(IO.Document.class));
 		builder.putTagHandler(EXTERNAL, simpleDeserializeFromMap(IO.External.class));
 		builder.putTagHandler(FILESPEC, simpleDeserializeFromMap(IO.Filespec.class));
@@ -105,9 +110,16 @@ public class EDN {
 
 	public String write(Object o) {
 		StringBuilder w = new StringBuilder();
+		write(o, w);
+		return w.toString();
+	}
+
+	/**
+	 * prints 'o' straight into 'w' (a buffered Writer onto a file, for example) rather than building the whole text first. Serializable_safe values are streamed out as base64 chunks
+	 */
+	public void write(Object o, Appendable w) {
 		Printers.newPrinter(thePrinter, w)
 			.printValue(o);
-		return w.toString();
 	}
 
 
@@ -117,6 +129,40 @@ public class EDN {
 		return p.nextValue(parseable);
 	}
 
+	/**
+	 * parses the first value from 'r' (a Reader, for example), reading only as much as it needs
+	 */
+	public Object read(Readable r) {
+		return theParser.nextValue(Parsers.newParseable(r));
+	}
+
+	/**
+	 * parses the first value from utf-8 encoded 'b' (a memory mapped file, for example), decoding it as it goes
+	 */
+	public Object read(ByteBuffer b) {
+		return read(new Utf8Readable(b.duplicate()));
+	}
+
+	static protected class Utf8Readable implements Readable {
+		final ByteBuffer from;
+		final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+								     .onMalformedInput(CodingErrorAction.REPLACE)
+								     .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		Utf8Readable(ByteBuffer from) {
+			this.from = from;
+		}
+
+		@Override
+		public int read(CharBuffer cb) {
+			int was = cb.position();
+			decoder.decode(from, cb, true);
+			if (!from.hasRemaining()) decoder.flush(cb);
+			int n = cb.position() - was;
+			return n == 0 && !from.hasRemaining() ? -1 : n;
+		}
+	}
+
 
 	public TagHandler deserializeFromSerializable(Class c) {
 		return (tag, o) -> {
@@ -128,16 +174,20 @@ public class EDN {
 						     .iterator()
 						     .next();
 
-				String v = (String) e.getValue();
-
-				byte[] d = Base64.getDecoder()
-						 .decode(v.getBytes());
-
-				ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(d));
-				Object vv = ois.readObject();
-				ois.close();
-
-				return vv;
+				// either one string, or (for large values) a vector of chunks
+				Object v = e.getValue();
+				InputStream in;
+				if (v instanceof List) {
+					Vector<InputStream> chunks = new Vector<>();
+					for (Object chunk : (List) v)
+						chunks.add(new CharsInputStream((CharSequence) chunk));
+					in = new SequenceInputStream(chunks.elements());
+				} else in = new CharsInputStream((CharSequence) v);
+
+				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Base64.getDecoder()
+															 .wrap(in)))) {
+					return ois.readObject();
+				}
 			} catch (IOException e) {
 				e.printStackTrace();
 			} catch (ClassNotFoundException e) {
@@ -147,6 +197,43 @@ public class EDN {
 		};
 	}
 
+	static protected final Map<Class, Map<String, Field>> fields = new java.util.concurrent.ConcurrentHashMap<>();
+
+	/**
+	 * public fields, looked up (and made accessible) once per class rather than once per value
+	 */
+	static protected Field field(Class c, String name) throws NoSuchFieldException {
+		Map<String, Field> m = fields.computeIfAbsent(c, k -> {
+			Map<String, Field> r = new HashMap<>();
+			for (Field f : k.getFields()) {
+				f.setAccessible(true);
+				r.put(f.getName(), f);
+			}
+			return r;
+		});
+		Field f = m.get(name);
+		if (f == null) throw new NoSuchFieldException(name);
+		return f;
+	}
+
+	static protected final Keyword rectX = Keyword.newKeyword("x");
+	static protected final Keyword rectY = Keyword.newKeyword("y");
+	static protected final Keyword rectW = Keyword.newKeyword("w");
+	static protected final Keyword rectH = Keyword.newKeyword("h");
+
+	/**
+	 * Rects are by far the most common tagged value, so they get built directly rather than reflectively
+	 */
+	public TagHandler rectFromMap() {
+		TagHandler general = simpleDeserializeFromMap(Rect.class);
+		return (tag, o) -> {
+			Map<?, ?> m = (Map) o;
+			Object x = m.get(rectX), y = m.get(rectY), w = m.get(rectW), h = m.get(rectH);
+			if (m.size() != 4 || !(x instanceof Number && y instanceof Number && w instanceof Number && h instanceof Number)) return general.transform(tag, o);
+			return new Rect(((Number) x).doubleValue(), ((Number) y).doubleValue(), ((Number) w).doubleValue(), ((Number) h).doubleValue());
+		};
+	}
+
 	public TagHandler simpleDeserializeFromMap(Class c) {
 		return (tag, o) -> {
 
@@ -162,8 +249,7 @@ public class EDN {
 					 else s = k.toString();
 
 					 try {
-						 Field f = c.getField(s);
-						 f.setAccessible(true);
+						 Field f = field(c, s);
 						 if (Modifier.isFinal(f.getModifiers())) {
 							 long of = getUnsafe().objectFieldOffset(f);
 							 if (f.getType() == Float.TYPE) getUnsafe().putFloat(instance, of, ((Number) e.getValue()).floatValue());
@@ -210,8 +296,7 @@ public class EDN {
 					 if (s.startsWith("$")) return;
 
 					 try {
-						 Field f = c.getField(s);
-						 f.setAccessible(true);
+						 Field f = field(c, s);
 						 if (Modifier.isFinal(f.getModifiers())) {
 							 long of = getUnsafe().objectFieldOffset(f);
 							 if (f.getType() == Float.TYPE) getUnsafe().putFloat(instance, of, ((Number) e.getValue()).floatValue());
@@ -286,29 +371,93 @@ public class EDN {
 	}
 	public us.bpsm.edn.printer.Printer.Fn<?> serializeFromSerializable(Tag tag) {
 		return (o, writer) -> {
-			try {
-				ByteArrayOutputStream baos = new ByteArrayOutputStream();
-				ObjectOutputStream oos = new ObjectOutputStream(baos);
+			writer.printValue(tag)
+			      .append(" {")
+			      .printValue(Keyword.newKeyword("base64"))
+			      .softspace();
+
+			// serialized straight through the base64 encoder into the output
+			try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(Base64.getEncoder()
+													.wrap(new Base64Chunks(writer))))) {
 				oos.writeObject(o);
-				oos.close();
-				byte[] bytes = baos.toByteArray();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 
-				byte[] b2 = Base64.getEncoder()
-				      .encode(bytes);
+			writer.append("}");
+		};
+	}
 
-				String v = new String(b2);
+	/**
+	 * base64 payloads longer than this are written as a vector of strings of this length
+	 */
+	static public int base64Chunk = 1 << 16;
 
-				Map<Object, Object> mm = new LinkedHashMap<>();
+	static protected class Base64Chunks extends OutputStream {
+		final Printer to;
+		final StringBuilder chunk = new StringBuilder();
+		boolean vector = false;
 
-				mm.put(Keyword.newKeyword("base64"), v);
+		Base64Chunks(Printer to) {
+			this.to = to;
+		}
 
-				writer.printValue(tag)
-				      .printValue(mm);
+		@Override
+		public void write(int b) {
+			chunk.append((char) b);
+			if (chunk.length() == base64Chunk) {
+				if (!vector) to.append("[");
+				vector = true;
+				emit();
+			}
+		}
 
-			} catch (IOException e) {
-				e.printStackTrace();
+		@Override
+		public void write(byte[] b, int off, int len) {
+			for (int i = 0; i < len; i++)
+				write(b[off + i]);
+		}
+
+		protected void emit() {
+			to.append("\"")
+			  .append(chunk)
+			  .append("\" ");
+			chunk.setLength(0);
+		}
+
+		@Override
+		public void close() {
+			if (!vector) to.append("\"")
+				       .append(chunk)
+				       .append("\"");
+			else {
+				if (chunk.length() > 0) emit();
+				to.append("]");
 			}
-		};
+		}
+	}
+
+	static protected class CharsInputStream extends InputStream {
+		final CharSequence from;
+		int at = 0;
+
+		CharsInputStream(CharSequence from) {
+			this.from = from;
+		}
+
+		@Override
+		public int read() {
+			return at < from.length() ? from.charAt(at++) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (at >= from.length()) return -1;
+			int n = Math.min(len, from.length() - at);
+			for (int i = 0; i < n; i++)
+				b[off + i] = (byte) from.charAt(at++);
+			return n;
+		}
 	}
 
 //	public us.bpsm.edn.printer.Printer.Fn<?> serializeToToString(Tag tag) {
@@ -1,24 +1,30 @@
 package fieldbox.io;
 
+import field.app.RunLoop;
 import field.utility.Dict;
 import field.utility.Log;
+import field.utility.Rect;
 import fieldagent.Main;
 import fieldbox.boxes.Box;
 import fieldbox.boxes.Boxes;
 import fieldbox.boxes.Callbacks;
+import fieldbox.boxes.Drawing;
 import fieldbox.boxes.FrameManipulation;
 import fieldbox.boxes.plugins.PluginList;
 import fieldbox.boxes.plugins.Variant;
 import fieldbox.execution.Execution;
 
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
+import java.io.*;
 import java.lang.reflect.Constructor;
-import java.nio.file.Files;
-import java.nio.file.InvalidPathException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -73,6 +79,34 @@ public class IO {
 		persist(perDocument);
 	}
 
+	/**
+	 * when true, readDocument doesn't read the text files of boxes (their code and so on) up front. Each is read the first time anything asks for it (see Dict.defer), and a background
+	 * prefetcher reads them all, the boxes that are in view first
+	 */
+	static public boolean lazyLoading = true;
+
+	static public final AtomicInteger prefetched = new AtomicInteger();
+
+	/**
+	 * writes for writeOutDocument happen here, in parallel
+	 */
+	static public final ExecutorService ioPool = Executors.newFixedThreadPool(4, r -> {
+		Thread t = new Thread(r, "IO writer");
+		t.setDaemon(true);
+		return t;
+	});
+
+	static public final AtomicInteger filesWritten = new AtomicInteger();
+	static public final AtomicInteger filesSkipped = new AtomicInteger();
+	static public double lastSaveMillis = 0;
+
+	// hashes of what we last read from or wrote to each file, so identical writes can be skipped
+	protected final Map<File, String> onDisk = new ConcurrentHashMap<>();
+
+	// for each box, the text properties that haven't changed since they were read from, or written to, a particular file
+	protected final Map<Box, Map<String, File>> synced = Collections.synchronizedMap(new WeakHashMap<>());
+	protected final Set<String> watched = Collections.synchronizedSet(new HashSet<>());
+
 	private String defaultDirectory;
 	private String templateDirectory;
 
@@ -101,9 +135,7 @@ public class IO {
 
 	static public String readFromFile(File f) {
 		try {
-			return Files.readAllLines(sanitizeName(f).toPath())
-				.stream()
-				.reduce((a, b) -> a + "\n" + b).orElse("");
+			return String.join("\n", Files.readAllLines(sanitizeName(f).toPath()));
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (InvalidPathException e) {
@@ -291,9 +323,12 @@ public class IO {
 		}
 
 
-		String m = readFromFile(f);
-
-		Document d = (Document) new EDN().read(m);
+		Document d;
+		try {
+			d = (Document) readEDN(sanitizeName(f));
+		} catch (IOException e) {
+			throw new IllegalArgumentException(" couldn't read document " + f, e);
+		}
 		Map<String, Box> loaded = new HashMap<String, Box>();
 
 		Log.log("io.general", () -> " document contains " + d.externalList.size() + " boxes ");
@@ -348,11 +383,50 @@ public class IO {
 		for (Box b : failed) {
 			b.disconnectFromAll();
 		}
+
+		if (lazyLoading) prefetch(specialBoxes.get(">>root<<"), loaded.values());
+
 		return d;
 
 
 	}
 
+	/**
+	 * reads, on a worker thread, everything that's been deferred in 'boxes'. Boxes whose frames are in the current view go first. Only the reading happens on the worker; what's read goes into
+	 * each box's properties on the main thread, which owns them
+	 */
+	protected void prefetch(Box root, Collection<Box> boxes) {
+		List<Box> order = new ArrayList<>(boxes);
+
+		Rect view = root == null ? null : root.first(Drawing.drawing, root.both())
+						    .map(x -> x.getCurrentViewBounds(root))
+						    .orElse(null);
+		if (view != null) order.sort(Comparator.comparing(b -> {
+			Rect f = b.properties.get(Box.frame);
+			return f != null && f.intersects(view) ? 0 : 1;
+		}));
+
+		RunLoop.workerPool.submit(() -> {
+			for (Box b : order) {
+				Map<Dict.Prop, java.util.function.Supplier<?>> pending = b.properties.pendingDeferred();
+				if (pending.isEmpty()) continue;
+				try {
+					Map<Dict.Prop, Object> values = new LinkedHashMap<>();
+					for (Map.Entry<Dict.Prop, java.util.function.Supplier<?>> e : pending.entrySet())
+						values.put(e.getKey(), e.getValue()
+									.get());
+					RunLoop.main.once(() -> {
+						b.properties.installDeferred(pending, values);
+						prefetched.incrementAndGet();
+					});
+				} catch (Throwable t) {
+					Log.log("io.error", () -> " exception thrown while prefetching " + b + ", it will be read when it's asked for");
+					Log.log("io.error", () -> t);
+				}
+			}
+		});
+	}
+
 	private void fromExternal(External ex, Map<String, Box> specialBoxes) {
 
 		File dataFile = filenameFor(ex.dataFile);
@@ -391,23 +465,21 @@ public class IO {
 		}
 
 		for (Map.Entry<String, String> e : ex.textFiles.entrySet()) {
-			File filename = filenameFor(currentPrefix, e.getValue());
-			String text = readFromFile(filename);
-			ex.box.properties.put(new Dict.Prop<String>(e.getKey()), text);
+			File filename = sanitizeName(filenameFor(currentPrefix, e.getValue()));
+			if (lazyLoading) ex.box.properties.defer(new Dict.Prop<String>(e.getKey()), () -> readAndRemember(filename));
+			else ex.box.properties.put(new Dict.Prop<String>(e.getKey()), readAndRemember(filename));
+			synced(ex.box, e.getKey(), filename);
 		}
 
 
-		String read = readFromFile(dataFile);
-		if (read != null) {
-			try {
-				Map<?, ?> m = (Map) serializeFromString(read);
-				for (Map.Entry<?, ?> entry : m.entrySet()) {
-					ex.box.properties.put(new Dict.Prop((String) entry.getKey()), entry.getValue());
-				}
-			} catch (Exception e) {
-				Log.log("io.error", () -> "trouble loading external " + dataFile + ". Corrupt file?");
-				e.printStackTrace();
+		try {
+			Map<?, ?> m = (Map) readEDN(sanitizeName(dataFile));
+			for (Map.Entry<?, ?> entry : m.entrySet()) {
+				ex.box.properties.put(new Dict.Prop((String) entry.getKey()), entry.getValue());
 			}
+		} catch (Exception e) {
+			Log.log("io.error", () -> "trouble loading external " + dataFile + ". Corrupt file?");
+			e.printStackTrace();
 		}
 
 		if (ex.overriddenProperties != null) {
@@ -590,29 +662,70 @@ public class IO {
 		return ex;
 	}
 
+	/**
+	 * Everything is serialized on the calling thread, but files are written in parallel on ioPool, each to a temporary file that is then renamed over the original. Text properties that haven't
+	 * changed since they were last read or written aren't even looked at, and anything whose contents are identical to what we last wrote isn't written. The document file itself is written
+	 * last, once everything it refers to is on disk.
+	 */
 	public void writeOutDocument(String filename, Document d) throws IOException {
+		long start = System.nanoTime();
+		int wasWritten = filesWritten.get();
+		int wasSkipped = filesSkipped.get();
 
 		String prefix = new File(filename).getParent() + "/";
 
+		List<Future<?>> pending = new ArrayList<>();
 		for (External e : d.externalList)
-			writeOutExternal(prefix, e);
+			writeOutExternal(prefix, e, pending);
+
+		IOException failed = null;
+		for (Future<?> f : pending) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread()
+				      .interrupt();
+				if (failed == null) failed = new InterruptedIOException(" interrupted while saving " + filename);
+			} catch (ExecutionException e) {
+				if (failed == null) failed = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+			}
+		}
+		if (failed != null) throw failed;
+
+		writeEDN(filenameFor(filename), d);
 
-		writeToFile(filenameFor(filename), serializeToString(d));
+		lastSaveMillis = (System.nanoTime() - start) / 1e6;
+		Log.log("io.general", () -> " saved " + filename + " in " + lastSaveMillis + "ms, " + (filesWritten.get() - wasWritten) + " files written, " + (filesSkipped.get() - wasSkipped) + " unchanged");
 	}
 
-	protected void writeOutExternal(String defaultPrefix, External external) throws IOException {
+	protected void writeOutExternal(String defaultPrefix, External external, List<Future<?>> pending) throws IOException {
 		for (Map.Entry<String, String> e : external.textFiles.entrySet()) {
-			String text = external.box.properties.get(new Dict.Prop<String>(e.getKey()));
-			if (text == null) continue;
-			File filename = filenameFor(defaultPrefix, e.getValue());
+			File filename = sanitizeName(filenameFor(defaultPrefix, e.getValue()));
 
-			try {
-				writeToFile(filename, text);
-			} catch (Exception ex) {
-				System.err.println(" exception thrown while saving out a file :" + filename + " for property :" + e + " in box +" + external.box);
-				ex.printStackTrace();
-				System.err.println(" continuing on");
+			if (isSynced(external.box, e.getKey(), filename)) {
+				filesSkipped.incrementAndGet();
+				continue;
 			}
+
+			// marked before it's read, so that a change made while we're saving isn't lost
+			synced(external.box, e.getKey(), filename);
+			String text = external.box.properties.get(new Dict.Prop<String>(e.getKey()));
+			if (text == null) {
+				unsync(external.box, e.getKey());
+				continue;
+			}
+
+			pending.add(ioPool.submit(() -> {
+				try {
+					write(filename, text);
+				} catch (Exception ex) {
+					unsync(external.box, e.getKey());
+					System.err.println(" exception thrown while saving out a file :" + filename + " for property :" + e + " in box +" + external.box);
+					ex.printStackTrace();
+					System.err.println(" continuing on");
+				}
+				return null;
+			}));
 		}
 
 		File dataFile = filenameFor(external.dataFile);
@@ -629,7 +742,8 @@ public class IO {
 
 			data.put("__boxclass__", external.boxClass);
 
-			writeToFile(dataFile, serializeToString(data));
+			// streamed to disk here rather than on ioPool, it's reading the box's properties as it goes
+			writeEDN(dataFile, data);
 		}
 
 		Log.log("io.general", () -> "sweep for persistent, perDocument properties");
@@ -660,6 +774,117 @@ public class IO {
 		return written;
 	}
 
+	/**
+	 * writes 'text' to 'filename' unless that's exactly what we last read from it or wrote to it
+	 */
+	protected void write(File filename, String text) throws IOException {
+		File f = sanitizeName(filename);
+		String h = hash(text);
+		if (h.equals(onDisk.get(f)) && f.exists()) {
+			filesSkipped.incrementAndGet();
+			return;
+		}
+		writeToFile(f, text);
+		onDisk.put(f, h);
+		filesWritten.incrementAndGet();
+	}
+
+	/**
+	 * prints 'data' as EDN straight into a temporary file next to 'filename', without building the text in memory. The temporary file then replaces 'filename', unless it turns out to be
+	 * exactly what we last read from or wrote to it
+	 */
+	protected void writeEDN(File filename, Object data) throws IOException {
+		File f = sanitizeName(filename);
+		if (!f.getParentFile()
+		      .exists()) f.getParentFile()
+				  .mkdirs();
+
+		Path temp = Files.createTempFile(f.toPath()
+						  .getParent(), "." + f.getName(), ".tmp");
+		try {
+			MessageDigest md = digest();
+			OutputStream o = Files.newOutputStream(temp);
+			if (md != null) o = new DigestOutputStream(o, md);
+			try (Writer w = new BufferedWriter(new OutputStreamWriter(o, StandardCharsets.UTF_8), 1 << 16)) {
+				edn.write(data, w);
+			}
+
+			String h = md == null ? null : Base64.getEncoder()
+							     .encodeToString(md.digest());
+			if (h != null && h.equals(onDisk.get(f)) && f.exists()) {
+				filesSkipped.incrementAndGet();
+				return;
+			}
+
+			replace(temp, f.toPath());
+			if (h != null) onDisk.put(f, h);
+			filesWritten.incrementAndGet();
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * parses EDN from 'filename' as it's read, remembering the hash of its contents
+	 */
+	protected Object readEDN(File filename) throws IOException {
+		MessageDigest md = digest();
+		InputStream i = Files.newInputStream(filename.toPath());
+		if (md != null) i = new DigestInputStream(i, md);
+		try (Reader r = new BufferedReader(new InputStreamReader(i, StandardCharsets.UTF_8), 1 << 16)) {
+			Object o = edn.read(r);
+
+			// the rest of the file (whitespace, normally) has to go through the digest too
+			char[] rest = new char[4096];
+			while (r.read(rest) != -1) ;
+
+			if (md != null) onDisk.put(filename, Base64.getEncoder()
+								 .encodeToString(md.digest()));
+			return o;
+		}
+	}
+
+	protected String readAndRemember(File filename) {
+		String text = readFromFile(filename);
+		if (filename.exists()) onDisk.put(filename, hash(text));
+		return text;
+	}
+
+	static protected String hash(String text) {
+		MessageDigest md = digest();
+		// every Java platform has SHA-256, but if not then nothing is ever skipped
+		if (md == null) return "" + System.nanoTime();
+		return Base64.getEncoder()
+			     .encodeToString(md.digest(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	static protected MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			return null;
+		}
+	}
+
+	protected void synced(Box box, String property, File filename) {
+		if (watched.add(property)) Box.onPropertyChange(new Dict.Prop<String>(property), (b, p, was, now) -> unsync(b, p.getName()));
+		synced.computeIfAbsent(box, k -> new ConcurrentHashMap<>())
+		      .put(property, filename);
+	}
+
+	protected void unsync(Box box, String property) {
+		Map<String, File> m = synced.get(box);
+		if (m != null) m.remove(property);
+	}
+
+	protected boolean isSynced(Box box, String property, File filename) {
+		Map<String, File> m = synced.get(box);
+		return m != null && filename.equals(m.get(property)) && filename.exists();
+	}
+
+	/**
+	 * writes to a temporary file next to 'filename' and then renames it, so that 'filename' is never left half written
+	 */
 	private void writeToFile(File filename, String text) throws IOException {
 		filename = sanitizeName(filename);
 		final File finalFilename = filename;
@@ -667,9 +892,25 @@ public class IO {
 
 		if (!filename.getParentFile().exists()) filename.getParentFile().mkdirs();
 
-		BufferedWriter w = new BufferedWriter(new FileWriter(filename));
-		w.append(text);
-		w.close();
+		Path target = filename.toPath();
+		Path temp = Files.createTempFile(target.getParent(), "." + filename.getName(), ".tmp");
+		try {
+			Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+			replace(temp, target);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * moves 'temp' over 'target', atomically if the filesystem can
+	 */
+	static public void replace(Path temp, Path target) throws IOException {
+		try {
+			Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+		}
 	}
 
 	static private File sanitizeName(File filename) {
@@ -31,13 +31,34 @@ public class Raft {
     Map<Node, Box> insideLoad = new LinkedHashMap<>();
 
 
+    /**
+     * Groups are written as RaftSnapshots, anything else with Java serialization
+     */
     static public void write(Serializable s, String filename) throws IOException {
+        if (s instanceof Group) {
+            RaftSnapshot.write((Group) s, filename);
+            return;
+        }
         try(ObjectOutputStream o = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(new File(filename))))) {
             o.writeObject(s);
         }
     }
 
+    /**
+     * reads either format. To load a snapshot without decoding all of it, use RaftSnapshot.map and loadTopology(RaftSnapshot, ...)
+     */
     static public Serializable read(String filename) throws IOException, ClassNotFoundException {
+        try(DataInputStream i = new DataInputStream(new FileInputStream(new File(filename)))) {
+            // available() is only an estimate, so read the magic rather than asking how much there is
+            int magic;
+            try {
+                magic = i.readInt();
+            } catch (EOFException e) {
+                // too short to be a snapshot
+                magic = 0;
+            }
+            if (magic == RaftSnapshot.MAGIC) return RaftSnapshot.map(filename).toGroup();
+        }
         try(ObjectInputStream o = new ObjectInputStream(new BufferedInputStream(new FileInputStream(new File(filename))))) {
             return (Serializable) o.readObject();
         }
@@ -111,6 +132,86 @@ public class Raft {
 
 
 
+    /**
+     * like loadTopology(Group, ...), but straight from a snapshot. Boxes are made and connected up front, but their property values are only decoded when something asks for them (see
+     * Dict.defer)
+     */
+    public List<Box> loadTopology(RaftSnapshot s, Box root, Function<String, Box> alias) {
+
+        Function<String, Box> aalias = x -> {
+            Box q = alias.apply(x);
+            if (q!=null) return q;
+            if (x.equals(">>root<<")) return root;
+            return null;
+        };
+
+        Box[] boxes = new Box[s.size()];
+        for (int i = 0; i < boxes.length; i++) {
+            try {
+                boxes[i] = newBox((String) s.decode(i, "__class"));
+            } catch (InstantiationException | IllegalAccessException | IOException | ClassNotFoundException e) {
+                e.printStackTrace();
+                continue;
+            }
+
+            for (String k : s.keys(i)) {
+                if (k.startsWith("__") || k.equals("uid")) continue;
+                // loadTopology(Group, ...) doesn't put these either
+                if (s.isNull(i, k)) continue;
+
+                Dict.Prop p = new Dict.Prop(k);
+                Dict.Prop pc = p.findCannon();
+                if (pc != null) p = pc;
+
+                int node = i;
+                Dict.Prop fp = p;
+                boxes[i].properties.defer(p, () -> {
+                    try {
+                        Object v = s.decode(node, k);
+                        // just like loadTopology(Group, ...), only properties that actually have a value become persistent
+                        if (v != null) fp.getAttributes().put(IO.persistent, true);
+                        return v;
+                    } catch (IOException | ClassNotFoundException e) {
+                        Log.log("error.raft", () -> "can't decode property " + k + ", continuing on anyway " + e);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        for (int i = 0; i < boxes.length; i++) {
+            if (boxes[i] == null) continue;
+            for (int c : s.children(i)) {
+                Box c2 = s.isAlias(c) ? aalias.apply(s.alias(c)) : boxes[s.node(c)];
+                if (c2 != null) boxes[i].connect(c2);
+            }
+            for (int c : s.parents(i)) {
+                Box c2 = s.isAlias(c) ? aalias.apply(s.alias(c)) : boxes[s.node(c)];
+                if (c2 != null) c2.connect(boxes[i]);
+            }
+        }
+
+        List<Box> r = new ArrayList<>();
+        for (Box b : boxes)
+            if (b != null) r.add(b);
+        return r;
+    }
+
+    private Box newBox(String className) throws InstantiationException, IllegalAccessException {
+        Class<? extends Box> boxClass = Box.class;
+        if (className != null) {
+            try {
+                boxClass = (Class<? extends Box>) this.getClass().getClassLoader().loadClass(className);
+            } catch (ClassNotFoundException e) {
+                Log.log("error", () -> "can't find class to instantiate box, continuing on anyway");
+            }
+        }
+
+        Box b = boxClass.newInstance();
+        if (className != null) b.properties.put(IO.desiredBoxClass, className);
+        return b;
+    }
+
     private Box _loadBox(Node vertex, Function<String, Box> alias, Predicate<Node> load) throws InstantiationException, IllegalAccessException, IOException, ClassNotFoundException {
         if (insideLoad.containsKey(vertex)) {
             return insideLoad.get(vertex);
@@ -0,0 +1,398 @@
+package fieldbox.io;
+
+import field.utility.Log;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * A compact binary form of a Raft.Group, and a reader for it that works straight out of a (memory mapped) ByteBuffer.
+ * <p>
+ * Everything is written once: property names, aliases and class names go into a string table and are referred to by index, topology edges are varint node indices, and property values are
+ * length prefixed blobs (Serializable values as raw serialized bytes rather than Base64). Opening a snapshot reads the string table and the topology and skips over the blobs, so values are only
+ * decoded when they are asked for (see Raft.loadTopology(RaftSnapshot, ...), which defers each one into the box's properties).
+ * <p>
+ * Layout, where every count, index and length is an unsigned LEB128 varint:
+ * <pre>
+ *   magic 'FRS1'
+ *   strings: count, then (utf-8 length, utf-8 bytes) for each
+ *   nodes: count, then for each node
+ *     children: count, then refs
+ *     parents: count, then refs
+ *     values: count, then (key string, tag byte, blob length, blob) for each
+ * </pre>
+ * A ref is a node index shifted left by one, or a string index shifted left by one with the low bit set for a box that's referred to by alias.
+ */
+public class RaftSnapshot {
+
+	static public final int MAGIC = 0x46525331;
+
+	static protected final byte NULL = 0;
+	static protected final byte STRING = 1;
+	static protected final byte SERIALIZABLE = 2;
+	static protected final byte CLASS = 3;
+	static protected final byte NODE = 4;
+	static protected final byte OTHER = 5;
+
+	// Raft's own encoding of values, see Raft.toValue
+	static protected final String stringPrefix = "%%java.lang.String%%";
+	static protected final String serializablePrefix = "%%java.io.Serializable%%";
+	static protected final String classPrefix = "%%java.lang.Class%%";
+
+	static public void write(Raft.Group g, String filename) throws IOException {
+		try (OutputStream o = new BufferedOutputStream(new FileOutputStream(new File(filename)))) {
+			o.write(encode(g));
+		}
+	}
+
+	static public byte[] encode(Raft.Group g) {
+		// every node reachable from the group, through the topology or as the value of a property (see Raft.toValue), gets an index, in order
+		Map<Raft.Node, Integer> index = new IdentityHashMap<>();
+		List<Raft.Node> nodes = new ArrayList<>();
+		for (Raft.Node n : g.nodes)
+			number(n, index, nodes);
+		for (int i = 0; i < nodes.size(); i++) {
+			for (Object c : nodes.get(i).children)
+				if (c instanceof Raft.Node) number((Raft.Node) c, index, nodes);
+			for (Object c : nodes.get(i).parents)
+				if (c instanceof Raft.Node) number((Raft.Node) c, index, nodes);
+			for (Object c : nodes.get(i).values.values())
+				if (c instanceof Raft.Node) number((Raft.Node) c, index, nodes);
+		}
+
+		Map<String, Integer> strings = new LinkedHashMap<>();
+		Out body = new Out();
+		Out blob = new Out();
+
+		body.varint(nodes.size());
+		for (Raft.Node n : nodes) {
+			refs(n.children, index, strings, body);
+			refs(n.parents, index, strings, body);
+
+			body.varint(n.values.size());
+			for (Map.Entry<String, Object> e : n.values.entrySet()) {
+				body.varint(intern(e.getKey(), strings));
+				blob.reset();
+				byte tag = value(e.getValue(), index, strings, blob);
+				body.write(tag);
+				body.varint(blob.size());
+				body.write(blob.buffer(), 0, blob.size());
+			}
+		}
+
+		Out out = new Out();
+		out.write(MAGIC >>> 24);
+		out.write(MAGIC >>> 16);
+		out.write(MAGIC >>> 8);
+		out.write(MAGIC);
+		out.varint(strings.size());
+		for (String s : strings.keySet())
+			out.string(s);
+		out.write(body.buffer(), 0, body.size());
+		return out.toByteArray();
+	}
+
+	static private void number(Raft.Node n, Map<Raft.Node, Integer> index, List<Raft.Node> nodes) {
+		if (index.containsKey(n)) return;
+		index.put(n, nodes.size());
+		nodes.add(n);
+	}
+
+	static private int intern(String s, Map<String, Integer> strings) {
+		return strings.computeIfAbsent(s, k -> strings.size());
+	}
+
+	static private void refs(List<Object> l, Map<Raft.Node, Integer> index, Map<String, Integer> strings, Out to) {
+		int n = 0;
+		for (Object o : l)
+			if (o instanceof Raft.Node || o instanceof String) n++;
+		to.varint(n);
+		for (Object o : l) {
+			if (o instanceof Raft.Node) to.varint(index.get(o) << 1);
+			else if (o instanceof String) to.varint(intern((String) o, strings) << 1 | 1);
+		}
+	}
+
+	static private byte value(Object v, Map<Raft.Node, Integer> index, Map<String, Integer> strings, Out to) {
+		if (v == null) return NULL;
+		if (v instanceof Raft.Node) {
+			to.varint(index.get(v));
+			return NODE;
+		}
+		String s = "" + v;
+		if (s.startsWith(stringPrefix)) {
+			to.utf8(s.substring(stringPrefix.length()));
+			return STRING;
+		}
+		if (s.startsWith(serializablePrefix)) {
+			byte[] b = Base64.getDecoder()
+					 .decode(s.substring(serializablePrefix.length()));
+			to.write(b, 0, b.length);
+			return SERIALIZABLE;
+		}
+		if (s.startsWith(classPrefix)) {
+			to.varint(intern(s.substring(classPrefix.length()), strings));
+			return CLASS;
+		}
+		to.utf8(s);
+		return OTHER;
+	}
+
+	/**
+	 * opens a snapshot by memory mapping it
+	 */
+	static public RaftSnapshot map(String filename) throws IOException {
+		try (FileChannel c = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			return new RaftSnapshot(c.map(FileChannel.MapMode.READ_ONLY, 0, c.size()));
+		}
+	}
+
+	static public RaftSnapshot of(ByteBuffer data) throws IOException {
+		return new RaftSnapshot(data);
+	}
+
+	static public boolean isSnapshot(ByteBuffer data) {
+		return data.remaining() >= 4 && data.getInt(data.position()) == MAGIC;
+	}
+
+	protected final ByteBuffer data;
+	protected final String[] strings;
+
+	protected final int[][] children;
+	protected final int[][] parents;
+
+	// per node: the key (string index), tag, blob position and blob length of every value
+	protected final int[][] keys;
+	protected final byte[][] tags;
+	protected final int[][] blobs;
+	protected final int[][] lengths;
+
+	protected RaftSnapshot(ByteBuffer data) throws IOException {
+		this.data = data.duplicate();
+		ByteBuffer b = data.duplicate();
+		if (!isSnapshot(b)) throw new IOException(" not a Raft snapshot");
+		b.position(b.position() + 4);
+
+		strings = new String[varint(b)];
+		for (int i = 0; i < strings.length; i++) {
+			int len = varint(b);
+			strings[i] = utf8(b, b.position(), len);
+			b.position(b.position() + len);
+		}
+
+		int n = varint(b);
+		children = new int[n][];
+		parents = new int[n][];
+		keys = new int[n][];
+		tags = new byte[n][];
+		blobs = new int[n][];
+		lengths = new int[n][];
+
+		for (int i = 0; i < n; i++) {
+			children[i] = refs(b);
+			parents[i] = refs(b);
+
+			int v = varint(b);
+			keys[i] = new int[v];
+			tags[i] = new byte[v];
+			blobs[i] = new int[v];
+			lengths[i] = new int[v];
+			for (int j = 0; j < v; j++) {
+				keys[i][j] = varint(b);
+				tags[i][j] = b.get();
+				lengths[i][j] = varint(b);
+				blobs[i][j] = b.position();
+				b.position(b.position() + lengths[i][j]);
+			}
+		}
+	}
+
+	static private int[] refs(ByteBuffer b) {
+		int[] r = new int[varint(b)];
+		for (int i = 0; i < r.length; i++)
+			r[i] = varint(b);
+		return r;
+	}
+
+	public int size() {
+		return children.length;
+	}
+
+	/**
+	 * refs (see isAlias, alias and node) to the children of 'node'
+	 */
+	public int[] children(int node) {
+		return children[node];
+	}
+
+	public int[] parents(int node) {
+		return parents[node];
+	}
+
+	public boolean isAlias(int ref) {
+		return (ref & 1) != 0;
+	}
+
+	public String alias(int ref) {
+		return strings[ref >>> 1];
+	}
+
+	public int node(int ref) {
+		return ref >>> 1;
+	}
+
+	/**
+	 * the names of the values stored for 'node', in the order they were saved
+	 */
+	public List<String> keys(int node) {
+		List<String> r = new ArrayList<>(keys[node].length);
+		for (int k : keys[node])
+			r.add(strings[k]);
+		return r;
+	}
+
+	/**
+	 * true if 'node' has no value 'key', or has one that decode(...) will always return null for
+	 */
+	public boolean isNull(int node, String key) {
+		int j = find(node, key);
+		return j == -1 || tags[node][j] == NULL || tags[node][j] == NODE;
+	}
+
+	/**
+	 * decodes the value 'key' of 'node' into the object it stands for: a String, a deserialized Serializable or a Class. References to other boxes (which Raft can't load either) come back as null
+	 */
+	public Object decode(int node, String key) throws IOException, ClassNotFoundException {
+		int j = find(node, key);
+		if (j == -1) return null;
+
+		ByteBuffer b = data.duplicate();
+		b.position(blobs[node][j]);
+		switch (tags[node][j]) {
+			case STRING:
+			case OTHER:
+				return utf8(b, b.position(), lengths[node][j]);
+			case SERIALIZABLE:
+				byte[] a = new byte[lengths[node][j]];
+				b.get(a);
+				try (ObjectInputStream o = new ObjectInputStream(new ByteArrayInputStream(a))) {
+					return o.readObject();
+				}
+			case CLASS:
+				return Thread.currentThread()
+					     .getContextClassLoader()
+					     .loadClass(strings[varint(b)]);
+			case NODE:
+				Log.log("error.raft", () -> "cannot deserialize box reference");
+				return null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * decodes the whole snapshot back into a Raft.Group, exactly as Raft.saveTopology made it
+	 */
+	public Raft.Group toGroup() {
+		Raft.Node[] n = new Raft.Node[size()];
+		for (int i = 0; i < n.length; i++)
+			n[i] = new Raft.Node();
+
+		for (int i = 0; i < n.length; i++) {
+			for (int c : children[i])
+				n[i].children.add(isAlias(c) ? alias(c) : n[node(c)]);
+			for (int c : parents[i])
+				n[i].parents.add(isAlias(c) ? alias(c) : n[node(c)]);
+
+			for (int j = 0; j < keys[i].length; j++) {
+				ByteBuffer b = data.duplicate();
+				b.position(blobs[i][j]);
+				Object v;
+				switch (tags[i][j]) {
+					case STRING:
+						v = stringPrefix + utf8(b, b.position(), lengths[i][j]);
+						break;
+					case SERIALIZABLE:
+						byte[] a = new byte[lengths[i][j]];
+						b.get(a);
+						v = serializablePrefix + Base64.getEncoder()
+									       .encodeToString(a);
+						break;
+					case CLASS:
+						v = classPrefix + strings[varint(b)];
+						break;
+					case NODE:
+						v = n[varint(b)];
+						break;
+					case OTHER:
+						v = utf8(b, b.position(), lengths[i][j]);
+						break;
+					default:
+						v = null;
+				}
+				n[i].values.put(strings[keys[i][j]], v);
+			}
+		}
+
+		Raft.Group g = new Raft.Group();
+		g.nodes = new ArrayList<>(Arrays.asList(n));
+		return g;
+	}
+
+	protected int find(int node, String key) {
+		int[] k = keys[node];
+		for (int j = 0; j < k.length; j++)
+			if (strings[k[j]].equals(key)) return j;
+		return -1;
+	}
+
+	static private int varint(ByteBuffer b) {
+		int r = 0;
+		int shift = 0;
+		while (true) {
+			byte x = b.get();
+			r |= (x & 0x7f) << shift;
+			if ((x & 0x80) == 0) return r;
+			shift += 7;
+		}
+	}
+
+	static private String utf8(ByteBuffer b, int at, int length) {
+		if (b.hasArray()) return new String(b.array(), b.arrayOffset() + at, length, StandardCharsets.UTF_8);
+		byte[] a = new byte[length];
+		ByteBuffer d = b.duplicate();
+		d.position(at);
+		d.get(a);
+		return new String(a, StandardCharsets.UTF_8);
+	}
+
+	static private class Out extends ByteArrayOutputStream {
+		void varint(int v) {
+			while ((v & ~0x7f) != 0) {
+				write((v & 0x7f) | 0x80);
+				v >>>= 7;
+			}
+			write(v);
+		}
+
+		void utf8(String s) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			write(b, 0, b.length);
+		}
+
+		void string(String s) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			varint(b.length);
+			write(b, 0, b.length);
+		}
+
+		byte[] buffer() {
+			return buf;
+		}
+	}
+}
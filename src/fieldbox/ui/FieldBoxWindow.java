@@ -46,6 +46,7 @@ public class FieldBoxWindow extends Window {
 		GraphicsContext.enterContext(graphicsContext);
 		try {
 			Log.log("graphics.trace", () -> "scene is ...\n" + scene.debugPrintScene());
+			GraphicsContext.getContext().stateTracker.newFrame();
 			GraphicsContext.getContext().stateTracker.viewport.set(new int[]{0, 0, w * getRetinaScaleFactor(), h * getRetinaScaleFactor()});
 			GraphicsContext.getContext().stateTracker.scissor.set(new int[]{0, 0, w * getRetinaScaleFactor(), h * getRetinaScaleFactor()});
 			GraphicsContext.getContext().stateTracker.fbo.set(0);
@@ -163,12 +163,12 @@ public class RemoteEditor extends Box {
 		watches.addWatch(Mouse.isSelected, "selection.changed");
 		watches.addWatch(LinuxWindowTricks.lostFocus, "focus.editor");
 
-		queue.register(Predicate.isEqual("selection.changed"), (c) -> {
+		queue.registerExact("selection.changed", (c) -> {
 			Log.log("remote.trace", () -> " selection changed message ");
 			selectionHasChanged = true;
 		});
 
-		queue.register(Predicate.isEqual("focus.editor"), (c) -> {
+		queue.registerExact("focus.editor", (c) -> {
 			Log.log("remote.trace", () -> " sending focus request ");
 			server.send(socketName, "_messageBus.publish('focus', {})");
 		});